@@ -12,7 +12,7 @@
 <h1>Search for Flights</h1>
 
 <spring:nestedPath path="flightSearchCriteria">
-<form action="" method="post">
+<form action="findFlights" method="post">
 <table>
 
 <tr>
@@ -47,6 +47,46 @@
   </td>
 </tr>
 
+<tr>
+  <td>Sort By:</td>
+  <td>
+    <spring:bind path="sortBy">
+      <select name="${status.expression}">
+        <option value="COST" ${status.value == 'COST' ? 'selected="selected"' : ''}>Lowest price</option>
+        <option value="TRAVEL_TIME" ${status.value == 'TRAVEL_TIME' ? 'selected="selected"' : ''}>Shortest trip</option>
+        <option value="LEGS" ${status.value == 'LEGS' ? 'selected="selected"' : ''}>Fewest stops</option>
+        <option value="DEPARTURE" ${status.value == 'DEPARTURE' ? 'selected="selected"' : ''}>Earliest departure</option>
+      </select>
+    </spring:bind>
+  </td>
+  <td>Show:</td>
+  <td>
+    <spring:bind path="limit">
+      <select name="${status.expression}">
+        <option value="10" ${status.value == '10' ? 'selected="selected"' : ''}>Best 10</option>
+        <option value="50" ${status.value == '50' ? 'selected="selected"' : ''}>Best 50</option>
+        <option value="0" ${status.value == '0' ? 'selected="selected"' : ''}>All</option>
+      </select>
+    </spring:bind>
+  </td>
+</tr>
+
+<tr>
+  <td>Dates:</td>
+  <td>
+    <spring:bind path="flexibleDays">
+      <select name="${status.expression}">
+        <option value="0" ${status.value == '0' ? 'selected="selected"' : ''}>Exactly</option>
+        <option value="1" ${status.value == '1' ? 'selected="selected"' : ''}>Give or take 1 day</option>
+        <option value="2" ${status.value == '2' ? 'selected="selected"' : ''}>Give or take 2 days</option>
+        <option value="3" ${status.value == '3' ? 'selected="selected"' : ''}>Give or take 3 days</option>
+      </select>
+    </spring:bind>
+  </td>
+  <td />
+  <td />
+</tr>
+
 <tr>
   <td />
   <td><input type="submit" value="Search" /></td>
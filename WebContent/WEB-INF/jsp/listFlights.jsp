@@ -1,5 +1,7 @@
 <?xml version="1.0" encoding="ISO-8859-1" ?>
 <%@ taglib uri="http://java.sun.com/jsp/jstl/core" prefix="c" %>
+<%@ taglib uri="http://java.sun.com/jsp/jstl/functions" prefix="fn" %>
+<%@ taglib uri="http://java.sun.com/jsp/jstl/fmt" prefix="fmt" %>
 <!DOCTYPE html PUBLIC "-//W3C//DTD XHTML 1.0 Strict//EN"
   "http://www.w3.org/TR/xhtml1/DTD/xhtml1-strict.dtd">
 <html xmlns="http://www.w3.org/1999/xhtml">
@@ -17,9 +19,113 @@ ${flightSearchCriteria.departOn}, heading to ${flightSearchCriteria.arriveAt}, r
 or about ${flightSearchCriteria.returnOn}.
 </p>
 
+<c:if test="${searchIncomplete}">
+<form action="findFlights" method="post">
+<p>
+Your search is taking longer than usual, so only special deals are shown.
+<input type="hidden" name="departFrom" value="${fn:escapeXml(flightSearchCriteria.departFrom)}" />
+<input type="hidden" name="arriveAt" value="${fn:escapeXml(flightSearchCriteria.arriveAt)}" />
+<input type="hidden" name="departOn" value="<fmt:formatDate value="${flightSearchCriteria.departOn}" pattern="yyyy-MM-dd HH" />" />
+<input type="hidden" name="returnOn" value="<fmt:formatDate value="${flightSearchCriteria.returnOn}" pattern="yyyy-MM-dd HH" />" />
+<input type="hidden" name="sortBy" value="${flightSearchCriteria.sortBy}" />
+<input type="hidden" name="limit" value="${flightSearchCriteria.limit}" />
+<input type="hidden" name="flexibleDays" value="${flightSearchCriteria.flexibleDays}" />
+<input type="submit" value="Try again" />
+</p>
+</form>
+</c:if>
+
+<c:if test="${not empty fareCalendar}">
+<p>Lowest prices ${flightSearchCriteria.flexibleDays} days either side of your dates:</p>
+<table>
+  <thead>
+    <tr>
+      <th>Departs</th>
+      <c:choose>
+      <c:when test="${fareCalendar.roundTrip}">
+      <c:forEach items="${fareCalendar.returnDayList}" var="returnDay">
+      <th>Returns <fmt:formatDate value="${returnDay}" pattern="yyyy-MM-dd" timeZone="UTC" /></th>
+      </c:forEach>
+      </c:when>
+      <c:otherwise>
+      <th>Lowest Price</th>
+      </c:otherwise>
+      </c:choose>
+    </tr>
+  </thead>
+  <tbody>
+  <c:forEach items="${fareCalendar.rows}" var="row">
+  <tr>
+    <td><fmt:formatDate value="${row.departDay}" pattern="yyyy-MM-dd" timeZone="UTC" /></td>
+    <c:forEach items="${row.prices}" var="price">
+    <td><c:choose><c:when test="${empty price}">-</c:when><c:otherwise>$${price}</c:otherwise></c:choose></td>
+    </c:forEach>
+  </tr>
+  </c:forEach>
+  </tbody>
+</table>
+</c:if>
+
+<c:if test="${not empty specialDeals}">
+<p>Special deals on this route:</p>
+<ul>
+  <c:forEach items="${specialDeals}" var="special">
+  <li>${special.departFrom.name} - ${special.arriveAt.name} from $${special.cost}</li>
+  </c:forEach>
+</ul>
+</c:if>
+
+<c:if test="${not empty roundTrips}">
+<p>Cheapest round trips:</p>
+<table>
+  <thead>
+    <tr>
+      <th>Departs</th>
+      <th>Returns</th>
+      <th>Legs Out</th>
+      <th>Legs Back</th>
+      <th>Total Cost</th>
+    </tr>
+  </thead>
+  <tbody>
+  <c:forEach items="${roundTrips}" var="roundTrip">
+  <tr>
+    <td><fmt:formatDate value="${roundTrip.outbound.departOn}" pattern="yyyy-MM-dd HH:mm" /></td>
+    <td><fmt:formatDate value="${roundTrip.inbound.departOn}" pattern="yyyy-MM-dd HH:mm" /></td>
+    <td>${roundTrip.outbound.numberOfLegs}</td>
+    <td>${roundTrip.inbound.numberOfLegs}</td>
+    <td>$${roundTrip.totalCost}</td>
+  </tr>
+  </c:forEach>
+  </tbody>
+</table>
+<p>Outbound flights:</p>
+</c:if>
+
+<form action="findFlights" method="post">
+<p>
+<input type="hidden" name="departFrom" value="${fn:escapeXml(flightSearchCriteria.departFrom)}" />
+<input type="hidden" name="arriveAt" value="${fn:escapeXml(flightSearchCriteria.arriveAt)}" />
+<input type="hidden" name="departOn" value="<fmt:formatDate value="${flightSearchCriteria.departOn}" pattern="yyyy-MM-dd HH" />" />
+<input type="hidden" name="returnOn" value="<fmt:formatDate value="${flightSearchCriteria.returnOn}" pattern="yyyy-MM-dd HH" />" />
+<input type="hidden" name="limit" value="${flightSearchCriteria.limit}" />
+<input type="hidden" name="flexibleDays" value="${flightSearchCriteria.flexibleDays}" />
+Sorted by
+<select name="sortBy">
+  <option value="COST" ${flightSearchCriteria.sortBy == 'COST' ? 'selected="selected"' : ''}>lowest price</option>
+  <option value="TRAVEL_TIME" ${flightSearchCriteria.sortBy == 'TRAVEL_TIME' ? 'selected="selected"' : ''}>shortest trip</option>
+  <option value="LEGS" ${flightSearchCriteria.sortBy == 'LEGS' ? 'selected="selected"' : ''}>fewest stops</option>
+  <option value="DEPARTURE" ${flightSearchCriteria.sortBy == 'DEPARTURE' ? 'selected="selected"' : ''}>earliest departure</option>
+</select>
+<input type="submit" value="Sort" />
+<c:if test="${flightSearchCriteria.limit > 0}">(best ${flightSearchCriteria.limit} shown)</c:if>
+</p>
+</form>
+
 <table>
   <thead>
     <tr>
+      <th>Departs</th>
       <th>Number of Legs</th>
       <th>Total Travel Time</th>
       <th>Total Cost</th>
@@ -28,6 +134,7 @@ or about ${flightSearchCriteria.returnOn}.
   <tbody>
   <c:forEach items="${flights}" var="flight">
   <tr>
+    <td><fmt:formatDate value="${flight.departOn}" pattern="yyyy-MM-dd HH:mm" /></td>
     <td>${flight.numberOfLegs}</td>
     <td>${flight.totalTravelTimeHours}</td>
     <td>$${flight.totalCost}</td>
@@ -36,5 +143,18 @@ or about ${flightSearchCriteria.returnOn}.
   </tbody>
 </table>
 
+<c:if test="${not empty flightPage}">
+<p>
+Flights ${flightPage.offset + 1} to ${flightPage.offset + fn:length(flights)}
+of ${flightPage.totalFlights}.
+<c:if test="${not empty flightPage.previousPageToken}">
+  <a href="<c:url value="search"><c:param name="page" value="${flightPage.previousPageToken}" /></c:url>">Previous</a>
+</c:if>
+<c:if test="${not empty flightPage.nextPageToken}">
+  <a href="<c:url value="search"><c:param name="page" value="${flightPage.nextPageToken}" /></c:url>">Next</a>
+</c:if>
+</p>
+</c:if>
+
 </body>
 </html>
\ No newline at end of file
@@ -0,0 +1,112 @@
+package JavaSource.com.apress.expertspringmvc.flight.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import JavaSource.com.apress.expertspringmvc.flight.domain.Account;
+import JavaSource.com.apress.expertspringmvc.flight.domain.Name;
+import JavaSource.com.apress.expertspringmvc.flight.service.AccountLog;
+
+/**
+ * Appends to the account log from 1, 2, 4 and 8 threads, each waiting for
+ * its own record as saveAccount does, in each durability mode.  Writers
+ * queue for one log writer that syncs everything queued at once, so in
+ * SYNC mode throughput should grow with the number of threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class AccountLogBenchmark {
+
+    /** When an append counts as done. */
+    @Param({"SYNC", "BATCHED", "ASYNC"})
+    AccountLog.Durability durability;
+
+    private final AtomicLong ids = new AtomicLong();
+    private File directory;
+    private AccountLog log;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("accounts").toFile();
+        log = new AccountLog(directory, durability);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        log.close();
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    /**
+     * One account per thread, changed and logged again on every call.
+     */
+    @State(Scope.Thread)
+    public static class Writer {
+
+        Account account;
+
+        @Setup
+        public void setUp(AccountLogBenchmark benchmark) {
+            long id = benchmark.ids.incrementAndGet();
+            account = new Account(new Name("Grace", null, "Hopper"),
+                    "user" + id, "secret");
+            account.setId(Long.valueOf(id));
+            account.setEmail("user" + id + "@example.com");
+            account.setLastUpdated(new Date());
+        }
+    }
+
+    private void put(Writer writer) throws IOException {
+        log.put(writer.account).await();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void put1(Writer writer) throws IOException {
+        put(writer);
+    }
+
+    @Benchmark
+    @Threads(2)
+    public void put2(Writer writer) throws IOException {
+        put(writer);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void put4(Writer writer) throws IOException {
+        put(writer);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void put8(Writer writer) throws IOException {
+        put(writer);
+    }
+
+}
@@ -0,0 +1,128 @@
+package JavaSource.com.apress.expertspringmvc.flight.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import JavaSource.com.apress.expertspringmvc.flight.domain.Account;
+import JavaSource.com.apress.expertspringmvc.flight.domain.Name;
+import JavaSource.com.apress.expertspringmvc.flight.service.AccountNotFoundException;
+import JavaSource.com.apress.expertspringmvc.flight.service.AccountServiceImpl;
+import JavaSource.com.apress.expertspringmvc.flight.service.AccountVersion;
+import JavaSource.com.apress.expertspringmvc.flight.service.NameMatch;
+
+/**
+ * The lookups of an in-memory account store holding a given number of
+ * accounts.  Each call looks up the next account in turn, so lookups
+ * range over the whole store rather than hitting one cached entry.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class AccountServiceBenchmark {
+
+    private static final String[] FIRST_NAMES = {
+        "Ada", "Alan", "Barbara", "Dennis", "Edsger", "Frances", "Grace",
+        "John", "Ken", "Leslie", "Margaret", "Niklaus" };
+
+    private static final String[] LAST_NAMES = {
+        "Allen", "Dijkstra", "Hopper", "Kay", "Knuth", "Lamport",
+        "Liskov", "Lovelace", "Ritchie", "Thompson", "Turing", "Wirth" };
+
+    private static final int PAGE_SIZE = 20;
+
+    /** How many accounts the store holds. */
+    @Param({"1000", "100000", "1000000"})
+    int accounts;
+
+    private AccountServiceImpl store;
+    private long[] ids;
+    private String[] usernames;
+    // each account's last name in upper case, to search for ignoring case
+    private String[] upperLastNames;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        store = new AccountServiceImpl(accounts);
+        ids = new long[accounts];
+        usernames = new String[accounts];
+        upperLastNames = new String[accounts];
+        for (int i = 0; i < accounts; i++) {
+            Account account = new Account(new Name(
+                    FIRST_NAMES[i % FIRST_NAMES.length], null,
+                    LAST_NAMES[(i / FIRST_NAMES.length) % LAST_NAMES.length]
+                    + (i / (FIRST_NAMES.length * LAST_NAMES.length))),
+                    "user" + i, "secret");
+            account.setEmail("user" + i + "@example.com");
+            store.saveAccount(account);
+            ids[i] = account.getId();
+            usernames[i] = account.getUsername();
+            upperLastNames[i] = account.getName().getLast().toUpperCase();
+        }
+    }
+
+    private int nextAccount() {
+        int i = next;
+        next = (i + 1 == accounts ? 0 : i + 1);
+        return i;
+    }
+
+    @Benchmark
+    public Account findAccount() throws AccountNotFoundException {
+        return store.findAccount(ids[nextAccount()]);
+    }
+
+    @Benchmark
+    public AccountVersion findAccountVersion()
+            throws AccountNotFoundException {
+        return store.findAccountVersion(ids[nextAccount()]);
+    }
+
+    @Benchmark
+    public Account findAccountByUsername() throws AccountNotFoundException {
+        return store.findAccountByUsername(usernames[nextAccount()]);
+    }
+
+    /**
+     * One page of the accounts sharing a first name, which grows with the
+     * store.
+     */
+    @Benchmark
+    public List<Account> findAccountsByFirstName() {
+        return store.findAccountsByFirstName(
+                FIRST_NAMES[nextAccount() % FIRST_NAMES.length],
+                NameMatch.EXACT, 0, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public List<Account> findAccountsByLastNamePrefix() {
+        return store.findAccountsByLastName(
+                LAST_NAMES[nextAccount() % LAST_NAMES.length],
+                NameMatch.PREFIX, 0, PAGE_SIZE);
+    }
+
+    /**
+     * The case-insensitive search the one-argument name lookups run.
+     */
+    @Benchmark
+    public List<Account> findAccountsByLastNameIgnoringCase() {
+        return store.findAccountsByLastName(upperLastNames[nextAccount()],
+                NameMatch.IGNORE_CASE, 0, PAGE_SIZE);
+    }
+
+}
@@ -0,0 +1,82 @@
+package JavaSource.com.apress.expertspringmvc.flight.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.validation.BeanPropertyBindingResult;
+import org.springframework.validation.Errors;
+
+import JavaSource.com.apress.expertspringmvc.flight.domain.Account;
+import JavaSource.com.apress.expertspringmvc.flight.domain.Name;
+import JavaSource.com.apress.expertspringmvc.flight.web.CreateAccount;
+import JavaSource.com.apress.expertspringmvc.flight.web.CreateAccountValidator;
+
+/**
+ * Validates the create account wizard's command the way each page submit
+ * does, for input that passes and for each way it can fail.  Every call
+ * binds into fresh Errors, as a request would.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CreateAccountValidatorBenchmark {
+
+    /**
+     * valid passes; blank leaves every required field empty; mismatched
+     * has a different confirmation password; badEmail lacks an '@'.
+     */
+    @Param({"valid", "blank", "mismatched", "badEmail"})
+    String input;
+
+    private final CreateAccountValidator validator =
+        new CreateAccountValidator();
+    private CreateAccount command;
+
+    @Setup
+    public void setUp() {
+        Account account = new Account(new Name("Grace", null, "Hopper"),
+                "ghopper", "secret");
+        account.setEmail("ghopper@example.com");
+        command = new CreateAccount();
+        command.setAccount(account);
+        command.setConfirmPassword("secret");
+        if ("blank".equals(input)) {
+            account.setUsername("");
+            account.setPassword("");
+            account.setEmail(" ");
+            command.setConfirmPassword("");
+        } else if ("mismatched".equals(input)) {
+            command.setConfirmPassword("secrets");
+        } else if ("badEmail".equals(input)) {
+            account.setEmail("ghopper.example.com");
+        }
+    }
+
+    @Benchmark
+    public Errors validatePage0() {
+        Errors errors = new BeanPropertyBindingResult(command, "createAccount");
+        validator.validatePage0(command, errors);
+        return errors;
+    }
+
+    @Benchmark
+    public Errors validate() {
+        Errors errors = new BeanPropertyBindingResult(command, "createAccount");
+        validator.validate(command, errors);
+        return errors;
+    }
+
+}
@@ -0,0 +1,125 @@
+package JavaSource.com.apress.expertspringmvc.flight.benchmark;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import JavaSource.com.apress.expertspringmvc.flight.domain.Account;
+import JavaSource.com.apress.expertspringmvc.flight.domain.Airport;
+import JavaSource.com.apress.expertspringmvc.flight.domain.Flight;
+import JavaSource.com.apress.expertspringmvc.flight.domain.FlightLeg;
+import JavaSource.com.apress.expertspringmvc.flight.domain.Name;
+import JavaSource.com.apress.expertspringmvc.flight.domain.SpecialDeal;
+
+/**
+ * The value methods of the domain objects, which searches and lookups call
+ * once per result or more.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DomainBenchmark {
+
+    private static final long ONE_HOUR = 1000*60*60;
+
+    /** How many legs the flight has. */
+    @Param({"1", "2", "4"})
+    int legs;
+
+    private Name name;
+    private Name sameName;
+    private Flight flight;
+    private SpecialDeal deal;
+    private Date duringDeal;
+    private Account account;
+
+    @Setup
+    public void setUp() {
+        name = new Name("Grace", "Brewster", "Hopper");
+        sameName = new Name(new String("Grace"), new String("Brewster"),
+                new String("Hopper"));
+
+        long start = System.currentTimeMillis();
+        List<FlightLeg> flightLegs = new ArrayList<FlightLeg>();
+        Airport from = new Airport("Boston", "BOS");
+        for (int i = 0; i < legs; i++) {
+            Airport to = new Airport("Stop " + i, "S" + i);
+            flightLegs.add(new FlightLeg(from, new Date(start + 3*i*ONE_HOUR),
+                    to, new Date(start + (3*i + 2)*ONE_HOUR),
+                    new BigDecimal(100)));
+            from = to;
+        }
+        flight = new Flight(flightLegs, new BigDecimal(100 * legs));
+
+        deal = new SpecialDeal(new Airport("Honolulu", "HNL"),
+                new Airport("Orlando", "MCO"), new BigDecimal(500),
+                new Date(start - 24*ONE_HOUR), new Date(start + 24*ONE_HOUR));
+        duringDeal = new Date(start);
+
+        account = new Account(name, "ghopper", "secret");
+        account.setId(1L);
+        account.setEmail("ghopper@example.com");
+        account.setLastUpdated(new Date(start));
+    }
+
+    @Benchmark
+    public int nameHashCode() {
+        return name.hashCode();
+    }
+
+    @Benchmark
+    public boolean nameEquals() {
+        return name.equals(sameName);
+    }
+
+    @Benchmark
+    public String nameToString() {
+        return name.toString();
+    }
+
+    @Benchmark
+    public long flightTotalTravelTime() {
+        return flight.getTotalTravelTime();
+    }
+
+    @Benchmark
+    public BigDecimal flightTotalCost() {
+        return flight.getTotalCost();
+    }
+
+    @Benchmark
+    public boolean specialDealIsValidOn() {
+        return deal.isValidOn(duringDeal);
+    }
+
+    @Benchmark
+    public boolean specialDealIsValidNow() {
+        return deal.isValidNow();
+    }
+
+    /**
+     * The defensive copy every account lookup returns.
+     */
+    @Benchmark
+    public Account accountCopy() {
+        return new Account(account);
+    }
+
+}
@@ -0,0 +1,138 @@
+package JavaSource.com.apress.expertspringmvc.flight.benchmark;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import JavaSource.com.apress.expertspringmvc.flight.domain.Airport;
+import JavaSource.com.apress.expertspringmvc.flight.domain.Flight;
+import JavaSource.com.apress.expertspringmvc.flight.domain.FlightLeg;
+import JavaSource.com.apress.expertspringmvc.flight.domain.FlightSearchCriteria;
+import JavaSource.com.apress.expertspringmvc.flight.domain.SpecialDeal;
+import JavaSource.com.apress.expertspringmvc.flight.service.AirportRegistry;
+import JavaSource.com.apress.expertspringmvc.flight.service.ScheduleFlightService;
+
+/**
+ * Flight and special deal searches over a generated schedule of a given
+ * number of legs between a handful of airports, spread over a month, with a
+ * given number of special deals.  The data is the same on every run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class FlightServiceBenchmark {
+
+    private static final long ONE_HOUR = 1000*60*60;
+    private static final long ONE_DAY = ONE_HOUR*24;
+    private static final int DAYS = 30;
+
+    private static final String[] AIRPORTS = {
+        "ATL", "BOS", "DEN", "DFW", "JFK", "LAX", "ORD", "SEA", "SFO" };
+
+    /** How many legs the schedule holds. */
+    @Param({"1000", "100000"})
+    int legs;
+
+    /** How many special deals there are. */
+    @Param({"10", "10000"})
+    int deals;
+
+    private ScheduleFlightService service;
+    private FlightSearchCriteria nonstops;
+    private FlightSearchCriteria connections;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(15);
+        AirportRegistry registry = new AirportRegistry();
+        Airport[] airports = new Airport[AIRPORTS.length];
+        for (int i = 0; i < airports.length; i++) {
+            airports[i] = registry.intern(AIRPORTS[i], AIRPORTS[i]);
+        }
+        // the month starts two weeks ago, so deals are valid now
+        long start = (System.currentTimeMillis() / ONE_DAY - 14) * ONE_DAY;
+
+        List<FlightLeg> schedule = new ArrayList<FlightLeg>(legs);
+        for (int i = 0; i < legs; i++) {
+            int from = random.nextInt(airports.length);
+            int to = (from + 1 + random.nextInt(airports.length - 1))
+                % airports.length;
+            long departOn = start + random.nextInt(DAYS * 24 * 60) * 60000L;
+            long arriveOn = departOn + (1 + random.nextInt(6)) * ONE_HOUR;
+            schedule.add(new FlightLeg(airports[from], new Date(departOn),
+                    airports[to], new Date(arriveOn),
+                    new BigDecimal(100 + random.nextInt(800))));
+        }
+
+        List<SpecialDeal> specialDeals = new ArrayList<SpecialDeal>(deals);
+        for (int i = 0; i < deals; i++) {
+            int from = random.nextInt(airports.length);
+            int to = (from + 1 + random.nextInt(airports.length - 1))
+                % airports.length;
+            long beginOn = start + random.nextInt(DAYS) * ONE_DAY;
+            long endOn = beginOn + (1 + random.nextInt(7)) * ONE_DAY;
+            specialDeals.add(new SpecialDeal(airports[to], airports[from],
+                    new BigDecimal(50 + random.nextInt(400)),
+                    new Date(beginOn), new Date(endOn)));
+        }
+
+        service = new ScheduleFlightService();
+        service.setAirportRegistry(registry);
+        service.setLegs(schedule);
+        service.setSpecialDeals(specialDeals);
+
+        Date departOn = new Date(start + 14 * ONE_DAY);
+        nonstops = new FlightSearchCriteria();
+        nonstops.setDepartFrom("BOS");
+        nonstops.setDepartOn(departOn);
+        connections = new FlightSearchCriteria();
+        connections.setDepartFrom("BOS");
+        connections.setArriveAt("SFO");
+        connections.setDepartOn(departOn);
+    }
+
+    /**
+     * Every nonstop leaving the origin within a day.
+     */
+    @Benchmark
+    public List<Flight> findNonstops() {
+        return service.findFlights(nonstops);
+    }
+
+    /**
+     * Nonstops and connections to one destination within a day.
+     */
+    @Benchmark
+    public List<Flight> findConnections() {
+        return service.findFlights(connections);
+    }
+
+    @Benchmark
+    public List<SpecialDeal> getSpecialDeals() {
+        return service.getSpecialDeals();
+    }
+
+    @Benchmark
+    public List<SpecialDeal> findSpecialDeals() {
+        return service.findSpecialDeals(connections);
+    }
+
+}
@@ -0,0 +1,225 @@
+package JavaSource.com.apress.expertspringmvc.flight.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.Wrapper;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.jasper.servlet.JasperInitializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import JavaSource.com.apress.expertspringmvc.flight.domain.Airport;
+import JavaSource.com.apress.expertspringmvc.flight.domain.Flight;
+import JavaSource.com.apress.expertspringmvc.flight.domain.FlightLeg;
+import JavaSource.com.apress.expertspringmvc.flight.domain.FlightSearchCriteria;
+import JavaSource.com.apress.expertspringmvc.flight.domain.SpecialDeal;
+import JavaSource.com.apress.expertspringmvc.flight.web.FlightJsonWriter;
+
+/**
+ * The same page of flights rendered as JSON by {@link FlightJsonWriter},
+ * as the search API does, and as HTML by <code>listFlights.jsp</code>, as
+ * the search form does.  Both are served by an embedded Tomcat from the
+ * web content directory, given by the <code>benchmark.webapp</code> system
+ * property and <code>WebContent</code> unless set, and fetched over
+ * loopback.  <code>empty</code> answers with no body, giving the cost of
+ * the request itself to subtract from the other two.  The JSP is compiled
+ * during warmup and, as in production, not checked for changes after; the
+ * servlet generated from it takes a long warmup to reach steady state.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 15, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class RenderingBenchmark {
+
+    private static final long ONE_HOUR = 1000*60*60;
+
+    /** How many flights the page holds. */
+    @Param({"20", "200"})
+    int flights;
+
+    private File baseDir;
+    private Tomcat tomcat;
+    private URL json;
+    private URL jsp;
+    private URL empty;
+    private final byte[] buffer = new byte[1 << 16];
+
+    @Setup
+    public void setUp() throws IOException, LifecycleException {
+        final FlightSearchCriteria search = new FlightSearchCriteria();
+        search.setDepartFrom("BOS");
+        search.setArriveAt("SFO");
+        search.setDepartOn(new Date());
+        final List<Flight> page = generate(flights);
+
+        baseDir = Files.createTempDirectory("tomcat").toFile();
+        tomcat = new Tomcat();
+        tomcat.setBaseDir(baseDir.getPath());
+        tomcat.setPort(0);
+        Context context = tomcat.addContext("", new File(
+                System.getProperty("benchmark.webapp", "WebContent"))
+                .getAbsolutePath());
+        Tomcat.initWebappDefaults(context);
+        // as deployed: compiled once, not checked for changes per request
+        ((Wrapper) context.findChild("jsp")).addInitParameter(
+                "development", "false");
+        context.addServletContainerInitializer(new JasperInitializer(), null);
+
+        addServlet(context, "/json", new HttpServlet() {
+            @Override
+            protected void doGet(HttpServletRequest req,
+                    HttpServletResponse res) throws IOException {
+                res.setContentType("application/json;charset=UTF-8");
+                FlightJsonWriter writer =
+                    new FlightJsonWriter().reset(res.getOutputStream());
+                writer.beginResults(search, page.size());
+                writer.writeFlights(page);
+                writer.endResults();
+            }
+        });
+        addServlet(context, "/jsp", new HttpServlet() {
+            @Override
+            protected void doGet(HttpServletRequest req,
+                    HttpServletResponse res)
+                    throws IOException, ServletException {
+                req.setAttribute("flights", page);
+                req.setAttribute("flightSearchCriteria", search);
+                req.setAttribute("specialDeals",
+                        Collections.<SpecialDeal>emptyList());
+                req.getRequestDispatcher("/WEB-INF/jsp/listFlights.jsp")
+                    .forward(req, res);
+            }
+        });
+        addServlet(context, "/empty", new HttpServlet() {
+            @Override
+            protected void doGet(HttpServletRequest req,
+                    HttpServletResponse res) {
+                res.setContentLength(0);
+            }
+        });
+        tomcat.start();
+
+        int port = tomcat.getConnector().getLocalPort();
+        json = new URL("http://localhost:" + port + "/json");
+        jsp = new URL("http://localhost:" + port + "/jsp");
+        empty = new URL("http://localhost:" + port + "/empty");
+    }
+
+    @TearDown
+    public void tearDown() throws LifecycleException {
+        tomcat.stop();
+        tomcat.destroy();
+        delete(baseDir);
+    }
+
+    private static void addServlet(Context context, String path,
+            HttpServlet servlet) {
+        Tomcat.addServlet(context, path, servlet);
+        context.addServletMappingDecoded(path, path);
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static List<Flight> generate(int count) {
+        Random random = new Random(14);
+        Airport from = new Airport("Boston", "BOS");
+        Airport via = new Airport("Chicago", "ORD");
+        Airport to = new Airport("San Francisco", "SFO");
+        long start = System.currentTimeMillis();
+        List<Flight> generated = new ArrayList<Flight>(count);
+        for (int i = 0; i < count; i++) {
+            long departOn = start + random.nextInt(24 * 60) * 60000L;
+            BigDecimal fare = new BigDecimal(100 + random.nextInt(800));
+            List<FlightLeg> legs = new ArrayList<FlightLeg>(2);
+            if (random.nextBoolean()) {
+                legs.add(new FlightLeg(from, new Date(departOn), to,
+                        new Date(departOn + 6 * ONE_HOUR), fare));
+            } else {
+                legs.add(new FlightLeg(from, new Date(departOn), via,
+                        new Date(departOn + 2 * ONE_HOUR), fare));
+                legs.add(new FlightLeg(via, new Date(departOn + 3 * ONE_HOUR),
+                        to, new Date(departOn + 7 * ONE_HOUR), fare));
+            }
+            generated.add(new Flight(legs, fare.multiply(
+                    new BigDecimal(legs.size()))));
+        }
+        return generated;
+    }
+
+    /**
+     * @return the number of bytes in the response body
+     */
+    private int fetch(URL url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        if (connection.getResponseCode() != HttpServletResponse.SC_OK) {
+            throw new IOException(url + " answered "
+                    + connection.getResponseCode());
+        }
+        InputStream in = connection.getInputStream();
+        int length = 0;
+        try {
+            for (int n; (n = in.read(buffer)) > 0; ) {
+                length += n;
+            }
+        } finally {
+            in.close();
+        }
+        return length;
+    }
+
+    @Benchmark
+    public int renderJson() throws IOException {
+        return fetch(json);
+    }
+
+    @Benchmark
+    public int renderJsp() throws IOException {
+        return fetch(jsp);
+    }
+
+    @Benchmark
+    public int empty() throws IOException {
+        return fetch(empty);
+    }
+
+}
@@ -0,0 +1,99 @@
+package JavaSource.com.apress.expertspringmvc.flight.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import JavaSource.com.apress.expertspringmvc.flight.domain.Airport;
+import JavaSource.com.apress.expertspringmvc.flight.domain.FlightLeg;
+import JavaSource.com.apress.expertspringmvc.flight.service.AirportRegistry;
+import JavaSource.com.apress.expertspringmvc.flight.service.MappedSchedule;
+import JavaSource.com.apress.expertspringmvc.flight.service.ScheduleSnapshot;
+
+/**
+ * Opening a schedule snapshot of a given number of legs.  Opening alone
+ * should take the same time whatever the number of legs; opening and
+ * verifying the leg checksum reads every leg, for comparison.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class ScheduleSnapshotBenchmark {
+
+    private static final long ONE_HOUR = 1000*60*60;
+    private static final long ONE_DAY = ONE_HOUR*24;
+    private static final int DAYS = 30;
+
+    private static final String[] AIRPORTS = {
+        "ATL", "BOS", "DEN", "DFW", "JFK", "LAX", "ORD", "SEA", "SFO" };
+
+    /** How many legs the snapshot holds. */
+    @Param({"1000", "100000", "1000000"})
+    int legs;
+
+    private File file;
+
+    @Setup
+    public void setUp() throws IOException {
+        Random random = new Random(3);
+        AirportRegistry registry = new AirportRegistry();
+        Airport[] airports = new Airport[AIRPORTS.length];
+        for (int i = 0; i < airports.length; i++) {
+            airports[i] = registry.intern(AIRPORTS[i], AIRPORTS[i]);
+        }
+        long start = (System.currentTimeMillis() / ONE_DAY) * ONE_DAY;
+
+        List<FlightLeg> schedule = new ArrayList<FlightLeg>(legs);
+        for (int i = 0; i < legs; i++) {
+            int from = random.nextInt(airports.length);
+            int to = (from + 1 + random.nextInt(airports.length - 1))
+                % airports.length;
+            long departOn = start + random.nextInt(DAYS * 24 * 60) * 60000L;
+            long arriveOn = departOn + (1 + random.nextInt(6)) * ONE_HOUR;
+            schedule.add(new FlightLeg(airports[from], new Date(departOn),
+                    airports[to], new Date(arriveOn),
+                    new BigDecimal(100 + random.nextInt(800))));
+        }
+        file = File.createTempFile("schedule", ".snapshot");
+        ScheduleSnapshot.write(schedule, file);
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public MappedSchedule open() throws IOException {
+        return MappedSchedule.open(file);
+    }
+
+    @Benchmark
+    public MappedSchedule openAndVerify() throws IOException {
+        MappedSchedule schedule = MappedSchedule.open(file);
+        schedule.verify();
+        return schedule;
+    }
+
+}
@@ -12,6 +12,7 @@ public class Account {
     private String password;
     private String email;
     private Date lastUpdated;
+    private long version;
     private Address billingAddress = new Address();
 
     public Account() { }
@@ -20,6 +21,23 @@ public class Account {
         this.id = id;
     }
 
+    /**
+     * Copies another account, including its name and billing address, so
+     * the copy can be changed without affecting the original.
+     */
+    public Account(Account account) {
+        this.id = account.id;
+        this.name = (account.name == null ? null : new Name(account.name));
+        this.username = account.username;
+        this.password = account.password;
+        this.email = account.email;
+        this.lastUpdated = (account.lastUpdated == null ?
+                null : new Date(account.lastUpdated.getTime()));
+        this.version = account.version;
+        this.billingAddress = (account.billingAddress == null ?
+                null : new Address(account.billingAddress));
+    }
+
     public Account(Name name, String username, String password) {
         Assert.notNull(username, "Username may not be null");
         this.name = name;
@@ -38,6 +56,10 @@ public class Account {
     public Long getId() {
         return id;
     }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
     
     public Name getName() {
         return name;
@@ -88,5 +110,21 @@ public class Account {
     public Date getLastUpdated() {
         return lastUpdated;
     }
+
+    public void setLastUpdated(Date lastUpdated) {
+        this.lastUpdated = lastUpdated;
+    }
+
+    /**
+     * @return how many times the account has been written, counting its
+     * creation; 0 if it has never been stored
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
     
 }
@@ -14,6 +14,14 @@ public class Address {
         this.id = id;
     }
 
+    public Address(Address address) {
+        this.id = address.id;
+        this.street = address.street;
+        this.city = address.city;
+        this.state = address.state;
+        this.postalCode = address.postalCode;
+    }
+
     public String getCity() {
         return city;
     }
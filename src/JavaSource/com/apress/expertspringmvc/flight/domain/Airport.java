@@ -1,5 +1,8 @@
 package JavaSource.com.apress.expertspringmvc.flight.domain;
 
+/**
+ * An airport, identified by its code.  Codes compare ignoring case.
+ */
 public class Airport {
 
     private String name;
@@ -17,6 +20,27 @@ public class Airport {
     public String getName() {
         return name;
     }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this) return true;
+        if (! (obj instanceof Airport)) return false;
+        Airport airport = (Airport) obj;
+        return (airportCode == null ? airport.airportCode == null :
+            airportCode.equalsIgnoreCase(airport.airportCode));
+    }
+
+    @Override
+    public int hashCode() {
+        if (airportCode == null) {
+            return 0;
+        }
+        int hash = 0;
+        for (int i = 0; i < airportCode.length(); i++) {
+            hash = 31*hash + Character.toUpperCase(airportCode.charAt(i));
+        }
+        return hash;
+    }
     
     public String toString() {
         return name + " (" + airportCode + ")";
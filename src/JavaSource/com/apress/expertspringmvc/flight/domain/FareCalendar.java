@@ -0,0 +1,177 @@
+package JavaSource.com.apress.expertspringmvc.flight.domain;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.springframework.util.Assert;
+
+/**
+ * The lowest prices for a trip over a run of departure days and, for a
+ * round trip, a run of return days.  A round trip's price is the lowest
+ * outbound price on its departure day plus the lowest inbound price on its
+ * return day; there is none for a return before the departure.  Days are
+ * UTC days, each given by the Date of its midnight.  Immutable.
+ */
+public class FareCalendar {
+
+    private static final long ONE_DAY = 1000*60*60*24;
+
+    private final long firstDepartDay;
+    private final Money[] departPrices;
+    private final long firstReturnDay;
+    private final Money[] returnPrices;
+
+    /**
+     * @param firstDepartDay the first departure day, in days since the
+     * epoch
+     * @param departPrices the lowest outbound price for each day, null for
+     * a day with none
+     */
+    public FareCalendar(long firstDepartDay, Money[] departPrices) {
+        this(firstDepartDay, departPrices, 0, null);
+    }
+
+    /**
+     * @param returnPrices the lowest inbound price for each day from
+     * firstReturnDay on, or null for a one-way trip
+     */
+    public FareCalendar(long firstDepartDay, Money[] departPrices,
+            long firstReturnDay, Money[] returnPrices) {
+        Assert.notNull(departPrices, "Departure prices must not be null");
+        this.firstDepartDay = firstDepartDay;
+        this.departPrices = departPrices.clone();
+        this.firstReturnDay = firstReturnDay;
+        this.returnPrices = (returnPrices == null ?
+                null : returnPrices.clone());
+    }
+
+    public boolean isRoundTrip() {
+        return returnPrices != null;
+    }
+
+    public int getDepartDays() {
+        return departPrices.length;
+    }
+
+    public int getReturnDays() {
+        return (returnPrices == null ? 0 : returnPrices.length);
+    }
+
+    public Date getDepartDay(int index) {
+        return new Date((firstDepartDay + index) * ONE_DAY);
+    }
+
+    public Date getReturnDay(int index) {
+        return new Date((firstReturnDay + index) * ONE_DAY);
+    }
+
+    /**
+     * @return the lowest price leaving on one departure day, and for a
+     * round trip coming back on one return day, or null if there is none
+     */
+    public Money getLowestPrice(int departIndex, int returnIndex) {
+        Money out = departPrices[departIndex];
+        if (returnPrices == null || out == null) {
+            return out;
+        }
+        Money back = returnPrices[returnIndex];
+        if (back == null
+                || firstReturnDay + returnIndex < firstDepartDay + departIndex) {
+            return null;
+        }
+        return out.plus(back);
+    }
+
+    /**
+     * @return the return days, for the columns of a calendar
+     */
+    public List<Date> getReturnDayList() {
+        List<Date> days = new ArrayList<Date>(getReturnDays());
+        for (int i = 0; i < getReturnDays(); i++) {
+            days.add(getReturnDay(i));
+        }
+        return days;
+    }
+
+    /**
+     * @return one row per departure day, for the rows of a calendar
+     */
+    public List<Row> getRows() {
+        List<Row> rows = new ArrayList<Row>(departPrices.length);
+        for (int i = 0; i < departPrices.length; i++) {
+            List<Money> prices;
+            if (returnPrices == null) {
+                prices = Collections.singletonList(departPrices[i]);
+            } else {
+                prices = new ArrayList<Money>(returnPrices.length);
+                for (int j = 0; j < returnPrices.length; j++) {
+                    prices.add(getLowestPrice(i, j));
+                }
+            }
+            rows.add(new Row(getDepartDay(i), prices));
+        }
+        return rows;
+    }
+
+    /**
+     * @return whether the other calendar has a price for exactly the days
+     * this one has, so the two can be combined with {@link #cheapest}
+     */
+    public boolean coversSameDays(FareCalendar other) {
+        return firstDepartDay == other.firstDepartDay
+            && firstReturnDay == other.firstReturnDay
+            && getDepartDays() == other.getDepartDays()
+            && getReturnDays() == other.getReturnDays()
+            && isRoundTrip() == other.isRoundTrip();
+    }
+
+    /**
+     * Combines the calendars of two sellers of the same trip, keeping the
+     * lower price for each day in each direction.
+     */
+    public FareCalendar cheapest(FareCalendar other) {
+        Assert.isTrue(coversSameDays(other), "Calendars cover different days");
+        return new FareCalendar(firstDepartDay,
+                cheapest(departPrices, other.departPrices), firstReturnDay,
+                isRoundTrip() ?
+                        cheapest(returnPrices, other.returnPrices) : null);
+    }
+
+    private static Money[] cheapest(Money[] a, Money[] b) {
+        Money[] lower = Arrays.copyOf(a, a.length);
+        for (int i = 0; i < lower.length; i++) {
+            if (lower[i] == null
+                    || (b[i] != null && b[i].isLessThan(lower[i]))) {
+                lower[i] = b[i];
+            }
+        }
+        return lower;
+    }
+
+    /**
+     * One departure day's prices, one for each return day of a round trip
+     * or a single one for a one-way trip.
+     */
+    public static class Row {
+
+        private final Date departDay;
+        private final List<Money> prices;
+
+        Row(Date departDay, List<Money> prices) {
+            this.departDay = departDay;
+            this.prices = prices;
+        }
+
+        public Date getDepartDay() {
+            return departDay;
+        }
+
+        public List<Money> getPrices() {
+            return prices;
+        }
+    }
+
+}
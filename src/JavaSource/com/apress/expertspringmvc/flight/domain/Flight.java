@@ -12,18 +12,36 @@ import org.springframework.util.Assert;
 public class Flight {
 
     private List<FlightLeg> legs;
-    private BigDecimal totalCost;
+    private Money totalPrice;
     
     public Flight(List<FlightLeg> legs, BigDecimal totalCost) {
+        this(legs, totalCost == null ? null : Money.valueOf(totalCost));
+    }
+
+    /**
+     * @param totalPrice the price of the whole itinerary, or null if it has
+     * not been priced
+     */
+    public Flight(List<FlightLeg> legs, Money totalPrice) {
         Assert.notNull(legs);
         Assert.isTrue(legs.size() >= 1, "Flights must have at least one leg");
         
         this.legs = legs;
-        this.totalCost = totalCost;
+        this.totalPrice = totalPrice;
     }
     
+    /**
+     * @return the total price for display, or null if not priced
+     */
     public BigDecimal getTotalCost() {
-        return totalCost;
+        return (totalPrice == null ? null : totalPrice.toBigDecimal());
+    }
+
+    /**
+     * @return the total price, or null if not priced
+     */
+    public Money getTotalPrice() {
+        return totalPrice;
     }
     
     public boolean isNonStop() {
@@ -34,6 +52,10 @@ public class Flight {
         return getFirstLeg().getDepartFrom();
     }
 
+    public Date getDepartOn() {
+        return getFirstLeg().getDepartOn();
+    }
+
     private FlightLeg getFirstLeg() {
         return legs.get(0);
     }
@@ -45,10 +67,22 @@ public class Flight {
     public Airport getArrivalAt() {
         return getLastLeg().getArriveAt();
     }
+
+    public Date getArriveOn() {
+        return getLastLeg().getArriveOn();
+    }
     
     public int getNumberOfLegs() {
         return legs.size();
     }
+
+    /**
+     * @param index from 0 to {@link #getNumberOfLegs()} - 1, in order of
+     * travel
+     */
+    public FlightLeg getLeg(int index) {
+        return legs.get(index);
+    }
     
     /**
      * @return number of milliseconds for total travel time
@@ -1,5 +1,6 @@
 package JavaSource.com.apress.expertspringmvc.flight.domain;
 
+import java.math.BigDecimal;
 import java.util.Date;
 
 public class FlightLeg {
@@ -8,13 +9,20 @@ public class FlightLeg {
     private Date departOn;
     private Airport arriveAt;
     private Date arriveOn;
-    
+    private BigDecimal fare;
+
     public FlightLeg(Airport departFrom, Date departOn, Airport arriveAt,
             Date arriveOn) {
+        this(departFrom, departOn, arriveAt, arriveOn, null);
+    }
+
+    public FlightLeg(Airport departFrom, Date departOn, Airport arriveAt,
+            Date arriveOn, BigDecimal fare) {
         this.arriveAt = arriveAt;
         this.arriveOn = arriveOn;
         this.departFrom = departFrom;
         this.departOn = departOn;
+        this.fare = fare;
     }
 
     public Airport getArriveAt() {
@@ -32,5 +40,13 @@ public class FlightLeg {
     public Airport getDepartFrom() {
         return departFrom;
     }
-    
+
+    /**
+     * @return the fare for this leg alone, or null if it is only sold as
+     * part of a priced itinerary
+     */
+    public BigDecimal getFare() {
+        return fare;
+    }
+
 }
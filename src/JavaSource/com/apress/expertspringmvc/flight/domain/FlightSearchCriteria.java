@@ -8,6 +8,9 @@ public class FlightSearchCriteria {
     private Date departOn;
     private String arriveAt;
     private Date returnOn;
+    private SortKey sortBy = SortKey.COST;
+    private int limit;
+    private int flexibleDays;
     
     public Date getReturnOn() {
         return returnOn;
@@ -33,5 +36,35 @@ public class FlightSearchCriteria {
     public void setDepartFrom(String departFrom) {
         this.departFrom = departFrom;
     }
+    public SortKey getSortBy() {
+        return sortBy;
+    }
+    /**
+     * @param sortBy the order to rank flights in; null means by cost
+     */
+    public void setSortBy(SortKey sortBy) {
+        this.sortBy = (sortBy == null ? SortKey.COST : sortBy);
+    }
+    public int getLimit() {
+        return limit;
+    }
+    /**
+     * @param limit how many of the best ranked flights are wanted; 0, the
+     * default, or less means all of them
+     */
+    public void setLimit(int limit) {
+        this.limit = limit;
+    }
+    public int getFlexibleDays() {
+        return flexibleDays;
+    }
+    /**
+     * @param flexibleDays how many days either side of the departure and
+     * return dates a fare calendar covers; 0, the default, means exactly
+     * those dates
+     */
+    public void setFlexibleDays(int flexibleDays) {
+        this.flexibleDays = flexibleDays;
+    }
     
 }
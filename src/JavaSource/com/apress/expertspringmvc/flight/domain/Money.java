@@ -0,0 +1,111 @@
+package JavaSource.com.apress.expertspringmvc.flight.domain;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+import org.springframework.util.Assert;
+
+/**
+ * An amount of money, held as a whole number of cents.  Immutable.
+ * Comparing and adding amounts is plain long arithmetic; a BigDecimal is
+ * made only when an amount is shown, by {@link #toBigDecimal()}.  Code
+ * that must not allocate at all works on the cents directly, with the
+ * static helpers.
+ */
+public final class Money implements Comparable<Money> {
+
+    public static final Money ZERO = new Money(0);
+
+    private final long cents;
+
+    private Money(long cents) {
+        this.cents = cents;
+    }
+
+    public static Money ofCents(long cents) {
+        return (cents == 0 ? ZERO : new Money(cents));
+    }
+
+    /**
+     * @param amount rounded half-even to whole cents
+     */
+    public static Money valueOf(BigDecimal amount) {
+        Assert.notNull(amount, "Amount must not be null");
+        return ofCents(amount.movePointRight(2)
+                .setScale(0, RoundingMode.HALF_EVEN).longValueExact());
+    }
+
+    public long getCents() {
+        return cents;
+    }
+
+    public Money plus(Money other) {
+        return ofCents(add(cents, other.cents));
+    }
+
+    public Money minus(Money other) {
+        return ofCents(add(cents, -other.cents));
+    }
+
+    /**
+     * @param basisPoints hundredths of a percent, so 750 is 7.5%
+     */
+    public Money percent(int basisPoints) {
+        return ofCents(percentOf(cents, basisPoints));
+    }
+
+    public boolean isLessThan(Money other) {
+        return cents < other.cents;
+    }
+
+    public int compareTo(Money other) {
+        return (cents < other.cents ? -1 : (cents == other.cents ? 0 : 1));
+    }
+
+    /**
+     * @return the amount with a scale of 2, for display
+     */
+    public BigDecimal toBigDecimal() {
+        return BigDecimal.valueOf(cents, 2);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return (obj instanceof Money && ((Money) obj).cents == cents);
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (cents ^ (cents >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return toBigDecimal().toPlainString();
+    }
+
+    /**
+     * Adds two amounts in cents.
+     *
+     * @throws ArithmeticException if the sum does not fit in a long
+     */
+    public static long add(long a, long b) {
+        long sum = a + b;
+        if (((a ^ sum) & (b ^ sum)) < 0) {
+            throw new ArithmeticException("Amount out of range");
+        }
+        return sum;
+    }
+
+    /**
+     * @param basisPoints hundredths of a percent, so 750 is 7.5%
+     * @return the given share of an amount in cents, rounded half away
+     * from zero
+     */
+    public static long percentOf(long cents, int basisPoints) {
+        long scaled = cents * basisPoints;
+        return (scaled >= 0 ? (scaled + 5000) / 10000
+                : (scaled - 5000) / 10000);
+    }
+
+}
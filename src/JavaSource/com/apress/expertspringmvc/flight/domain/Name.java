@@ -14,6 +14,10 @@ public class Name {
         this.last = last;
     }
 
+    public Name(Name name) {
+        this(name.first, name.middle, name.last);
+    }
+
     public String getFirst() {
         return first;
     }
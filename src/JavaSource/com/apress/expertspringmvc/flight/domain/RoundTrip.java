@@ -0,0 +1,50 @@
+package JavaSource.com.apress.expertspringmvc.flight.domain;
+
+import java.math.BigDecimal;
+
+import org.springframework.util.Assert;
+
+/**
+ * An outbound flight and the flight back, priced as the sum of the two.
+ */
+public class RoundTrip {
+
+    private final Flight outbound;
+    private final Flight inbound;
+    private final Money totalPrice;
+
+    /**
+     * @param outbound a priced flight
+     * @param inbound a priced flight leaving after the outbound one lands
+     */
+    public RoundTrip(Flight outbound, Flight inbound) {
+        Assert.notNull(outbound, "Outbound flight must not be null");
+        Assert.notNull(inbound, "Inbound flight must not be null");
+        Assert.notNull(outbound.getTotalPrice(), "Outbound flight not priced");
+        Assert.notNull(inbound.getTotalPrice(), "Inbound flight not priced");
+        this.outbound = outbound;
+        this.inbound = inbound;
+        this.totalPrice = outbound.getTotalPrice().plus(
+                inbound.getTotalPrice());
+    }
+
+    public Flight getOutbound() {
+        return outbound;
+    }
+
+    public Flight getInbound() {
+        return inbound;
+    }
+
+    public Money getTotalPrice() {
+        return totalPrice;
+    }
+
+    /**
+     * @return the total price for display
+     */
+    public BigDecimal getTotalCost() {
+        return totalPrice.toBigDecimal();
+    }
+
+}
@@ -0,0 +1,58 @@
+package JavaSource.com.apress.expertspringmvc.flight.domain;
+
+import java.util.Comparator;
+
+/**
+ * The orders flight search results can be ranked in.  Each compares
+ * flights by its own key first, then breaks ties by price, travel time,
+ * number of legs and departure in turn.  Unpriced flights rank after
+ * priced ones.
+ */
+public enum SortKey implements Comparator<Flight> {
+
+    /** Lowest total price first. */
+    COST,
+
+    /** Shortest total travel time first. */
+    TRAVEL_TIME,
+
+    /** Fewest legs first. */
+    LEGS,
+
+    /** Earliest departure first. */
+    DEPARTURE;
+
+    private static final SortKey[] TIE_BREAKS = values();
+
+    public int compare(Flight a, Flight b) {
+        int order = compareBy(this, a, b);
+        for (int i = 0; order == 0 && i < TIE_BREAKS.length; i++) {
+            order = compareBy(TIE_BREAKS[i], a, b);
+        }
+        return order;
+    }
+
+    private static int compareBy(SortKey key, Flight a, Flight b) {
+        switch (key) {
+        case COST:
+            Money x = a.getTotalPrice();
+            Money y = b.getTotalPrice();
+            if (x != null && y != null) {
+                return x.compareTo(y);
+            }
+            return (x == y ? 0 : (x == null ? 1 : -1));
+        case TRAVEL_TIME:
+            return compare(a.getTotalTravelTime(), b.getTotalTravelTime());
+        case LEGS:
+            return compare(a.getNumberOfLegs(), b.getNumberOfLegs());
+        default:
+            return compare(a.getDepartOn().getTime(),
+                    b.getDepartOn().getTime());
+        }
+    }
+
+    private static int compare(long x, long y) {
+        return (x < y ? -1 : (x == y ? 0 : 1));
+    }
+
+}
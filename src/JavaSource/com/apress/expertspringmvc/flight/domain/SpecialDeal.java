@@ -13,21 +13,38 @@ public class SpecialDeal {
 
     private Airport departFrom;
     private Airport arriveAt;
-    private BigDecimal cost;
+    private Money price;
     private Date beginOn;
     private Date endOn;
     
     public SpecialDeal(Airport arriveAt, Airport departFrom, BigDecimal cost,
             Date beginOn, Date endOn) {
+        this(arriveAt, departFrom, Money.valueOf(cost), beginOn, endOn);
+    }
+
+    public SpecialDeal(Airport arriveAt, Airport departFrom, Money price,
+            Date beginOn, Date endOn) {
+        Assert.notNull(price, "Price must not be null");
+        Assert.notNull(beginOn, "Begin date must not be null");
+        Assert.notNull(endOn, "End date must not be null");
+        Assert.isTrue(!endOn.before(beginOn),
+                "Deal must not end before it begins");
         this.arriveAt = arriveAt;
         this.departFrom = departFrom;
-        this.cost = cost;
+        this.price = price;
         this.beginOn = new Date(beginOn.getTime());
         this.endOn = new Date(endOn.getTime());
     }
     
+    /**
+     * @return the price for display
+     */
     public BigDecimal getCost() {
-        return cost;
+        return price.toBigDecimal();
+    }
+
+    public Money getPrice() {
+        return price;
     }
     
     public Airport getDepartFrom() {
@@ -37,6 +54,14 @@ public class SpecialDeal {
     public Airport getArriveAt() {
         return arriveAt;
     }
+
+    public Date getBeginOn() {
+        return new Date(beginOn.getTime());
+    }
+
+    public Date getEndOn() {
+        return new Date(endOn.getTime());
+    }
     
     public boolean isValidNow() {
         return isValidOn(new Date());
@@ -44,9 +69,8 @@ public class SpecialDeal {
     
     public boolean isValidOn(Date date) {
         Assert.notNull(date, "Date must not be null");
-        Date dateCopy = new Date(date.getTime());
-        return ((dateCopy.equals(beginOn) || dateCopy.after(beginOn)) &&
-                (dateCopy.equals(endOn) || dateCopy.before(endOn)));
+        long time = date.getTime();
+        return (time >= beginOn.getTime() && time <= endOn.getTime());
     }
     
 }
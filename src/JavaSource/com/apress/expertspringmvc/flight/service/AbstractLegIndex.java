@@ -0,0 +1,65 @@
+package JavaSource.com.apress.expertspringmvc.flight.service;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.util.StringUtils;
+
+import JavaSource.com.apress.expertspringmvc.flight.domain.FlightLeg;
+
+/**
+ * Implements the object lookups of {@link LegIndex} on top of its
+ * positional accessors.
+ */
+public abstract class AbstractLegIndex implements LegIndex {
+
+    static final long ONE_MINUTE = 1000*60;
+
+    public List<FlightLeg> findLegs(String departFrom, String arriveAt,
+            long from, long to) {
+        List<FlightLeg> found = new ArrayList<FlightLeg>();
+        if (!StringUtils.hasText(departFrom) || from >= to) {
+            return found;
+        }
+        int origin = airportId(departFrom);
+        if (origin < 0) {
+            return found;
+        }
+        int destination = -1;
+        if (StringUtils.hasText(arriveAt)) {
+            destination = airportId(arriveAt);
+            if (destination < 0) {
+                return found;
+            }
+        }
+        long until = toMinuteCeiling(to);
+        int end = endOf(origin);
+        for (int leg = firstDeparting(origin, toMinuteCeiling(from));
+                leg < end && departureOf(leg) < until; leg++) {
+            if (destination < 0 || destinationOf(leg) == destination) {
+                found.add(legAt(leg));
+            }
+        }
+        return found;
+    }
+
+    static long toMinuteCeiling(long millis) {
+        long minute = millis / ONE_MINUTE;
+        return (minute * ONE_MINUTE < millis ? minute + 1 : minute);
+    }
+
+    static long toCents(BigDecimal fare) {
+        if (fare == null) {
+            return NO_FARE;
+        }
+        return fare.movePointRight(2).setScale(0, RoundingMode.HALF_EVEN)
+            .longValueExact();
+    }
+
+    static BigDecimal fromCents(long cents) {
+        return (cents == NO_FARE ? null : BigDecimal.valueOf(cents, 2));
+    }
+
+}
@@ -0,0 +1,96 @@
+package JavaSource.com.apress.expertspringmvc.flight.service;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Date;
+
+import JavaSource.com.apress.expertspringmvc.flight.domain.Account;
+import JavaSource.com.apress.expertspringmvc.flight.domain.Address;
+import JavaSource.com.apress.expertspringmvc.flight.domain.Name;
+
+/**
+ * The binary form of an account used by the account log: every field in
+ * declaration order, with a flag byte before each one that may be null.
+ */
+final class AccountCodec {
+
+    private AccountCodec() { }
+
+    static void write(Account account, DataOutput out) throws IOException {
+        out.writeLong(account.getId());
+        Date lastUpdated = account.getLastUpdated();
+        out.writeLong(lastUpdated == null ? Long.MIN_VALUE :
+                lastUpdated.getTime());
+        out.writeLong(account.getVersion());
+        writeString(out, account.getUsername());
+        writeString(out, account.getPassword());
+        writeString(out, account.getEmail());
+
+        Name name = account.getName();
+        out.writeBoolean(name != null);
+        if (name != null) {
+            writeString(out, name.getFirst());
+            writeString(out, name.getMiddle());
+            writeString(out, name.getLast());
+        }
+
+        Address address = account.getBillingAddress();
+        out.writeBoolean(address != null);
+        if (address != null) {
+            out.writeBoolean(address.getId() != null);
+            if (address.getId() != null) {
+                out.writeLong(address.getId());
+            }
+            writeString(out, address.getStreet());
+            writeString(out, address.getCity());
+            writeString(out, address.getState());
+            writeString(out, address.getPostalCode());
+        }
+    }
+
+    static Account read(DataInput in) throws IOException {
+        Account account = new Account(in.readLong());
+        long lastUpdated = in.readLong();
+        if (lastUpdated != Long.MIN_VALUE) {
+            account.setLastUpdated(new Date(lastUpdated));
+        }
+        account.setVersion(in.readLong());
+        account.setUsername(readString(in));
+        account.setPassword(readString(in));
+        account.setEmail(readString(in));
+
+        if (in.readBoolean()) {
+            account.setName(new Name(readString(in), readString(in),
+                    readString(in)));
+        } else {
+            account.setName(null);
+        }
+
+        if (in.readBoolean()) {
+            Address address = new Address(in.readBoolean() ?
+                    Long.valueOf(in.readLong()) : null);
+            address.setStreet(readString(in));
+            address.setCity(readString(in));
+            address.setState(readString(in));
+            address.setPostalCode(readString(in));
+            account.setBillingAddress(address);
+        } else {
+            account.setBillingAddress(null);
+        }
+        return account;
+    }
+
+    private static void writeString(DataOutput out, String value)
+            throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        return (in.readBoolean() ? in.readUTF() : null);
+    }
+
+}
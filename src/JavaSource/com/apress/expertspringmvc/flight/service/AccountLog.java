@@ -0,0 +1,591 @@
+package JavaSource.com.apress.expertspringmvc.flight.service;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import org.springframework.util.Assert;
+
+import JavaSource.com.apress.expertspringmvc.flight.domain.Account;
+
+/**
+ * An append-only write-ahead log of account changes, kept as numbered
+ * segment files in one directory.
+ * <p>
+ * Callers frame and checksum their records, then queue them for a single
+ * writer thread.  The writer takes everything queued since its last pass,
+ * writes it with one gathering write and, in {@link Durability#SYNC} mode,
+ * forces it to disk with one call, so concurrent writers share the cost of
+ * each sync.  Each record is
+ * <pre>
+ *  length of type and payload, CRC-32 of type and payload, type, payload
+ * </pre>
+ * A record torn by a crash can only be at the end of the newest segment,
+ * since the writer forces a segment before moving on.  Opening the log
+ * truncates that segment to its last whole record before starting a new
+ * one, so after that a bad record anywhere is corruption.
+ * <p>
+ * A snapshot named for segment N holds every account as of the start of
+ * that segment.  Once one is written the segments before N and any older
+ * snapshots are deleted, and replay starts from the latest snapshot, so
+ * recovery reads only the tail of the log.  Snapshots may also include
+ * changes logged after segment N began; replaying those again is harmless
+ * because every record is the whole state of an account or a removal.
+ */
+public class AccountLog {
+
+    /**
+     * When an append counts as done.
+     */
+    public enum Durability {
+
+        /** Once the record is forced to disk. */
+        SYNC,
+
+        /**
+         * Once the record is written to the file, which survives the process
+         * but not the machine; the file is forced every sync interval.
+         */
+        BATCHED,
+
+        /**
+         * Once the record is queued; it is written and forced within a sync
+         * interval.
+         */
+        ASYNC
+    }
+
+    /**
+     * Receives the records of a log as it is replayed.
+     */
+    public interface RecordHandler {
+
+        void put(Account account);
+
+        void remove(long id);
+
+        /**
+         * Receives the lowest id not yet handed out when the snapshot replay
+         * starts from was taken, so the ids of accounts removed before it
+         * are not handed out again.  Called before the snapshot's accounts
+         * are put; not called when there is no snapshot.
+         */
+        void reserveIds(long nextId);
+
+        /**
+         * Receives the name indexes saved with the snapshot replay starts
+         * from, once its accounts are put and before any logged record.
+         * Not called when there is no snapshot, or it has no indexes.
+         */
+        void putNames(NameIndex firstNames, NameIndex lastNames);
+    }
+
+    static final byte PUT = 1;
+    static final byte REMOVE = 2;
+
+    private static final String PREFIX = "accounts-";
+    private static final String SUFFIX = ".log";
+    private static final String SNAPSHOT_SUFFIX = ".snapshot";
+    private static final int RECORD_HEADER_SIZE = 9;
+    private static final int MAX_RECORD_SIZE = 1 << 20;
+    private static final int MAX_BATCH = 4096;
+
+    private final File directory;
+    private final Durability durability;
+    private final long syncInterval;
+    private long segmentSize = 64L << 20;
+
+    private final BlockingQueue<Pending> queue =
+        new LinkedBlockingQueue<Pending>();
+    private final Thread writer;
+    private volatile boolean closed;
+    private volatile IOException failure;
+
+    // segments before this one were written before the log was opened
+    private final long firstSegment;
+    // owned by the writer thread once it has started
+    private long segment;
+    private FileChannel channel;
+
+    public AccountLog(File directory, Durability durability)
+            throws IOException {
+        this(directory, durability, 20);
+    }
+
+    /**
+     * Opens the log in the given directory, creating it if need be, and
+     * starts a new segment for appends.
+     *
+     * @param syncInterval milliseconds between syncs in the batched and
+     * async modes
+     */
+    public AccountLog(File directory, Durability durability,
+            long syncInterval) throws IOException {
+        Assert.notNull(directory, "Directory must not be null");
+        Assert.notNull(durability, "Durability must not be null");
+        Assert.isTrue(syncInterval > 0, "Sync interval must be positive");
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        this.directory = directory;
+        this.durability = durability;
+        this.syncInterval = syncInterval;
+
+        long[] segments = numbered(SUFFIX);
+        long[] snapshots = numbered(SNAPSHOT_SUFFIX);
+        if (segments.length > 0) {
+            truncateTornRecord(fileOf(segments[segments.length - 1], SUFFIX));
+        }
+        long last = Math.max(
+                segments.length == 0 ? 0 : segments[segments.length - 1],
+                snapshots.length == 0 ? 0 : snapshots[snapshots.length - 1]);
+        firstSegment = last + 1;
+        segment = firstSegment;
+        channel = openSegment(segment);
+
+        writer = new Thread(new Runnable() {
+            public void run() {
+                writeLoop();
+            }
+        }, "account-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * @param segmentSize bytes after which appends move to a new segment
+     */
+    public void setSegmentSize(long segmentSize) {
+        Assert.isTrue(segmentSize > 0, "Segment size must be positive");
+        this.segmentSize = segmentSize;
+    }
+
+    public Durability getDurability() {
+        return durability;
+    }
+
+    /**
+     * Logs the current state of an account, new or changed.
+     */
+    public Pending put(Account account) throws IOException {
+        Assert.notNull(account.getId(), "Account must have an id");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(new byte[RECORD_HEADER_SIZE - 1]);
+        out.writeByte(PUT);
+        AccountCodec.write(account, out);
+        return append(bytes.toByteArray());
+    }
+
+    /**
+     * Logs the removal of an account.
+     */
+    public Pending remove(long id) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + 8);
+        record.position(RECORD_HEADER_SIZE - 1);
+        record.put(REMOVE);
+        record.putLong(id);
+        return append(record.array());
+    }
+
+    /**
+     * Replays the latest snapshot, then every record logged since it began
+     * and before this log was opened, oldest first.
+     */
+    public void replay(RecordHandler handler) throws IOException {
+        long start = 0;
+        for (long snapshot : numbered(SNAPSHOT_SUFFIX)) {
+            if (snapshot < firstSegment) {
+                start = snapshot;
+            }
+        }
+        if (start > 0) {
+            AccountSnapshot.read(fileOf(start, SNAPSHOT_SUFFIX), handler);
+        }
+        long[] segments = numbered(SUFFIX);
+        for (int i = 0; i < segments.length && segments[i] < firstSegment;
+                i++) {
+            if (segments[i] < start) {
+                continue;
+            }
+            replaySegment(fileOf(segments[i], SUFFIX), handler);
+        }
+    }
+
+    /**
+     * Queues a marker that moves appends to a new segment.  Every record
+     * queued before the marker is written to an earlier segment, and every
+     * one queued after it to the new segment or a later one.
+     */
+    public Pending roll() throws IOException {
+        return append(null);
+    }
+
+    /**
+     * Writes a snapshot of the accounts for the segment started by a roll,
+     * then deletes the segments and snapshots it replaces.  The accounts
+     * must include every change queued before the roll, and every id
+     * handed out before the roll must be below nextId.
+     */
+    public void writeSnapshot(Pending roll, Iterable<Account> accounts,
+            long nextId) throws IOException {
+        roll.await();
+        Assert.isTrue(roll.segment > 0, "Pending record is not a roll");
+        AccountSnapshot.write(accounts, nextId,
+                fileOf(roll.segment, SNAPSHOT_SUFFIX));
+        compact(roll.segment);
+    }
+
+    private void compact(long snapshot) throws IOException {
+        for (long number : numbered(SNAPSHOT_SUFFIX)) {
+            if (number < snapshot) {
+                delete(fileOf(number, SNAPSHOT_SUFFIX));
+            }
+        }
+        for (long number : numbered(SUFFIX)) {
+            if (number < snapshot) {
+                delete(fileOf(number, SUFFIX));
+            }
+        }
+    }
+
+    private static void delete(File file) throws IOException {
+        if (!file.delete() && file.exists()) {
+            throw new IOException("Could not delete " + file);
+        }
+    }
+
+    /**
+     * Writes and syncs everything queued, then stops the writer.  Appends
+     * made after closing fail.
+     */
+    public void close() throws IOException {
+        closed = true;
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+        // appends that raced with closing are failed rather than left waiting
+        IOException closedFailure = new IOException("Account log is closed");
+        for (Pending pending; (pending = queue.poll()) != null; ) {
+            pending.complete(closedFailure);
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private Pending append(byte[] record) throws IOException {
+        if (failure != null) {
+            throw new IOException("Account log has failed", failure);
+        }
+        if (closed) {
+            throw new IOException("Account log is closed");
+        }
+        if (record == null) {
+            Pending roll = new Pending(null, true);
+            queue.add(roll);
+            return roll;
+        }
+        int length = record.length - RECORD_HEADER_SIZE + 1;
+        CRC32 crc = new CRC32();
+        crc.update(record, RECORD_HEADER_SIZE - 1, length);
+        ByteBuffer header = ByteBuffer.wrap(record, 0, RECORD_HEADER_SIZE - 1);
+        header.putInt(length);
+        header.putInt((int) crc.getValue());
+
+        Pending pending = new Pending(record, durability != Durability.ASYNC);
+        queue.add(pending);
+        return pending;
+    }
+
+    private void writeLoop() {
+        List<Pending> batch = new ArrayList<Pending>();
+        long lastSync = System.currentTimeMillis();
+        boolean unsynced = false;
+        while (!closed || !queue.isEmpty()) {
+            try {
+                Pending first = queue.poll(syncInterval, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, MAX_BATCH - 1);
+                }
+            } catch (InterruptedException e) {
+                continue;
+            }
+            IOException error = failure;
+            if (error == null) {
+                try {
+                    if (!batch.isEmpty()) {
+                        write(batch);
+                        unsynced = true;
+                    }
+                    long now = System.currentTimeMillis();
+                    if (unsynced && (durability == Durability.SYNC ||
+                            now - lastSync >= syncInterval || closed)) {
+                        channel.force(false);
+                        unsynced = false;
+                        lastSync = now;
+                    }
+                } catch (IOException e) {
+                    failure = error = e;
+                }
+            }
+            for (Pending pending : batch) {
+                pending.complete(error);
+            }
+            batch.clear();
+        }
+        if (unsynced && failure == null) {
+            try {
+                channel.force(false);
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+    }
+
+    private void write(List<Pending> batch) throws IOException {
+        if (channel.position() >= segmentSize) {
+            nextSegment();
+        }
+        ByteBuffer[] records = new ByteBuffer[batch.size()];
+        int count = 0;
+        long remaining = 0;
+        for (Pending pending : batch) {
+            if (pending.record == null) {
+                write(records, count, remaining);
+                count = 0;
+                remaining = 0;
+                nextSegment();
+                pending.segment = segment;
+                continue;
+            }
+            records[count] = ByteBuffer.wrap(pending.record);
+            remaining += records[count++].remaining();
+        }
+        write(records, count, remaining);
+    }
+
+    private void write(ByteBuffer[] records, int count, long remaining)
+            throws IOException {
+        while (remaining > 0) {
+            remaining -= channel.write(records, 0, count);
+        }
+    }
+
+    private void nextSegment() throws IOException {
+        channel.force(false);
+        channel.close();
+        channel = openSegment(++segment);
+    }
+
+    private void replaySegment(File file, RecordHandler handler)
+            throws IOException {
+        SegmentReader in = new SegmentReader(file);
+        try {
+            while (in.next()) {
+                apply(in.payload, in.length, handler);
+            }
+            if (in.torn) {
+                throw new IOException("Corrupt account log " + file,
+                        in.tornBy);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Cuts a segment back to its last whole record, dropping one torn by a
+     * crash while it was being written.
+     */
+    private static void truncateTornRecord(File file) throws IOException {
+        long valid;
+        SegmentReader in = new SegmentReader(file);
+        try {
+            while (in.next()) {
+                // skip to the first record that is not whole
+            }
+            if (!in.torn) {
+                return;
+            }
+            valid = in.position;
+        } finally {
+            in.close();
+        }
+        RandomAccessFile segment = new RandomAccessFile(file, "rw");
+        try {
+            segment.getChannel().truncate(valid);
+            segment.getChannel().force(true);
+        } finally {
+            segment.close();
+        }
+    }
+
+    private static void apply(byte[] payload, int length,
+            RecordHandler handler) throws IOException {
+        DataInputStream record = new DataInputStream(
+                new ByteArrayInputStream(payload, 1, length - 1));
+        switch (payload[0]) {
+        case PUT:
+            handler.put(AccountCodec.read(record));
+            break;
+        case REMOVE:
+            handler.remove(record.readLong());
+            break;
+        default:
+            throw new IOException("Unknown record type " + payload[0]);
+        }
+    }
+
+    private FileChannel openSegment(long number) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(
+                fileOf(number, SUFFIX), "rw");
+        file.setLength(0);
+        return file.getChannel();
+    }
+
+    private File fileOf(long number, String suffix) {
+        return new File(directory, String.format("%s%020d%s",
+                PREFIX, number, suffix));
+    }
+
+    /**
+     * @return the numbers of the segments or snapshots in the directory, in
+     * order
+     */
+    private long[] numbered(final String suffix) {
+        String[] names = directory.list(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.startsWith(PREFIX) && name.endsWith(suffix);
+            }
+        });
+        long[] numbers = new long[names == null ? 0 : names.length];
+        for (int i = 0; i < numbers.length; i++) {
+            numbers[i] = Long.parseLong(names[i].substring(PREFIX.length(),
+                    names[i].length() - suffix.length()));
+        }
+        Arrays.sort(numbers);
+        return numbers;
+    }
+
+    /**
+     * Reads a segment's records in order, checking each one's length and
+     * checksum, and stops at the first that fails.
+     */
+    private static class SegmentReader {
+
+        private final DataInputStream in;
+        private final CRC32 crc = new CRC32();
+        private byte[] payload = new byte[256];
+        private int length;
+        // the offset just past the last whole record read
+        private long position;
+        private boolean torn;
+        private IOException tornBy;
+
+        SegmentReader(File file) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(file), 1 << 16));
+        }
+
+        /**
+         * @return whether a whole record was read; if not, either the
+         * segment ended cleanly or it is torn
+         */
+        boolean next() throws IOException {
+            int first = in.read();
+            if (first < 0) {
+                return false;
+            }
+            try {
+                length = (first << 24) | (in.readUnsignedByte() << 16)
+                    | in.readUnsignedShort();
+                int checksum = in.readInt();
+                if (length < 1 || length > MAX_RECORD_SIZE) {
+                    throw new IOException("Bad record length " + length);
+                }
+                if (length > payload.length) {
+                    payload = new byte[Math.max(length, payload.length * 2)];
+                }
+                in.readFully(payload, 0, length);
+                crc.reset();
+                crc.update(payload, 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    throw new IOException("Bad record checksum");
+                }
+            } catch (IOException e) {
+                torn = true;
+                tornBy = e;
+                return false;
+            }
+            position += RECORD_HEADER_SIZE - 1 + length;
+            return true;
+        }
+
+        void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * A queued record, which callers wait on to learn that it is as durable
+     * as the log promises.
+     */
+    public static class Pending {
+
+        // null for a roll, which learns the segment it started
+        private final byte[] record;
+        private final CountDownLatch done;
+        private volatile IOException failure;
+        private volatile long segment;
+
+        Pending(byte[] record, boolean waitable) {
+            this.record = record;
+            this.done = (waitable ? new CountDownLatch(1) : null);
+        }
+
+        void complete(IOException failure) {
+            this.failure = failure;
+            if (done != null) {
+                done.countDown();
+            }
+        }
+
+        public void await() throws IOException {
+            if (done == null) {
+                return;
+            }
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted waiting for account log");
+            }
+            if (failure != null) {
+                throw new IOException("Could not write account log", failure);
+            }
+        }
+    }
+
+}
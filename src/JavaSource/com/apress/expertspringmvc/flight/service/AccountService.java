@@ -14,12 +14,38 @@ public interface AccountService {
 
     Account findAccount(Long id) throws AccountNotFoundException;
 
+    /**
+     * Looks up only the version and last update time of an account, for
+     * answering conditional requests without loading the account.
+     */
+    AccountVersion findAccountVersion(Long id) throws AccountNotFoundException;
+
     Account findAccountByUsername(String username) throws AccountNotFoundException;
 
     List<Account> findAccountsByFirstName(String searchBy);
 
     List<Account> findAccountsByLastName(String searchBy);
 
+    /**
+     * Finds one page of the accounts with a matching first name, ordered
+     * by name.
+     *
+     * @param offset how many matching accounts to skip
+     * @param limit the most accounts to return
+     */
+    List<Account> findAccountsByFirstName(String searchBy, NameMatch match,
+            int offset, int limit);
+
+    /**
+     * Finds one page of the accounts with a matching last name, ordered by
+     * name.
+     *
+     * @param offset how many matching accounts to skip
+     * @param limit the most accounts to return
+     */
+    List<Account> findAccountsByLastName(String searchBy, NameMatch match,
+            int offset, int limit);
+
     void cancelAccount(String username) throws AccountNotFoundException;
     
 }
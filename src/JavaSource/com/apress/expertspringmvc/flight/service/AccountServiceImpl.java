@@ -1,44 +1,543 @@
 package JavaSource.com.apress.expertspringmvc.flight.service;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
 
 import JavaSource.com.apress.expertspringmvc.flight.domain.Account;
+import JavaSource.com.apress.expertspringmvc.flight.domain.Name;
 
+/**
+ * An in-memory account store indexed by id and by username.
+ * <p>
+ * Reads go straight to concurrent maps and take no lock.  Writes lock one of
+ * a fixed set of stripes chosen by username, so writers for different
+ * accounts rarely wait on each other and a username can only be claimed
+ * once.  Each thread takes ids from its own block, so allocating one touches
+ * no shared state.  Accounts are copied on the way in and on the way out;
+ * callers never hold the stored instance.
+ * <p>
+ * First and last names are kept in {@link NameIndex NameIndexes}, updated
+ * as each account is written, so name searches never scan the store.
+ * <p>
+ * With an {@link AccountLog}, every change is logged while its stripe is
+ * locked, so the log holds each account's changes in the order they were
+ * made, and is only published once its record is durable: a change the log
+ * failed to write is never seen, and its username is free to be tried
+ * again.  Writers on other stripes share the log's group commits in the
+ * meantime.  Snapshots let recovery skip all but the tail of the log; see
+ * {@link #snapshot()}.
+ */
 public class AccountServiceImpl implements AccountService {
 
+    private static final Log logger =
+        LogFactory.getLog(AccountServiceImpl.class);
+
+    private static final int STRIPES = 64;
+    private static final int ID_BLOCK = 1024;
+
+    private final ConcurrentMap<Long, Account> byId;
+    private final ConcurrentMap<String, Account> byUsername;
+    private final Object[] locks = new Object[STRIPES];
+    private final NameIndex firstNames = new NameIndex();
+    private final NameIndex lastNames = new NameIndex();
+    private int maxResults = 1000;
+    private volatile AccountLog log;
+    private ScheduledExecutorService snapshots;
+
+    private final AtomicLong nextIdBlock = new AtomicLong(1);
+    // per thread: the next id to hand out and the end of the block
+    private final ThreadLocal<long[]> idBlock = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[2];
+        }
+    };
+
+    public AccountServiceImpl() {
+        this(1024);
+    }
+
+    /**
+     * @param expectedAccounts how many accounts to size the indexes for
+     */
+    public AccountServiceImpl(int expectedAccounts) {
+        byId = new ConcurrentHashMap<Long, Account>(
+                expectedAccounts, 0.75f, STRIPES);
+        byUsername = new ConcurrentHashMap<String, Account>(
+                expectedAccounts, 0.75f, STRIPES);
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * @param maxResults the most accounts returned by the name searches
+     * that take no limit
+     */
+    public void setMaxResults(int maxResults) {
+        Assert.isTrue(maxResults > 0, "Max results must be positive");
+        this.maxResults = maxResults;
+    }
+
+    /**
+     * Recovers the accounts in the log into this store and logs every
+     * change from now on.  Meant to be called once, before the store is
+     * used.  The name indexes come from the snapshot recovery starts from,
+     * with just the accounts logged since moved within them; without a
+     * snapshot they are built once everything is replayed, in bulk.
+     */
+    public void setAccountLog(AccountLog log) throws IOException {
+        Assert.notNull(log, "Account log must not be null");
+        Recovery recovery = new Recovery();
+        log.replay(recovery);
+        recovery.finish();
+        this.log = log;
+    }
+
+    /**
+     * Takes a snapshot in the background at a fixed interval, once an
+     * account log is set.
+     *
+     * @param snapshotInterval milliseconds between snapshots
+     */
+    public synchronized void setSnapshotInterval(long snapshotInterval) {
+        Assert.isTrue(snapshotInterval > 0,
+                "Snapshot interval must be positive");
+        if (snapshots != null) {
+            snapshots.shutdown();
+        }
+        snapshots = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactory() {
+                    public Thread newThread(Runnable task) {
+                        Thread thread = new Thread(task, "account-snapshots");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        snapshots.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                if (log == null) {
+                    return;
+                }
+                try {
+                    snapshot();
+                } catch (IOException e) {
+                    logger.error("Could not write account snapshot", e);
+                }
+            }
+        }, snapshotInterval, snapshotInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Writes every account to a snapshot and deletes the log segments it
+     * replaces.  Writers are held up only while the log moves to a new
+     * segment, not while the snapshot is written.
+     */
+    public void snapshot() throws IOException {
+        AccountLog current = log;
+        Assert.state(current != null, "No account log to snapshot");
+        AccountLog.Pending roll = rollLocked(current, 0);
+        // ids are handed out under a stripe lock, so all those used before
+        // the roll are below this
+        current.writeSnapshot(roll, byId.values(), nextIdBlock.get());
+    }
+
+    /**
+     * Stops taking snapshots.
+     */
+    public synchronized void destroy() {
+        if (snapshots != null) {
+            snapshots.shutdown();
+            snapshots = null;
+        }
+    }
+
+    /**
+     * Stores a new account under a freshly allocated id, which is set on the
+     * given account along with its version and last update time.
+     *
+     * @throws DuplicateUsernameException if the username is taken
+     */
     public void saveAccount(Account account) {
+        Assert.notNull(account, "Account must not be null");
+        String username = account.getUsername();
+        Assert.isTrue(StringUtils.hasText(username),
+                "Username must not be blank");
+        synchronized (lockFor(username)) {
+            if (byUsername.containsKey(username)) {
+                throw new DuplicateUsernameException(account);
+            }
+            account.setId(nextId());
+            account.setLastUpdated(new Date());
+            account.setVersion(1);
+            Account stored = new Account(account);
+            awaitLog(logPut(stored));
+            store(null, stored);
+        }
     }
 
+    /**
+     * Replaces the stored account with the same id, which may change its
+     * username.
+     *
+     * @throws DuplicateUsernameException if the new username is taken
+     */
     public void updateAccount(Account account) throws AccountNotFoundException {
+        Assert.notNull(account, "Account must not be null");
+        String username = account.getUsername();
+        Assert.isTrue(StringUtils.hasText(username),
+                "Username must not be blank");
+        if (account.getId() == null) {
+            throw new AccountNotFoundException(account);
+        }
+        while (true) {
+            Account current = byId.get(account.getId());
+            if (current == null) {
+                throw new AccountNotFoundException(account);
+            }
+            String previous = current.getUsername();
+            int a = stripeOf(previous);
+            int b = stripeOf(username);
+            synchronized (locks[Math.min(a, b)]) {
+                synchronized (locks[Math.max(a, b)]) {
+                    // renamed or removed before we took the lock
+                    if (byId.get(account.getId()) != current) {
+                        continue;
+                    }
+                    boolean renamed = !previous.equals(username);
+                    if (renamed && byUsername.containsKey(username)) {
+                        throw new DuplicateUsernameException(account);
+                    }
+                    account.setLastUpdated(new Date());
+                    account.setVersion(current.getVersion() + 1);
+                    Account stored = new Account(account);
+                    awaitLog(logPut(stored));
+                    store(current, stored);
+                    return;
+                }
+            }
+        }
     }
 
+    /**
+     * Removes the account with the same id or, if it has none, the same
+     * username.
+     */
     public void deleteAccount(Account account) throws AccountNotFoundException {
+        Assert.notNull(account, "Account must not be null");
+        while (true) {
+            Account current = (account.getId() != null ?
+                    byId.get(account.getId()) :
+                    account.getUsername() != null ?
+                            byUsername.get(account.getUsername()) : null);
+            if (current == null) {
+                throw new AccountNotFoundException(account);
+            }
+            if (remove(current)) {
+                return;
+            }
+        }
     }
 
     public Account findAccount(Long id) throws AccountNotFoundException {
-        Account account = new Account(id);
-        return account;
+        Account account = (id == null ? null : byId.get(id));
+        if (account == null) {
+            throw new AccountNotFoundException(new Account(id));
+        }
+        return new Account(account);
+    }
+
+    /**
+     * Reads the stored account in place: stored accounts are never changed
+     * once published, so this needs neither a lock nor a copy.
+     */
+    public AccountVersion findAccountVersion(Long id)
+            throws AccountNotFoundException {
+        Account account = (id == null ? null : byId.get(id));
+        if (account == null) {
+            throw new AccountNotFoundException(new Account(id));
+        }
+        // accounts logged before versions were kept have no update time
+        Date lastUpdated = account.getLastUpdated();
+        return new AccountVersion(id, account.getVersion(),
+                lastUpdated == null ? -1 : lastUpdated.getTime());
     }
 
     public Account findAccountByUsername(String username) throws AccountNotFoundException {
-        if (username == null) {
+        Account account = (username == null ? null : byUsername.get(username));
+        if (account == null) {
             throw new AccountNotFoundException();
         }
-        Account account = new Account();
-        account.setUsername(username);
-        return account;
+        return new Account(account);
     }
 
     public List<Account> findAccountsByFirstName(String searchBy) {
-        return new ArrayList<Account>();
+        return findAccountsByFirstName(searchBy, NameMatch.IGNORE_CASE,
+                0, maxResults);
     }
 
     public List<Account> findAccountsByLastName(String searchBy) {
-        return new ArrayList<Account>();
+        return findAccountsByLastName(searchBy, NameMatch.IGNORE_CASE,
+                0, maxResults);
+    }
+
+    public List<Account> findAccountsByFirstName(String searchBy,
+            NameMatch match, int offset, int limit) {
+        List<Account> accounts = new ArrayList<Account>();
+        for (long id : firstNames.find(searchBy, match, offset, limit)) {
+            Account account = byId.get(id);
+            // skip accounts renamed since the index was read
+            if (account != null && NameIndex.matches(
+                    firstOf(account), searchBy, match)) {
+                accounts.add(new Account(account));
+            }
+        }
+        return accounts;
+    }
+
+    public List<Account> findAccountsByLastName(String searchBy,
+            NameMatch match, int offset, int limit) {
+        List<Account> accounts = new ArrayList<Account>();
+        for (long id : lastNames.find(searchBy, match, offset, limit)) {
+            Account account = byId.get(id);
+            if (account != null && NameIndex.matches(
+                    lastOf(account), searchBy, match)) {
+                accounts.add(new Account(account));
+            }
+        }
+        return accounts;
     }
 
     public void cancelAccount(String username) throws AccountNotFoundException {
+        while (true) {
+            Account current = (username == null ?
+                    null : byUsername.get(username));
+            if (current == null) {
+                throw new AccountNotFoundException();
+            }
+            if (remove(current)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return how many accounts are stored
+     */
+    public int size() {
+        return byId.size();
+    }
+
+    /**
+     * Puts replayed accounts straight into the maps.  Once a snapshot's
+     * name indexes arrive, it remembers the snapshot's state of each account
+     * the log then changes, so only those need moving in the indexes.
+     */
+    private class Recovery implements AccountLog.RecordHandler {
+
+        private long maxId;
+        private boolean namesLoaded;
+        private final Map<Long, Account> changed = new HashMap<Long, Account>();
+
+        public void put(Account account) {
+            Account previous = byId.get(account.getId());
+            if (previous != null) {
+                byUsername.remove(previous.getUsername(), previous);
+            }
+            changing(account.getId(), previous);
+            byUsername.put(account.getUsername(), account);
+            byId.put(account.getId(), account);
+            maxId = Math.max(maxId, account.getId());
+        }
+
+        public void remove(long id) {
+            Account previous = byId.remove(id);
+            if (previous != null) {
+                byUsername.remove(previous.getUsername(), previous);
+            }
+            changing(id, previous);
+            maxId = Math.max(maxId, id);
+        }
+
+        public void reserveIds(long nextId) {
+            maxId = Math.max(maxId, nextId - 1);
+        }
+
+        public void putNames(NameIndex first, NameIndex last) {
+            firstNames.addAll(first);
+            lastNames.addAll(last);
+            namesLoaded = true;
+        }
+
+        private void changing(long id, Account previous) {
+            if (namesLoaded && !changed.containsKey(id)) {
+                changed.put(id, previous);
+            }
+        }
+
+        void finish() {
+            if (namesLoaded) {
+                for (Map.Entry<Long, Account> change : changed.entrySet()) {
+                    long id = change.getKey();
+                    Account before = change.getValue();
+                    Account after = byId.get(id);
+                    firstNames.replace(before == null ? null : firstOf(before),
+                            after == null ? null : firstOf(after), id);
+                    lastNames.replace(before == null ? null : lastOf(before),
+                            after == null ? null : lastOf(after), id);
+                }
+            } else {
+                NameIndex.Loader first = firstNames.loader();
+                NameIndex.Loader last = lastNames.loader();
+                for (Account account : byId.values()) {
+                    first.add(firstOf(account), account.getId());
+                    last.add(lastOf(account), account.getId());
+                }
+                first.finish();
+                last.finish();
+            }
+            if (nextIdBlock.get() <= maxId) {
+                nextIdBlock.set(maxId + 1);
+            }
+        }
+    }
+
+    /**
+     * @return false if the account was changed or removed by another thread
+     * first, in which case the caller looks it up again
+     */
+    private boolean remove(Account current) {
+        synchronized (lockFor(current.getUsername())) {
+            if (byId.get(current.getId()) != current) {
+                return false;
+            }
+            awaitLog(logRemove(current.getId()));
+            unstore(current);
+        }
+        return true;
+    }
+
+    /**
+     * Puts an account in every index, replacing its previous state if it
+     * had one.  Callers hold the locks for both usernames.
+     */
+    private void store(Account previous, Account stored) {
+        byUsername.put(stored.getUsername(), stored);
+        byId.put(stored.getId(), stored);
+        if (previous == null) {
+            firstNames.add(firstOf(stored), stored.getId());
+            lastNames.add(lastOf(stored), stored.getId());
+            return;
+        }
+        if (!previous.getUsername().equals(stored.getUsername())) {
+            byUsername.remove(previous.getUsername(), previous);
+        }
+        firstNames.replace(firstOf(previous), firstOf(stored), stored.getId());
+        lastNames.replace(lastOf(previous), lastOf(stored), stored.getId());
+    }
+
+    private void unstore(Account current) {
+        byId.remove(current.getId(), current);
+        byUsername.remove(current.getUsername(), current);
+        firstNames.remove(firstOf(current), current.getId());
+        lastNames.remove(lastOf(current), current.getId());
+    }
+
+    /**
+     * Queues a roll while holding every stripe, so every change logged
+     * before the roll has already reached the maps.
+     */
+    private AccountLog.Pending rollLocked(AccountLog current, int stripe)
+            throws IOException {
+        if (stripe == STRIPES) {
+            return current.roll();
+        }
+        synchronized (locks[stripe]) {
+            return rollLocked(current, stripe + 1);
+        }
+    }
+
+    private AccountLog.Pending logPut(Account stored) {
+        AccountLog current = log;
+        if (current == null) {
+            return null;
+        }
+        try {
+            return current.put(stored);
+        } catch (IOException e) {
+            throw new DataAccessResourceFailureException(
+                    "Could not log account " + stored.getId(), e);
+        }
+    }
+
+    private AccountLog.Pending logRemove(long id) {
+        AccountLog current = log;
+        if (current == null) {
+            return null;
+        }
+        try {
+            return current.remove(id);
+        } catch (IOException e) {
+            throw new DataAccessResourceFailureException(
+                    "Could not log removal of account " + id, e);
+        }
+    }
+
+    private static void awaitLog(AccountLog.Pending pending) {
+        if (pending == null) {
+            return;
+        }
+        try {
+            pending.await();
+        } catch (IOException e) {
+            throw new DataAccessResourceFailureException(
+                    "Could not write account log", e);
+        }
+    }
+
+    private Long nextId() {
+        long[] block = idBlock.get();
+        if (block[0] == block[1]) {
+            block[0] = nextIdBlock.getAndAdd(ID_BLOCK);
+            block[1] = block[0] + ID_BLOCK;
+        }
+        return block[0]++;
+    }
+
+    private static String firstOf(Account account) {
+        Name name = account.getName();
+        return (name == null ? null : name.getFirst());
+    }
+
+    private static String lastOf(Account account) {
+        Name name = account.getName();
+        return (name == null ? null : name.getLast());
+    }
+
+    private Object lockFor(String username) {
+        return locks[stripeOf(username)];
+    }
+
+    private static int stripeOf(String username) {
+        int h = username.hashCode();
+        return (h ^ (h >>> 16)) & (STRIPES - 1);
     }
 
 }
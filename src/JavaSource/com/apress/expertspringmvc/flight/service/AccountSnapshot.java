@@ -0,0 +1,289 @@
+package JavaSource.com.apress.expertspringmvc.flight.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+import JavaSource.com.apress.expertspringmvc.flight.domain.Account;
+import JavaSource.com.apress.expertspringmvc.flight.domain.Name;
+
+/**
+ * Reads and writes a point-in-time copy of every account and of the first
+ * and last name indexes, so recovery can start from it instead of from the
+ * first record ever logged, and need not rebuild the name indexes.  The
+ * layout, all big-endian, is
+ * <pre>
+ *  header   magic, version
+ *  body     the lowest id not yet handed out;
+ *           per account: a marker byte of 1, then the account as written
+ *           by {@link AccountCodec}; a marker byte of 0 ends the accounts;
+ *           then the first name postings, then the last name postings,
+ *           each as written by {@link NameIndex.Loader#writeTo}
+ *  trailer  account count
+ * </pre>
+ * The body is cut into chunks of up to 64K, each preceded by its length
+ * and CRC-32, and ended by a chunk of length 0, so checksums are computed a
+ * chunk at a time rather than a byte at a time.  Version 3 snapshots, which
+ * lack the next id, and version 2 snapshots, which also have no name
+ * postings and one CRC-32 over the whole body in the trailer, can still be
+ * read; recovery then takes the next id from the accounts alone.
+ * <p>
+ * The name postings are gathered from the accounts as they are written, so
+ * they always agree with the accounts in the snapshot, even though both are
+ * read while writers carry on.
+ */
+final class AccountSnapshot {
+
+    static final int MAGIC = 0x41434353;
+    static final short VERSION = 4;
+
+    private static final short UNCHUNKED_VERSION = 2;
+    private static final short NO_NEXT_ID_VERSION = 3;
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    private AccountSnapshot() { }
+
+    /**
+     * Writes the accounts and the next id to a snapshot file, replacing any
+     * existing file only once the new one is complete and synced.
+     */
+    static void write(Iterable<Account> accounts, long nextId, File file)
+            throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        FileOutputStream stream = new FileOutputStream(tmp);
+        try {
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(stream, CHUNK_SIZE));
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+
+            NameIndex.Loader firstNames = new NameIndex().loader();
+            NameIndex.Loader lastNames = new NameIndex().loader();
+            ChunkedOutputStream chunks = new ChunkedOutputStream(out);
+            DataOutputStream body = new DataOutputStream(chunks);
+            body.writeLong(nextId);
+            long count = 0;
+            for (Account account : accounts) {
+                body.writeByte(1);
+                AccountCodec.write(account, body);
+                Name name = account.getName();
+                if (name != null) {
+                    firstNames.add(name.getFirst(), account.getId());
+                    lastNames.add(name.getLast(), account.getId());
+                }
+                count++;
+            }
+            body.writeByte(0);
+            firstNames.writeTo(body);
+            lastNames.writeTo(body);
+            body.flush();
+            chunks.finish();
+
+            out.writeLong(count);
+            out.flush();
+            stream.getFD().sync();
+        } finally {
+            stream.close();
+        }
+        Files.move(tmp.toPath(), file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Hands every account in a snapshot file to the handler, then the name
+     * indexes saved with them, if the snapshot has them.
+     */
+    static void read(File file, AccountLog.RecordHandler handler)
+            throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file), CHUNK_SIZE));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + " is not an account snapshot");
+            }
+            short version = in.readShort();
+            if (version == UNCHUNKED_VERSION) {
+                readUnchunked(in, file, handler);
+                return;
+            }
+            if (version != VERSION && version != NO_NEXT_ID_VERSION) {
+                throw new IOException("Unsupported account snapshot version "
+                        + version + " in " + file);
+            }
+            ChunkedInputStream chunks = new ChunkedInputStream(in, file);
+            DataInputStream body = new DataInputStream(chunks);
+            if (version == VERSION) {
+                handler.reserveIds(body.readLong());
+            }
+            long count = 0;
+            while (body.readByte() != 0) {
+                handler.put(AccountCodec.read(body));
+                count++;
+            }
+            NameIndex firstNames = new NameIndex();
+            NameIndex lastNames = new NameIndex();
+            firstNames.readPostings(body);
+            lastNames.readPostings(body);
+            if (body.read() >= 0 || in.readLong() != count) {
+                throw new IOException("Corrupt account snapshot " + file);
+            }
+            handler.putNames(firstNames, lastNames);
+        } catch (EOFException e) {
+            throw new IOException("Truncated account snapshot " + file, e);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void readUnchunked(DataInputStream in, File file,
+            AccountLog.RecordHandler handler) throws IOException {
+        CRC32 crc = new CRC32();
+        DataInputStream body = new DataInputStream(
+                new CheckedInputStream(in, crc));
+        long count = 0;
+        while (body.readByte() != 0) {
+            handler.put(AccountCodec.read(body));
+            count++;
+        }
+        int checksum = (int) crc.getValue();
+        if (in.readLong() != count || in.readInt() != checksum) {
+            throw new IOException("Corrupt account snapshot " + file);
+        }
+    }
+
+    /**
+     * Writes whatever is written to it as checksummed chunks.
+     */
+    private static class ChunkedOutputStream extends OutputStream {
+
+        private final DataOutputStream out;
+        private final byte[] chunk = new byte[CHUNK_SIZE];
+        private final CRC32 crc = new CRC32();
+        private int size;
+
+        ChunkedOutputStream(DataOutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (size == chunk.length) {
+                writeChunk();
+            }
+            chunk[size++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (size == chunk.length) {
+                    writeChunk();
+                }
+                int n = Math.min(len, chunk.length - size);
+                System.arraycopy(b, off, chunk, size, n);
+                size += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        /**
+         * Writes the last chunk and the empty one that ends them.
+         */
+        void finish() throws IOException {
+            if (size > 0) {
+                writeChunk();
+            }
+            out.writeInt(0);
+        }
+
+        private void writeChunk() throws IOException {
+            crc.reset();
+            crc.update(chunk, 0, size);
+            out.writeInt(size);
+            out.writeInt((int) crc.getValue());
+            out.write(chunk, 0, size);
+            size = 0;
+        }
+    }
+
+    /**
+     * Reads back what a ChunkedOutputStream wrote, checking each chunk as a
+     * whole before handing out any of it.
+     */
+    private static class ChunkedInputStream extends InputStream {
+
+        private final DataInputStream in;
+        private final File file;
+        private final byte[] chunk = new byte[CHUNK_SIZE];
+        private final CRC32 crc = new CRC32();
+        private int size;
+        private int position;
+        private boolean ended;
+
+        ChunkedInputStream(DataInputStream in, File file) {
+            this.in = in;
+            this.file = file;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (position == size && !nextChunk()) {
+                return -1;
+            }
+            return chunk[position++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (position == size && !nextChunk()) {
+                return -1;
+            }
+            int n = Math.min(len, size - position);
+            System.arraycopy(chunk, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        private boolean nextChunk() throws IOException {
+            if (ended) {
+                return false;
+            }
+            int length = in.readInt();
+            if (length == 0) {
+                ended = true;
+                return false;
+            }
+            if (length < 0 || length > CHUNK_SIZE) {
+                throw new IOException("Corrupt account snapshot " + file);
+            }
+            int checksum = in.readInt();
+            in.readFully(chunk, 0, length);
+            crc.reset();
+            crc.update(chunk, 0, length);
+            if ((int) crc.getValue() != checksum) {
+                throw new IOException("Corrupt account snapshot " + file);
+            }
+            size = length;
+            position = 0;
+            return true;
+        }
+    }
+
+}
@@ -0,0 +1,42 @@
+package JavaSource.com.apress.expertspringmvc.flight.service;
+
+/**
+ * The version and last update time of a stored account, which change
+ * together on every write.
+ */
+public final class AccountVersion {
+
+    private final long id;
+    private final long version;
+    private final long lastModified;
+
+    public AccountVersion(long id, long version, long lastModified) {
+        this.id = id;
+        this.version = version;
+        this.lastModified = lastModified;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the time of the last write, in milliseconds, or -1 if the
+     * account was written before update times were kept
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * @return a strong HTTP entity tag naming this version of the account
+     */
+    public String getETag() {
+        return "\"" + id + "-" + version + "\"";
+    }
+
+}
@@ -0,0 +1,155 @@
+package JavaSource.com.apress.expertspringmvc.flight.service;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+
+import JavaSource.com.apress.expertspringmvc.flight.domain.Airport;
+
+/**
+ * Interns one shared Airport per code and numbers them densely from zero, so
+ * schedules can index arrays by airport and compare airports as ints.
+ * <p>
+ * Codes are matched ignoring case and surrounding whitespace.  Lookups read
+ * an immutable table through a volatile field: they take no lock and create
+ * no objects.  Interning a new airport copies the table, which is fine for
+ * the few thousand airports in the world.
+ */
+public class AirportRegistry {
+
+    private volatile Table table = new Table(new Airport[0], new int[16]);
+
+    /**
+     * @return the shared airport for the code, registering one with the
+     * given name if the code is new
+     */
+    public Airport intern(String name, String airportCode) {
+        return airport(register(name, airportCode));
+    }
+
+    public Airport intern(Airport airport) {
+        return intern(airport.getName(), airport.getAirportCode());
+    }
+
+    /**
+     * @return the id of the airport, registering it if its code is new
+     */
+    public int register(Airport airport) {
+        return register(airport.getName(), airport.getAirportCode());
+    }
+
+    public synchronized int register(String name, String airportCode) {
+        Assert.isTrue(StringUtils.hasText(airportCode),
+                "Airport code must not be blank");
+        int id = idOf(airportCode);
+        if (id >= 0) {
+            return id;
+        }
+        Table current = table;
+        id = current.airports.length;
+        Airport[] airports = Arrays.copyOf(current.airports, id + 1);
+        airports[id] = new Airport(name,
+                airportCode.trim().toUpperCase(Locale.ENGLISH));
+        int[] slots = current.slots;
+        if ((id + 1) * 2 > slots.length) {
+            slots = new int[slots.length * 2];
+            for (int i = 0; i < id; i++) {
+                insert(slots, airports, i);
+            }
+        } else {
+            slots = slots.clone();
+        }
+        insert(slots, airports, id);
+        table = new Table(airports, slots);
+        return id;
+    }
+
+    /**
+     * @return the id of the airport with the code, or -1 if it has never
+     * been registered
+     */
+    public int idOf(String airportCode) {
+        if (airportCode == null) {
+            return -1;
+        }
+        int start = 0;
+        int end = airportCode.length();
+        while (start < end &&
+                Character.isWhitespace(airportCode.charAt(start))) {
+            start++;
+        }
+        while (end > start &&
+                Character.isWhitespace(airportCode.charAt(end - 1))) {
+            end--;
+        }
+        if (start == end) {
+            return -1;
+        }
+        Table current = table;
+        int mask = current.slots.length - 1;
+        for (int slot = hash(airportCode, start, end) & mask; ;
+                slot = (slot + 1) & mask) {
+            int id = current.slots[slot] - 1;
+            if (id < 0) {
+                return -1;
+            }
+            String code = current.airports[id].getAirportCode();
+            if (code.length() == end - start && airportCode.regionMatches(
+                    true, start, code, 0, code.length())) {
+                return id;
+            }
+        }
+    }
+
+    /**
+     * @return the registered airport with the code, or null
+     */
+    public Airport findAirport(String airportCode) {
+        int id = idOf(airportCode);
+        return (id < 0 ? null : airport(id));
+    }
+
+    public Airport airport(int id) {
+        return table.airports[id];
+    }
+
+    /**
+     * @return how many airports have been registered; ids are below this
+     */
+    public int size() {
+        return table.airports.length;
+    }
+
+    private static void insert(int[] slots, Airport[] airports, int id) {
+        String code = airports[id].getAirportCode();
+        int mask = slots.length - 1;
+        int slot = hash(code, 0, code.length()) & mask;
+        while (slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = id + 1;
+    }
+
+    private static int hash(String code, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31*h + Character.toUpperCase(code.charAt(i));
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static class Table {
+
+        private final Airport[] airports;
+        // open addressing on code; each slot holds id + 1, or 0 if empty
+        private final int[] slots;
+
+        Table(Airport[] airports, int[] slots) {
+            this.airports = airports;
+            this.slots = slots;
+        }
+    }
+
+}
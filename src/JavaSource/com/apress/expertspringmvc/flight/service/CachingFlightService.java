@@ -0,0 +1,388 @@
+package JavaSource.com.apress.expertspringmvc.flight.service;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+
+import JavaSource.com.apress.expertspringmvc.flight.domain.FareCalendar;
+import JavaSource.com.apress.expertspringmvc.flight.domain.Flight;
+import JavaSource.com.apress.expertspringmvc.flight.domain.FlightSearchCriteria;
+import JavaSource.com.apress.expertspringmvc.flight.domain.SortKey;
+import JavaSource.com.apress.expertspringmvc.flight.domain.SpecialDeal;
+
+/**
+ * A FlightService decorator that caches searches.  What is cached is the
+ * {@link FlightCursor} a search opens, so a hit skips the search itself and
+ * callers paging through the results share one ranking.  Searches are keyed
+ * on their normalized form: upper-cased airport codes and dates truncated
+ * to the hour, in the server's time zone as the search form reads them, so
+ * the same trip typed slightly differently shares one entry.  Each ranking
+ * and limit is cached separately.  The first search for an entry loads it
+ * with a copy of its own criteria, normalized the same way, so every
+ * search sharing the entry gets the flights it would have been given.
+ * <p>
+ * The cache is split into segments, each a small LRU map under its own
+ * lock, and entries expire after a fixed time to live.  Concurrent misses
+ * for the same search wait on a single load instead of each querying the
+ * delegate.  Failed loads are not cached.
+ * <p>
+ * Each entry is tagged with the version of its route when its load began,
+ * and invalidating a route only moves the route on to a new version, so a
+ * search still loading from the old schedule when the route changes is
+ * never served afterwards.
+ */
+public class CachingFlightService implements FlightService {
+
+    private static final long ONE_HOUR = 1000*60*60;
+    private static final int SEGMENTS = 16;
+
+    private final FlightService delegate;
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private long timeToLive = 5*60*1000;
+
+    private final AtomicLong allVersion = new AtomicLong();
+    private final ConcurrentMap<String, OriginVersions> originVersions =
+        new ConcurrentHashMap<String, OriginVersions>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public CachingFlightService(FlightService delegate) {
+        this(delegate, 10000);
+    }
+
+    /**
+     * @param maximumSize how many searches to hold before the least
+     * recently used are evicted
+     */
+    public CachingFlightService(FlightService delegate, int maximumSize) {
+        Assert.notNull(delegate, "Delegate must not be null");
+        Assert.isTrue(maximumSize >= SEGMENTS,
+                "Maximum size must be at least " + SEGMENTS);
+        this.delegate = delegate;
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(maximumSize / SEGMENTS);
+        }
+    }
+
+    /**
+     * @param timeToLive milliseconds a result may be served after it was
+     * loaded
+     */
+    public void setTimeToLive(long timeToLive) {
+        Assert.isTrue(timeToLive > 0, "Time to live must be positive");
+        this.timeToLive = timeToLive;
+    }
+
+    public List<SpecialDeal> getSpecialDeals() {
+        return delegate.getSpecialDeals();
+    }
+
+    public List<SpecialDeal> findSpecialDeals(FlightSearchCriteria search) {
+        return delegate.findSpecialDeals(search);
+    }
+
+    public List<Flight> findFlights(FlightSearchCriteria search) {
+        if (!StringUtils.hasText(search.getDepartFrom())
+                || search.getDepartOn() == null) {
+            return delegate.findFlights(search);
+        }
+        FlightCursor cursor = openSearch(search);
+        return cursor.fetch(0, cursor.size());
+    }
+
+    public FlightCursor openSearch(FlightSearchCriteria search) {
+        if (!StringUtils.hasText(search.getDepartFrom())
+                || search.getDepartOn() == null) {
+            return delegate.openSearch(search);
+        }
+        final SearchKey key = new SearchKey(search);
+        final FlightSearchCriteria criteria = key.toCriteria(search);
+        Segment segment = segmentFor(key);
+        CachedSearch entry;
+        boolean load = false;
+        long now = System.currentTimeMillis();
+        synchronized (segment) {
+            // read before the load, as invalidating happens after a change
+            long version = versionOf(key);
+            entry = segment.get(key);
+            if (entry != null && (now - entry.loadedAt > timeToLive
+                    || entry.version != version)) {
+                segment.remove(key);
+                entry = null;
+            }
+            if (entry == null) {
+                entry = new CachedSearch(now, version,
+                        new FutureTask<FlightCursor>(
+                                new Callable<FlightCursor>() {
+                            public FlightCursor call() {
+                                return delegate.openSearch(criteria);
+                            }
+                        }));
+                segment.put(key, entry);
+                load = true;
+            }
+        }
+        if (load) {
+            misses.incrementAndGet();
+            entry.result.run();
+        } else {
+            hits.incrementAndGet();
+        }
+        try {
+            return entry.result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for search", e);
+        } catch (ExecutionException e) {
+            synchronized (segment) {
+                if (segment.get(key) == entry) {
+                    segment.remove(key);
+                }
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Search failed", e.getCause());
+        }
+    }
+
+    /**
+     * Fare calendars are not cached; each is already a single search.
+     */
+    public FareCalendar findFareCalendar(FlightSearchCriteria search) {
+        return delegate.findFareCalendar(search);
+    }
+
+    /**
+     * Drops every cached search from one airport to another, or from one
+     * airport anywhere if arriveAt is null, for use once the schedule on
+     * that route has changed.  Searches still loading are dropped too.
+     * Searches that only connect through the route are not tracked; use
+     * {@link #invalidateAll()} for changes that may affect them.
+     */
+    public void invalidateRoute(String departFrom, String arriveAt) {
+        String from = normalize(departFrom);
+        OriginVersions versions = originVersions.get(from);
+        if (versions == null) {
+            versions = new OriginVersions();
+            OriginVersions raced = originVersions.putIfAbsent(from, versions);
+            if (raced != null) {
+                versions = raced;
+            }
+        }
+        versions.invalidate(normalize(arriveAt));
+    }
+
+    public void invalidateAll() {
+        allVersion.incrementAndGet();
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * @return how many searches are cached, including any that have
+     * expired or been invalidated but not yet been looked up again
+     */
+    public int getSize() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return a number that changes whenever the key's route is invalidated
+     */
+    private long versionOf(SearchKey key) {
+        OriginVersions versions = originVersions.get(key.departFrom);
+        return allVersion.get() + (versions == null ?
+                0 : versions.versionTo(key.arriveAt));
+    }
+
+    private Segment segmentFor(SearchKey key) {
+        int h = key.hashCode();
+        return segments[(h ^ (h >>> 16)) & (SEGMENTS - 1)];
+    }
+
+    private static String normalize(String airportCode) {
+        return (airportCode == null ?
+                "" : airportCode.trim().toUpperCase(Locale.ENGLISH));
+    }
+
+    /**
+     * Truncates to the hour in the default time zone, which is not the UTC
+     * hour in zones offset by a fraction of one.
+     */
+    private static long toHour(Date date) {
+        if (date == null) {
+            return -1;
+        }
+        long time = date.getTime();
+        long local = time + TimeZone.getDefault().getOffset(time);
+        return time - ((local % ONE_HOUR) + ONE_HOUR) % ONE_HOUR;
+    }
+
+    private static class CachedSearch {
+
+        private final long loadedAt;
+        private final long version;
+        private final FutureTask<FlightCursor> result;
+
+        CachedSearch(long loadedAt, long version,
+                FutureTask<FlightCursor> result) {
+            this.loadedAt = loadedAt;
+            this.version = version;
+            this.result = result;
+        }
+    }
+
+    /**
+     * How often the routes from one airport have been invalidated, all
+     * together and one destination at a time.  Versions only grow, so
+     * their sum changes whenever either does.
+     */
+    private static class OriginVersions {
+
+        private final AtomicLong all = new AtomicLong();
+        private final ConcurrentMap<String, AtomicLong> destinations =
+            new ConcurrentHashMap<String, AtomicLong>();
+
+        long versionTo(String arriveAt) {
+            AtomicLong version = destinations.get(arriveAt);
+            return all.get() + (version == null ? 0 : version.get());
+        }
+
+        void invalidate(String arriveAt) {
+            if (arriveAt.length() == 0) {
+                all.incrementAndGet();
+                return;
+            }
+            AtomicLong version = destinations.get(arriveAt);
+            if (version == null) {
+                version = new AtomicLong();
+                AtomicLong raced = destinations.putIfAbsent(arriveAt, version);
+                if (raced != null) {
+                    version = raced;
+                }
+            }
+            version.incrementAndGet();
+        }
+    }
+
+    /**
+     * One lock's worth of the cache, evicting in least recently used order.
+     */
+    private class Segment extends LinkedHashMap<SearchKey, CachedSearch> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(
+                Map.Entry<SearchKey, CachedSearch> eldest) {
+            if (size() > capacity) {
+                evictions.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * The normalized form of a FlightSearchCriteria.
+     */
+    private static class SearchKey {
+
+        private final String departFrom;
+        private final String arriveAt;
+        private final long departOn;
+        private final long returnOn;
+        private final SortKey sortBy;
+        private final int limit;
+
+        SearchKey(FlightSearchCriteria search) {
+            this.departFrom = normalize(search.getDepartFrom());
+            this.arriveAt = normalize(search.getArriveAt());
+            this.departOn = toHour(search.getDepartOn());
+            this.returnOn = toHour(search.getReturnOn());
+            this.sortBy = search.getSortBy();
+            this.limit = Math.max(search.getLimit(), 0);
+        }
+
+        /**
+         * @return a copy of the search with the airport codes and dates
+         * this key holds in their place
+         */
+        FlightSearchCriteria toCriteria(FlightSearchCriteria search) {
+            FlightSearchCriteria normalized = new FlightSearchCriteria();
+            normalized.setDepartFrom(departFrom);
+            normalized.setArriveAt(arriveAt);
+            normalized.setDepartOn(new Date(departOn));
+            normalized.setReturnOn(returnOn < 0 ? null : new Date(returnOn));
+            normalized.setSortBy(search.getSortBy());
+            normalized.setLimit(search.getLimit());
+            normalized.setFlexibleDays(search.getFlexibleDays());
+            return normalized;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this) return true;
+            if (! (obj instanceof SearchKey)) return false;
+            SearchKey key = (SearchKey) obj;
+            return (departOn == key.departOn && returnOn == key.returnOn &&
+                    sortBy == key.sortBy && limit == key.limit &&
+                    departFrom.equals(key.departFrom) &&
+                    arriveAt.equals(key.arriveAt));
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = departFrom.hashCode();
+            hash = 31*hash + arriveAt.hashCode();
+            hash = 31*hash + (int) (departOn ^ (departOn >>> 32));
+            hash = 31*hash + (int) (returnOn ^ (returnOn >>> 32));
+            hash = 31*hash + sortBy.ordinal();
+            return 31*hash + limit;
+        }
+    }
+
+}
@@ -0,0 +1,115 @@
+package JavaSource.com.apress.expertspringmvc.flight.service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import JavaSource.com.apress.expertspringmvc.flight.domain.Flight;
+import JavaSource.com.apress.expertspringmvc.flight.domain.FlightLeg;
+import JavaSource.com.apress.expertspringmvc.flight.domain.Money;
+import JavaSource.com.apress.expertspringmvc.flight.domain.SortKey;
+
+/**
+ * An itinerary found by a search, held as leg positions in a
+ * {@link LegIndex} with its published fare and price in cents and its
+ * travel time and departure in minutes.  Immutable.
+ */
+class Candidate {
+
+    final int[] legs;
+    final long fare;
+    final long price;
+    final long travelTime;
+    final long departure;
+
+    Candidate(int[] legs, long fare, long price, long travelTime,
+            long departure) {
+        this.legs = legs;
+        this.fare = fare;
+        this.price = price;
+        this.travelTime = travelTime;
+        this.departure = departure;
+    }
+
+    Flight toFlight(LegIndex index) {
+        List<FlightLeg> flightLegs = new ArrayList<FlightLeg>(legs.length);
+        for (int leg : legs) {
+            flightLegs.add(index.legAt(leg));
+        }
+        return new Flight(flightLegs, Money.ofCents(price));
+    }
+
+    /**
+     * @return the value an itinerary is ranked on first; never less for an
+     * itinerary than for any part of it
+     */
+    static long keyOf(SortKey sortBy, long price, long travelTime,
+            int numberOfLegs, long departure) {
+        switch (sortBy) {
+        case COST:
+            return price;
+        case TRAVEL_TIME:
+            return travelTime;
+        case LEGS:
+            return numberOfLegs;
+        default:
+            return departure;
+        }
+    }
+
+    long keyOf(SortKey sortBy) {
+        return keyOf(sortBy, price, travelTime, legs.length, departure);
+    }
+
+    /**
+     * @return candidates ranked the way {@link SortKey} ranks flights
+     */
+    static Comparator<Candidate> orderBy(final SortKey sortBy) {
+        return new Comparator<Candidate>() {
+            public int compare(Candidate a, Candidate b) {
+                int order = compare(a.keyOf(sortBy), b.keyOf(sortBy));
+                if (order == 0) {
+                    order = compare(a.price, b.price);
+                }
+                if (order == 0) {
+                    order = compare(a.travelTime, b.travelTime);
+                }
+                if (order == 0) {
+                    order = compare(a.legs.length, b.legs.length);
+                }
+                if (order == 0) {
+                    order = compare(a.departure, b.departure);
+                }
+                return order;
+            }
+
+            private int compare(long x, long y) {
+                return (x < y ? -1 : (x == y ? 0 : 1));
+            }
+        };
+    }
+
+    /**
+     * Hands ranked candidates to a cursor that turns them into flights a
+     * page at a time.
+     */
+    static FlightCursor cursorOver(final Candidate[] ranked,
+            final LegIndex index) {
+        return new FlightCursor() {
+            public int size() {
+                return ranked.length;
+            }
+
+            public List<Flight> fetch(int offset, int max) {
+                int from = Math.min(offset, ranked.length);
+                int to = (int) Math.min((long) from + max, ranked.length);
+                List<Flight> flights = new ArrayList<Flight>(to - from);
+                for (int i = from; i < to; i++) {
+                    flights.add(ranked[i].toFlight(index));
+                }
+                return flights;
+            }
+        };
+    }
+
+}
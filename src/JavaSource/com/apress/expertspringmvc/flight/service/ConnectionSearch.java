@@ -0,0 +1,346 @@
+package JavaSource.com.apress.expertspringmvc.flight.service;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.util.Assert;
+
+import JavaSource.com.apress.expertspringmvc.flight.domain.Flight;
+import JavaSource.com.apress.expertspringmvc.flight.domain.SortKey;
+
+/**
+ * Builds connecting itineraries of up to {@link #setMaxLegs(int) maxLegs}
+ * legs from a {@link LegIndex}.  Each first-leg candidate is expanded
+ * depth first through the legs leaving its arrival airport inside the
+ * connection window; the candidates themselves are split across a fork/join
+ * pool so a busy origin uses every core.  Only the Pareto front over total
+ * cost, total travel time and number of legs is returned, priced by a
+ * {@link FareEngine}, unless the best few by some {@link SortKey} are asked
+ * for instead.
+ * <p>
+ * The search walks leg positions and primitive columns only; FlightLegs are
+ * created just for the itineraries on the final front.
+ * <p>
+ * The pool is best given, so that searches share one pool the application
+ * shuts down.  Without one, every search made with the default constructor
+ * shares a single pool of daemon threads kept for the life of the JVM.
+ */
+public class ConnectionSearch {
+
+    private static final long ONE_MINUTE = 1000*60;
+
+    // Java 7 has no common pool, so this stands in for one
+    static final ForkJoinPool SHARED_POOL = new ForkJoinPool();
+
+    private final ForkJoinPool pool;
+    private int maxLegs = 2;
+    private long minConnectionTime = 45*ONE_MINUTE;
+    private long maxConnectionTime = 12*60*ONE_MINUTE;
+    private int sequentialThreshold = 4;
+    private FareEngine fareEngine = new FareEngine();
+
+    public ConnectionSearch() {
+        this(SHARED_POOL);
+    }
+
+    public ConnectionSearch(ForkJoinPool pool) {
+        Assert.notNull(pool, "Pool must not be null");
+        this.pool = pool;
+    }
+
+    public void setMaxLegs(int maxLegs) {
+        Assert.isTrue(maxLegs >= 1, "Itineraries must have at least one leg");
+        this.maxLegs = maxLegs;
+    }
+
+    /**
+     * @param minConnectionTime milliseconds needed to change planes
+     */
+    public void setMinConnectionTime(long minConnectionTime) {
+        Assert.isTrue(minConnectionTime >= 0,
+                "Minimum connection time must not be negative");
+        this.minConnectionTime = minConnectionTime;
+    }
+
+    /**
+     * @param maxConnectionTime the longest layover, in milliseconds, worth
+     * offering
+     */
+    public void setMaxConnectionTime(long maxConnectionTime) {
+        Assert.isTrue(maxConnectionTime > 0,
+                "Maximum connection time must be positive");
+        this.maxConnectionTime = maxConnectionTime;
+    }
+
+    /**
+     * @param sequentialThreshold how many first legs one task expands
+     * before it splits the rest off to other workers
+     */
+    public void setSequentialThreshold(int sequentialThreshold) {
+        Assert.isTrue(sequentialThreshold >= 1,
+                "Sequential threshold must be positive");
+        this.sequentialThreshold = sequentialThreshold;
+    }
+
+    public void setFareEngine(FareEngine fareEngine) {
+        Assert.notNull(fareEngine, "Fare engine must not be null");
+        this.fareEngine = fareEngine;
+    }
+
+    /**
+     * Finds the Pareto-optimal itineraries from one airport to another whose
+     * first leg departs in [from, to).
+     *
+     * @return the non-dominated itineraries, cheapest first
+     */
+    public List<Flight> search(LegIndex schedule, String departFrom,
+            String arriveAt, long from, long to) {
+        FlightCursor cursor = open(schedule, departFrom, arriveAt, from, to);
+        return cursor.fetch(0, cursor.size());
+    }
+
+    /**
+     * Runs the same search as {@link #search}, but leaves the itineraries
+     * found as leg positions until a page of them is fetched.
+     */
+    public FlightCursor open(LegIndex schedule, String departFrom,
+            String arriveAt, long from, long to) {
+        return open(schedule, departFrom, arriveAt, from, to,
+                FareEngine.NO_DEAL, SortKey.COST, 0);
+    }
+
+    /**
+     * Runs the search for a ranking of its own.  Without a limit the
+     * non-dominated itineraries are all kept and ranked by the sort key.
+     * With one, the best itineraries by the key are kept instead, dominated
+     * or not, in a bounded heap per task; once the tasks between them hold
+     * that many, partial itineraries that cannot beat the worst are
+     * abandoned, so the work done follows the limit rather than the number
+     * of itineraries there are.
+     *
+     * @param dealFare the lowest special deal fare on the route, in cents,
+     * or {@link FareEngine#NO_DEAL}
+     * @param limit how many itineraries to keep, or 0 for the whole front
+     */
+    public FlightCursor open(LegIndex schedule, String departFrom,
+            String arriveAt, long from, long to, long dealFare,
+            SortKey sortBy, int limit) {
+        Assert.notNull(sortBy, "Sort key must not be null");
+        int origin = schedule.airportId(departFrom);
+        int destination = schedule.airportId(arriveAt);
+        if (origin < 0 || destination < 0 || origin == destination) {
+            return new ListFlightCursor(Collections.<Flight>emptyList());
+        }
+        int first = schedule.firstDeparting(origin,
+                AbstractLegIndex.toMinuteCeiling(from));
+        int last = schedule.firstDeparting(origin,
+                AbstractLegIndex.toMinuteCeiling(to));
+        if (first == last) {
+            return new ListFlightCursor(Collections.<Flight>emptyList());
+        }
+        Query query = new Query(schedule, origin, destination, dealFare,
+                sortBy, limit);
+        return pool.invoke(new FirstLegTask(query, first, last))
+            .toCursor(schedule);
+    }
+
+    /**
+     * Finds the lowest price of any itinerary from one airport to another
+     * for each of a run of days, by the day its first leg departs.  Each
+     * day starts from its cheapest nonstop in the fare table, and the days
+     * share one pass over the first legs, each day's price bounding the
+     * itineraries expanded for it.
+     *
+     * @param firstDay the first day, in days since the epoch in UTC
+     * @param dealFares each day's lowest deal fare in cents, or
+     * {@link FareEngine#NO_DEAL}
+     * @return each day's lowest price in cents, or {@link LegIndex#NO_FARE}
+     */
+    public long[] findLowestPrices(DailyFareTable fares, String departFrom,
+            String arriveAt, long firstDay, final long[] dealFares) {
+        LegIndex schedule = fares.getSchedule();
+        final long[] lowest = new long[dealFares.length];
+        Arrays.fill(lowest, LegIndex.NO_FARE);
+        int origin = schedule.airportId(departFrom);
+        int destination = schedule.airportId(arriveAt);
+        if (origin < 0 || destination < 0 || origin == destination) {
+            return lowest;
+        }
+        final long[] known = new long[lowest.length];
+        for (int day = 0; day < known.length; day++) {
+            long fare = fares.lowestFare(origin, destination, firstDay + day);
+            known[day] = (fare == LegIndex.NO_FARE ? Long.MAX_VALUE
+                    : fareEngine.price(fare, 1, dealFares[day]));
+        }
+        long minute = firstDay * DailyFareTable.MINUTES_PER_DAY;
+        int first = schedule.firstDeparting(origin, minute);
+        int last = schedule.firstDeparting(origin,
+                minute + lowest.length * DailyFareTable.MINUTES_PER_DAY);
+        final long day0 = firstDay;
+        Query query = new Query(schedule, origin, destination,
+                FareEngine.NO_DEAL, SortKey.COST, 0) {
+            @Override
+            ItinerarySet newSet() {
+                return new DailyLowest(fareEngine, day0, dealFares, known);
+            }
+        };
+        long[] found = (first == last ? known : ((DailyLowest) pool.invoke(
+                new FirstLegTask(query, first, last))).lowestPrices());
+        for (int day = 0; day < found.length; day++) {
+            if (found[day] != Long.MAX_VALUE) {
+                lowest[day] = found[day];
+            }
+        }
+        return lowest;
+    }
+
+    /**
+     * What one search is for, shared by all its tasks.
+     */
+    private class Query {
+
+        private final LegIndex schedule;
+        private final int origin;
+        private final int destination;
+        private final long dealFare;
+        private final SortKey sortBy;
+        private final int limit;
+        private final AtomicLong bound = new AtomicLong(Long.MAX_VALUE);
+
+        Query(LegIndex schedule, int origin, int destination, long dealFare,
+                SortKey sortBy, int limit) {
+            this.schedule = schedule;
+            this.origin = origin;
+            this.destination = destination;
+            this.dealFare = dealFare;
+            this.sortBy = sortBy;
+            this.limit = limit;
+        }
+
+        ItinerarySet newSet() {
+            if (limit > 0) {
+                return new TopItineraries(sortBy, limit, bound);
+            }
+            return new ParetoFront(sortBy);
+        }
+
+        /**
+         * @return true if first legs from this one on depart too late to
+         * be ranked
+         */
+        boolean departsTooLate(int firstLeg) {
+            return limit > 0 && sortBy == SortKey.DEPARTURE
+                && schedule.departureOf(firstLeg) > bound.get();
+        }
+    }
+
+    private class FirstLegTask extends RecursiveTask<ItinerarySet> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Query query;
+        private final LegIndex schedule;
+        private final int destination;
+        private final int lo;
+        private final int hi;
+
+        FirstLegTask(Query query, int lo, int hi) {
+            this.query = query;
+            this.schedule = query.schedule;
+            this.destination = query.destination;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected ItinerarySet compute() {
+            if (query.departsTooLate(lo)) {
+                return query.newSet();
+            }
+            if (hi - lo <= sequentialThreshold) {
+                ItinerarySet found = query.newSet();
+                int[] path = new int[maxLegs];
+                int[] stops = new int[maxLegs];
+                stops[0] = query.origin;
+                for (int leg = lo; leg < hi; leg++) {
+                    if (query.departsTooLate(leg)) {
+                        break;
+                    }
+                    path[0] = leg;
+                    extend(found, path, stops, 1,
+                            FareEngine.fareOf(schedule, leg));
+                }
+                return found;
+            }
+            // the later half is forked, so a search for the earliest
+            // departures fills its heap from the earliest first legs
+            int mid = (lo + hi) >>> 1;
+            FirstLegTask right = new FirstLegTask(query, mid, hi);
+            right.fork();
+            ItinerarySet found = new FirstLegTask(query, lo, mid).compute();
+            for (Candidate candidate : right.join().candidates()) {
+                found.add(candidate);
+            }
+            return found;
+        }
+
+        private void extend(ItinerarySet found, int[] path, int[] stops,
+                int depth, long fare) {
+            int last = path[depth-1];
+            long departure = schedule.departureOf(path[0]);
+            long arrival = schedule.arrivalOf(last);
+            long travelTime = arrival - departure;
+            long price = fareEngine.price(fare, depth, query.dealFare);
+            if (found.covers(fare, price, travelTime, depth, departure)) {
+                return;
+            }
+            int at = schedule.destinationOf(last);
+            if (at == destination) {
+                int[] legs = new int[depth];
+                System.arraycopy(path, 0, legs, 0, depth);
+                found.add(new Candidate(legs, fare, price, travelTime,
+                        departure));
+                return;
+            }
+            // going on means a connection and at least one more leg
+            if (depth == maxLegs || found.covers(fare,
+                    fareEngine.price(fare, depth + 1, query.dealFare),
+                    travelTime + minConnectionTime / ONE_MINUTE, depth + 1,
+                    departure)) {
+                return;
+            }
+            stops[depth] = at;
+            boolean finalLeg = (depth == maxLegs - 1);
+            long latest = arrival + maxConnectionTime / ONE_MINUTE;
+            int end = schedule.endOf(at);
+            for (int next = schedule.firstDeparting(at,
+                    arrival + minConnectionTime / ONE_MINUTE);
+                    next < end && schedule.departureOf(next) <= latest;
+                    next++) {
+                int to = schedule.destinationOf(next);
+                // the final leg has to land at the destination
+                if ((finalLeg && to != destination)
+                        || visits(stops, depth, to)) {
+                    continue;
+                }
+                path[depth] = next;
+                extend(found, path, stops, depth + 1,
+                        fare + FareEngine.fareOf(schedule, next));
+            }
+        }
+
+        private boolean visits(int[] stops, int depth, int airport) {
+            for (int i = 0; i <= depth; i++) {
+                if (stops[i] == airport) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+}
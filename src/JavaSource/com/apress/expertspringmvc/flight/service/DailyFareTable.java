@@ -0,0 +1,234 @@
+package JavaSource.com.apress.expertspringmvc.flight.service;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.springframework.util.Assert;
+
+/**
+ * The lowest nonstop fare on every route for every day, computed once from
+ * a {@link LegIndex} so a fare calendar reads a day's fare instead of
+ * scanning for it.  Days are counted from the epoch in UTC, and fares are
+ * in cents, {@link LegIndex#NO_FARE} for a day with no nonstop.  A leg with
+ * no published fare counts as free, as {@link FareEngine#fareOf} has it.
+ * <p>
+ * An origin's fares are computed the first time they are read, from one
+ * scan of the legs leaving it, so a table costs nothing up front however
+ * large its schedule, and only origins actually searched are ever scanned.
+ * Two threads reading a new origin at once may both scan it; either result
+ * is kept.  When some of a schedule's legs change, {@link #refresh}
+ * derives a new table that recomputes just the days of the one origin
+ * affected and shares every other origin's fares with this one.
+ */
+public class DailyFareTable {
+
+    static final long MINUTES_PER_DAY = 60*24;
+
+    private final LegIndex schedule;
+    // null until an origin is first read
+    private final AtomicReferenceArray<Origin> origins;
+
+    private DailyFareTable(LegIndex schedule,
+            AtomicReferenceArray<Origin> origins) {
+        this.schedule = schedule;
+        this.origins = origins;
+    }
+
+    /**
+     * Scans nothing yet; see the class comment.
+     */
+    public static DailyFareTable build(LegIndex schedule) {
+        Assert.notNull(schedule, "Schedule must not be null");
+        return new DailyFareTable(schedule,
+                new AtomicReferenceArray<Origin>(schedule.airportCount()));
+    }
+
+    /**
+     * Derives the table for a schedule that differs from this one's only
+     * in legs leaving one origin on the given days.  The schedule must
+     * number airports as the one this table was built from did.
+     *
+     * @param firstDay the first day changed, in days since the epoch
+     * @param lastDay the last day changed, inclusive
+     */
+    public DailyFareTable refresh(LegIndex schedule, int origin,
+            long firstDay, long lastDay) {
+        Assert.isTrue(origin >= 0 && origin < schedule.airportCount(),
+                "Unknown origin " + origin);
+        Assert.isTrue(firstDay <= lastDay, "No days to refresh");
+        AtomicReferenceArray<Origin> refreshed =
+            new AtomicReferenceArray<Origin>(Math.max(origins.length(),
+                    schedule.airportCount()));
+        for (int i = 0; i < origins.length(); i++) {
+            refreshed.set(i, origins.get(i));
+        }
+        // an origin never read is left to be scanned from the new schedule
+        Origin changed = refreshed.get(origin);
+        if (changed != null) {
+            refreshed.set(origin, changed.refresh(schedule, origin,
+                    firstDay, lastDay));
+        }
+        return new DailyFareTable(schedule, refreshed);
+    }
+
+    /**
+     * @return the schedule the fares were read from
+     */
+    public LegIndex getSchedule() {
+        return schedule;
+    }
+
+    /**
+     * @param day in days since the epoch
+     * @return the lowest nonstop fare in cents, or
+     * {@link LegIndex#NO_FARE} if no nonstop flies that day
+     */
+    public long lowestFare(int origin, int destination, long day) {
+        if (origin < 0 || origin >= origins.length()) {
+            return LegIndex.NO_FARE;
+        }
+        Route route = originAt(origin).routes.get(destination);
+        return (route == null ? LegIndex.NO_FARE : route.fareOn(day));
+    }
+
+    private Origin originAt(int origin) {
+        Origin fares = origins.get(origin);
+        if (fares == null) {
+            fares = Origin.EMPTY.refresh(schedule, origin, 0, Long.MAX_VALUE);
+            if (!origins.compareAndSet(origin, null, fares)) {
+                fares = origins.get(origin);
+            }
+        }
+        return fares;
+    }
+
+    static long dayOf(long minute) {
+        return minute / MINUTES_PER_DAY;
+    }
+
+    /**
+     * The fares of the routes leaving one airport.
+     */
+    private static class Origin {
+
+        static final Origin EMPTY =
+            new Origin(new HashMap<Integer, Route>());
+
+        private final Map<Integer, Route> routes;
+
+        Origin(Map<Integer, Route> routes) {
+            this.routes = routes;
+        }
+
+        /**
+         * Copies the routes with the given days cleared, then fills those
+         * days in again from the origin's legs leaving on them.  The legs
+         * are read twice, first for the days each destination is flown on,
+         * so every route's fares are allocated once at their final size.
+         */
+        Origin refresh(LegIndex schedule, int origin, long firstDay,
+                long lastDay) {
+            int start = schedule.firstDeparting(origin,
+                    firstDay * MINUTES_PER_DAY);
+            int end = schedule.endOf(origin);
+            // first and last day flown, per destination; legs are in order
+            // of departure, so the first leg seen has the first day
+            Map<Integer, long[]> flown = new HashMap<Integer, long[]>();
+            int stop = start;
+            for (; stop < end; stop++) {
+                long day = dayOf(schedule.departureOf(stop));
+                if (day > lastDay) {
+                    break;
+                }
+                Integer destination = schedule.destinationOf(stop);
+                long[] days = flown.get(destination);
+                if (days == null) {
+                    flown.put(destination, new long[] { day, day });
+                } else {
+                    days[1] = day;
+                }
+            }
+
+            Map<Integer, Route> copy = new HashMap<Integer, Route>(routes);
+            for (Map.Entry<Integer, Route> route : copy.entrySet()) {
+                route.setValue(route.getValue().cleared(firstDay, lastDay,
+                        flown.get(route.getKey())));
+            }
+            for (Map.Entry<Integer, long[]> days : flown.entrySet()) {
+                if (!copy.containsKey(days.getKey())) {
+                    long[] range = days.getValue();
+                    copy.put(days.getKey(), new Route(range[0],
+                            (int) (range[1] - range[0] + 1)));
+                }
+            }
+            for (int leg = start; leg < stop; leg++) {
+                copy.get(schedule.destinationOf(leg)).lower(
+                        dayOf(schedule.departureOf(leg)),
+                        FareEngine.fareOf(schedule, leg));
+            }
+            return new Origin(copy);
+        }
+    }
+
+    /**
+     * The lowest fare on one route for a run of days.  Only mutated while
+     * the Origin that owns it is being built.
+     */
+    private static class Route {
+
+        private final long firstDay;
+        private final long[] fares;
+
+        Route(long firstDay, int days) {
+            this.firstDay = firstDay;
+            this.fares = new long[days];
+            Arrays.fill(fares, LegIndex.NO_FARE);
+        }
+
+        boolean covers(long day) {
+            return day >= firstDay && day < firstDay + fares.length;
+        }
+
+        long fareOn(long day) {
+            return (covers(day) ? fares[(int) (day - firstDay)]
+                    : LegIndex.NO_FARE);
+        }
+
+        /**
+         * @param flown the first and last day to cover as well, or null
+         * @return this route with the days [from, to] cleared, widened to
+         * cover the flown days; this route itself if that changes nothing
+         */
+        Route cleared(long from, long to, long[] flown) {
+            long lastDay = firstDay + fares.length - 1;
+            if (flown == null && (to < firstDay || from > lastDay)) {
+                return this;
+            }
+            long first = firstDay;
+            long last = lastDay;
+            if (flown != null) {
+                first = Math.min(first, flown[0]);
+                last = Math.max(last, flown[1]);
+            }
+            Route cleared = new Route(first, (int) (last - first + 1));
+            System.arraycopy(fares, 0, cleared.fares,
+                    (int) (firstDay - first), fares.length);
+            long lo = Math.max(from, firstDay);
+            long hi = Math.min(to, lastDay);
+            for (long day = lo; day <= hi; day++) {
+                cleared.fares[(int) (day - first)] = LegIndex.NO_FARE;
+            }
+            return cleared;
+        }
+
+        void lower(long day, long fare) {
+            int i = (int) (day - firstDay);
+            if (fares[i] == LegIndex.NO_FARE || fare < fares[i]) {
+                fares[i] = fare;
+            }
+        }
+    }
+
+}
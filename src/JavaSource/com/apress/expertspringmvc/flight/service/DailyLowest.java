@@ -0,0 +1,90 @@
+package JavaSource.com.apress.expertspringmvc.flight.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The cheapest itinerary found so far for each of a run of days, by the
+ * day its first leg departs.  Each day is priced with that day's deal, and
+ * starts out at a price already known for it, such as the day's lowest
+ * nonstop fare, so anything no cheaper is never expanded.  Not thread safe;
+ * each search task fills its own and the results are merged.
+ */
+class DailyLowest implements ItinerarySet {
+
+    private final FareEngine fareEngine;
+    private final long firstDay;
+    private final long[] dealFares;
+    private final long[] lowest;
+    private final Candidate[] cheapest;
+
+    /**
+     * @param firstDay the first day, in days since the epoch
+     * @param dealFares each day's lowest deal fare, or
+     * {@link FareEngine#NO_DEAL}
+     * @param known each day's price known beforehand, or Long.MAX_VALUE
+     */
+    DailyLowest(FareEngine fareEngine, long firstDay, long[] dealFares,
+            long[] known) {
+        this.fareEngine = fareEngine;
+        this.firstDay = firstDay;
+        this.dealFares = dealFares;
+        this.lowest = known.clone();
+        this.cheapest = new Candidate[known.length];
+    }
+
+    public boolean covers(long fare, long price, long travelTime,
+            int numberOfLegs, long departure) {
+        int day = dayOf(departure);
+        if (day < 0) {
+            return true;
+        }
+        return fareEngine.price(fare, numberOfLegs, dealFares[day])
+            >= lowest[day];
+    }
+
+    public void add(Candidate candidate) {
+        int day = dayOf(candidate.departure);
+        long price = fareEngine.price(candidate.fare, candidate.legs.length,
+                dealFares[day]);
+        if (price < lowest[day]) {
+            lowest[day] = price;
+            cheapest[day] = new Candidate(candidate.legs, candidate.fare,
+                    price, candidate.travelTime, candidate.departure);
+        }
+    }
+
+    public Collection<Candidate> candidates() {
+        List<Candidate> found = new ArrayList<Candidate>();
+        for (Candidate candidate : cheapest) {
+            if (candidate != null) {
+                found.add(candidate);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return the cheapest itinerary found for each day, by departure
+     */
+    public FlightCursor toCursor(LegIndex index) {
+        Collection<Candidate> found = candidates();
+        return Candidate.cursorOver(found.toArray(
+                new Candidate[found.size()]), index);
+    }
+
+    /**
+     * @return each day's lowest price in cents, Long.MAX_VALUE for a day
+     * with nothing
+     */
+    long[] lowestPrices() {
+        return lowest.clone();
+    }
+
+    private int dayOf(long departure) {
+        long day = DailyFareTable.dayOf(departure) - firstDay;
+        return (day < 0 || day >= lowest.length ? -1 : (int) day);
+    }
+
+}
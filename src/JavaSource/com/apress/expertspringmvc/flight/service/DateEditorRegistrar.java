@@ -0,0 +1,32 @@
+package JavaSource.com.apress.expertspringmvc.flight.service;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import org.springframework.beans.PropertyEditorRegistrar;
+import org.springframework.beans.PropertyEditorRegistry;
+import org.springframework.beans.propertyeditors.CustomDateEditor;
+import org.springframework.util.Assert;
+
+/**
+ * Lets bean definitions give dates as text, such as the first and last days
+ * of the configured special deals.  Dates are read in the default time zone
+ * with the given pattern, <code>yyyy-MM-dd</code> unless set.
+ */
+public class DateEditorRegistrar implements PropertyEditorRegistrar {
+
+    private String pattern = "yyyy-MM-dd";
+
+    public void setPattern(String pattern) {
+        Assert.hasText(pattern, "Pattern must not be empty");
+        this.pattern = pattern;
+    }
+
+    public void registerCustomEditors(PropertyEditorRegistry registry) {
+        SimpleDateFormat format = new SimpleDateFormat(pattern);
+        format.setLenient(false);
+        registry.registerCustomEditor(Date.class,
+                new CustomDateEditor(format, false));
+    }
+
+}
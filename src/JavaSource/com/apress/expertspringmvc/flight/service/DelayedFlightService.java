@@ -0,0 +1,102 @@
+package JavaSource.com.apress.expertspringmvc.flight.service;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.util.Assert;
+
+import JavaSource.com.apress.expertspringmvc.flight.domain.FareCalendar;
+import JavaSource.com.apress.expertspringmvc.flight.domain.Flight;
+import JavaSource.com.apress.expertspringmvc.flight.domain.FlightSearchCriteria;
+import JavaSource.com.apress.expertspringmvc.flight.domain.SpecialDeal;
+
+/**
+ * A FlightService decorator that behaves like a remote provider: every
+ * call is delayed by a latency drawn from a log-normal distribution, and
+ * may fail outright.  For trying out a {@link FederatedFlightService}
+ * against slow or flaky partners without having any.
+ */
+public class DelayedFlightService implements FlightService {
+
+    private final FlightService delegate;
+    private long medianLatency = 50;
+    private double spread = 0.5;
+    private double failureRate;
+
+    public DelayedFlightService(FlightService delegate) {
+        Assert.notNull(delegate, "Delegate must not be null");
+        this.delegate = delegate;
+    }
+
+    /**
+     * @param medianLatency milliseconds half of all calls take at most
+     */
+    public void setMedianLatency(long medianLatency) {
+        Assert.isTrue(medianLatency >= 0, "Latency must not be negative");
+        this.medianLatency = medianLatency;
+    }
+
+    /**
+     * @param spread the standard deviation of the latency's logarithm; at
+     * 0.5 about one call in twelve takes over twice the median, at 1 about
+     * one in twenty over five times
+     */
+    public void setSpread(double spread) {
+        Assert.isTrue(spread >= 0, "Spread must not be negative");
+        this.spread = spread;
+    }
+
+    /**
+     * @param failureRate the fraction of calls, from 0 to 1, that fail
+     * after their delay
+     */
+    public void setFailureRate(double failureRate) {
+        Assert.isTrue(failureRate >= 0 && failureRate <= 1,
+                "Failure rate must be between 0 and 1");
+        this.failureRate = failureRate;
+    }
+
+    public List<SpecialDeal> getSpecialDeals() {
+        delay();
+        return delegate.getSpecialDeals();
+    }
+
+    public List<SpecialDeal> findSpecialDeals(FlightSearchCriteria search) {
+        delay();
+        return delegate.findSpecialDeals(search);
+    }
+
+    public List<Flight> findFlights(FlightSearchCriteria search) {
+        delay();
+        return delegate.findFlights(search);
+    }
+
+    public FlightCursor openSearch(FlightSearchCriteria search) {
+        delay();
+        return delegate.openSearch(search);
+    }
+
+    public FareCalendar findFareCalendar(FlightSearchCriteria search) {
+        delay();
+        return delegate.findFareCalendar(search);
+    }
+
+    private void delay() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long latency = Math.round(medianLatency
+                * Math.exp(spread * random.nextGaussian()));
+        try {
+            Thread.sleep(latency);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DataAccessResourceFailureException(
+                    "Interrupted while delayed", e);
+        }
+        if (random.nextDouble() < failureRate) {
+            throw new DataAccessResourceFailureException(
+                    "Simulated provider failure");
+        }
+    }
+
+}
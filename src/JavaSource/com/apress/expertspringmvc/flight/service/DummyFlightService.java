@@ -5,29 +5,61 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
+import org.springframework.util.Assert;
+
 import JavaSource.com.apress.expertspringmvc.flight.domain.Airport;
+import JavaSource.com.apress.expertspringmvc.flight.domain.FareCalendar;
 import JavaSource.com.apress.expertspringmvc.flight.domain.Flight;
 import JavaSource.com.apress.expertspringmvc.flight.domain.FlightLeg;
 import JavaSource.com.apress.expertspringmvc.flight.domain.FlightSearchCriteria;
+import JavaSource.com.apress.expertspringmvc.flight.domain.Money;
 import JavaSource.com.apress.expertspringmvc.flight.domain.SpecialDeal;
 
 public class DummyFlightService implements FlightService {
     
     private static final long TWO_HOURS = 1000*60*60*2;
+    private static final long ONE_DAY = 1000*60*60*24;
+    private static final int MAX_FLEXIBLE_DAYS = 7;
+    private static final BigDecimal FARE = new BigDecimal(500);
 
-    public List<SpecialDeal> getSpecialDeals() {
+    private final AirportRegistry airports = new AirportRegistry();
+    private final SpecialDealIndex specialDeals;
+    private FareEngine fareEngine = new FareEngine();
+
+    public DummyFlightService() {
         // in reality, pull from a database via a DAO
         List<SpecialDeal> specials = new ArrayList<SpecialDeal>();
-        specials.add(new SpecialDeal(new Airport("Baltimore", "BWI"),
-                new Airport("New York City", "LGA"), new BigDecimal(250),
+        specials.add(new SpecialDeal(airports.intern("Baltimore", "BWI"),
+                airports.intern("New York City", "LGA"), new BigDecimal(250),
                 new Date(), new Date()));
-        specials.add(new SpecialDeal(new Airport("Honolulu", "HNL"),
-                new Airport("Orlando", "MCO"), new BigDecimal(500),
+        specials.add(new SpecialDeal(airports.intern("Honolulu", "HNL"),
+                airports.intern("Orlando", "MCO"), new BigDecimal(500),
                 new Date(), new Date()));
-        specials.add(new SpecialDeal(new Airport("Tokyo", "NRT"),
-                new Airport("San Francisco", "SFO"), new BigDecimal(700),
+        specials.add(new SpecialDeal(airports.intern("Tokyo", "NRT"),
+                airports.intern("San Francisco", "SFO"), new BigDecimal(700),
                 new Date(), new Date()));
-        return specials;
+        specialDeals = new SpecialDealIndex(specials, airports);
+    }
+
+    public void setFareEngine(FareEngine fareEngine) {
+        Assert.notNull(fareEngine, "Fare engine must not be null");
+        this.fareEngine = fareEngine;
+    }
+
+    public List<SpecialDeal> getSpecialDeals() {
+        return specialDeals.getDeals();
+    }
+
+    public List<SpecialDeal> findSpecialDeals(FlightSearchCriteria search) {
+        if (search.getDepartOn() == null) {
+            return new ArrayList<SpecialDeal>();
+        }
+        return specialDeals.findValidOn(search.getDepartFrom(),
+                search.getArriveAt(), search.getDepartOn().getTime());
+    }
+
+    public FlightCursor openSearch(FlightSearchCriteria search) {
+        return new ListFlightCursor(findFlights(search));
     }
 
     public List<Flight> findFlights(FlightSearchCriteria search) {
@@ -39,11 +71,49 @@ public class DummyFlightService implements FlightService {
                 new Airport(search.getDepartFrom(), "ABC"),
                 search.getDepartOn(),
                 new Airport(search.getArriveAt(), "XYZ"),
-                new Date(search.getDepartOn().getTime()+TWO_HOURS)));
+                new Date(search.getDepartOn().getTime()+TWO_HOURS),
+                FARE));
         
-        flights.add(new Flight(legs, new BigDecimal(500)));
+        flights.add(new Flight(legs,
+                fareEngine.price(legs, findSpecialDeals(search))));
         
         return flights;
     }
 
+    /**
+     * Prices the one flight there is each day with that day's deals.
+     */
+    public FareCalendar findFareCalendar(FlightSearchCriteria search) {
+        if (search.getDepartOn() == null) {
+            return new FareCalendar(0, new Money[0]);
+        }
+        int flexibleDays = Math.max(0,
+                Math.min(search.getFlexibleDays(), MAX_FLEXIBLE_DAYS));
+        long departOn = search.getDepartOn().getTime();
+        Money[] departPrices = dailyPrices(search.getDepartFrom(),
+                search.getArriveAt(), departOn, flexibleDays);
+        if (search.getReturnOn() == null) {
+            return new FareCalendar(departOn / ONE_DAY - flexibleDays,
+                    departPrices);
+        }
+        long returnOn = search.getReturnOn().getTime();
+        return new FareCalendar(departOn / ONE_DAY - flexibleDays,
+                departPrices, returnOn / ONE_DAY - flexibleDays,
+                dailyPrices(search.getArriveAt(), search.getDepartFrom(),
+                        returnOn, flexibleDays));
+    }
+
+    private Money[] dailyPrices(String departFrom, String arriveAt,
+            long around, int flexibleDays) {
+        long fare = Money.valueOf(FARE).getCents();
+        Money[] prices = new Money[2*flexibleDays + 1];
+        for (int day = 0; day < prices.length; day++) {
+            long time = around + (day - flexibleDays) * ONE_DAY;
+            prices[day] = Money.ofCents(fareEngine.price(fare, 1,
+                    FareEngine.dealFare(specialDeals.findValidOn(
+                            departFrom, arriveAt, time))));
+        }
+        return prices;
+    }
+
 }
@@ -0,0 +1,24 @@
+package JavaSource.com.apress.expertspringmvc.flight.service;
+
+import JavaSource.com.apress.expertspringmvc.flight.domain.Account;
+
+/**
+ * Thrown when an account would take a username that another account
+ * already has.
+ */
+public class DuplicateUsernameException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private Account account;
+
+    public DuplicateUsernameException(Account account) {
+        super("Username " + account.getUsername() + " is already taken");
+        this.account = account;
+    }
+
+    public Account getAccount() {
+        return account;
+    }
+
+}
@@ -0,0 +1,117 @@
+package JavaSource.com.apress.expertspringmvc.flight.service;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import org.springframework.util.Assert;
+
+import JavaSource.com.apress.expertspringmvc.flight.domain.FlightLeg;
+import JavaSource.com.apress.expertspringmvc.flight.domain.Money;
+import JavaSource.com.apress.expertspringmvc.flight.domain.SpecialDeal;
+
+/**
+ * Prices itineraries from their legs' fares.  Each leg contributes its
+ * published fare plus a carrier surcharge; a special deal on the route, if
+ * lower, replaces that fare outright.  A tax is then levied on the fare as
+ * a percentage, and a flat fee is added per leg flown.
+ * <p>
+ * Prices are whole cents in longs throughout, so pricing allocates nothing
+ * and a search can price every itinerary it finds before ranking them.
+ * Legs with no published fare count as free, as they are sold only as part
+ * of the itinerary.  Thread safe once configured.
+ */
+public class FareEngine {
+
+    /**
+     * Stands for "no deal applies" wherever a deal fare in cents is taken.
+     */
+    public static final long NO_DEAL = Long.MAX_VALUE;
+
+    private long surcharge;
+    private int taxRate;
+    private long segmentFee;
+
+    /**
+     * @param surcharge cents the carrier adds to each leg's fare
+     */
+    public void setSurcharge(long surcharge) {
+        Assert.isTrue(surcharge >= 0, "Surcharge must not be negative");
+        this.surcharge = surcharge;
+    }
+
+    /**
+     * @param taxRate the tax on the fare, in hundredths of a percent, so
+     * 750 is 7.5%
+     */
+    public void setTaxRate(int taxRate) {
+        Assert.isTrue(taxRate >= 0, "Tax rate must not be negative");
+        this.taxRate = taxRate;
+    }
+
+    /**
+     * @param segmentFee cents due for each leg flown, untaxed
+     */
+    public void setSegmentFee(long segmentFee) {
+        Assert.isTrue(segmentFee >= 0, "Segment fee must not be negative");
+        this.segmentFee = segmentFee;
+    }
+
+    /**
+     * @param baseFare the sum of the legs' published fares, in cents
+     * @param numberOfLegs how many legs the itinerary flies
+     * @param dealFare the lowest deal fare on the route, in cents, or
+     * {@link #NO_DEAL}
+     * @return the itinerary's price, in cents
+     */
+    public long price(long baseFare, int numberOfLegs, long dealFare) {
+        long fare = Money.add(baseFare, surcharge * numberOfLegs);
+        if (dealFare < fare) {
+            fare = dealFare;
+        }
+        return Money.add(Money.add(fare, Money.percentOf(fare, taxRate)),
+                segmentFee * numberOfLegs);
+    }
+
+    /**
+     * Prices an itinerary of FlightLegs, for services that do not keep a
+     * {@link LegIndex}.
+     *
+     * @param deals the deals valid on the itinerary's route and date
+     */
+    public Money price(List<FlightLeg> legs, List<SpecialDeal> deals) {
+        long fare = 0;
+        for (FlightLeg leg : legs) {
+            BigDecimal legFare = leg.getFare();
+            if (legFare != null) {
+                fare = Money.add(fare, Money.valueOf(legFare).getCents());
+            }
+        }
+        return Money.ofCents(price(fare, legs.size(), dealFare(deals)));
+    }
+
+    /**
+     * @return the published fare of the leg at a position, in cents, or 0
+     * for a leg with no published fare, which is priced as free wherever
+     * legs are priced
+     */
+    static long fareOf(LegIndex schedule, int leg) {
+        long fare = schedule.fareOf(leg);
+        return (fare == LegIndex.NO_FARE ? 0 : fare);
+    }
+
+    /**
+     * @return the lowest of the deals' prices in cents, or {@link #NO_DEAL}
+     * if there are none
+     */
+    public static long dealFare(List<SpecialDeal> deals) {
+        long lowest = NO_DEAL;
+        for (int i = 0, n = deals.size(); i < n; i++) {
+            long cents = deals.get(i).getPrice().getCents();
+            if (cents < lowest) {
+                lowest = cents;
+            }
+        }
+        return lowest;
+    }
+
+}
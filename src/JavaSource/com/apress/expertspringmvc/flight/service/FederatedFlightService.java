@@ -0,0 +1,414 @@
+package JavaSource.com.apress.expertspringmvc.flight.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.util.Assert;
+
+import JavaSource.com.apress.expertspringmvc.flight.domain.FareCalendar;
+import JavaSource.com.apress.expertspringmvc.flight.domain.Flight;
+import JavaSource.com.apress.expertspringmvc.flight.domain.FlightLeg;
+import JavaSource.com.apress.expertspringmvc.flight.domain.FlightSearchCriteria;
+import JavaSource.com.apress.expertspringmvc.flight.domain.SortKey;
+import JavaSource.com.apress.expertspringmvc.flight.domain.SpecialDeal;
+
+/**
+ * A FlightService answering from several providers at once.  Every call is
+ * sent to all providers in parallel, and answers are merged as they arrive:
+ * the same itinerary from two providers is kept once, at the lower price,
+ * and the merged flights are ranked as the search asks.  A search with a
+ * limit gets that many from each provider, which is enough to rank the
+ * best of them all.
+ * <p>
+ * Each provider has its own deadline, past which its answer is no longer
+ * waited for, and may be hedged: asked a second time if it has not answered
+ * after a delay, whichever request answers first winning.  A failed request
+ * is retried once the same way.  Once enough providers have answered, see
+ * {@link #setSufficientProviders(int)}, the rest are abandoned, so a call
+ * takes as long as the fastest sufficient providers rather than the
+ * slowest.  Providers that fail or miss their deadline are logged and
+ * skipped; only when none answers does the call fail.
+ */
+public class FederatedFlightService implements FlightService, DisposableBean {
+
+    private static final Log logger =
+        LogFactory.getLog(FederatedFlightService.class);
+
+    private final List<FlightProvider> providers;
+    private final ExecutorService executor;
+    private int sufficientProviders;
+
+    public FederatedFlightService(List<FlightProvider> providers) {
+        this(providers, 32);
+    }
+
+    /**
+     * @param threads how many provider requests may be outstanding at once,
+     * across all calls
+     */
+    public FederatedFlightService(List<FlightProvider> providers,
+            int threads) {
+        Assert.notEmpty(providers, "Need at least one provider");
+        Assert.isTrue(threads > 0, "Need at least one thread");
+        this.providers = new ArrayList<FlightProvider>(providers);
+        this.sufficientProviders = providers.size();
+        this.executor = Executors.newFixedThreadPool(threads,
+                new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    public Thread newThread(Runnable task) {
+                        Thread thread = new Thread(task,
+                                "flight-provider-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    /**
+     * @param sufficientProviders how many providers must answer before a
+     * call returns without waiting for the rest; all of them by default
+     */
+    public void setSufficientProviders(int sufficientProviders) {
+        Assert.isTrue(sufficientProviders > 0
+                && sufficientProviders <= providers.size(),
+                "Sufficient providers must be between 1 and "
+                + providers.size());
+        this.sufficientProviders = sufficientProviders;
+    }
+
+    public List<SpecialDeal> getSpecialDeals() {
+        final List<SpecialDeal> deals = new ArrayList<SpecialDeal>();
+        fanOut("special deals", new Call<List<SpecialDeal>>() {
+            public List<SpecialDeal> call(FlightService provider) {
+                return provider.getSpecialDeals();
+            }
+
+            public boolean merge(List<SpecialDeal> answer) {
+                deals.addAll(answer);
+                return true;
+            }
+        });
+        return deals;
+    }
+
+    public List<SpecialDeal> findSpecialDeals(final FlightSearchCriteria search) {
+        final List<SpecialDeal> deals = new ArrayList<SpecialDeal>();
+        fanOut("special deals", new Call<List<SpecialDeal>>() {
+            public List<SpecialDeal> call(FlightService provider) {
+                return provider.findSpecialDeals(search);
+            }
+
+            public boolean merge(List<SpecialDeal> answer) {
+                deals.addAll(answer);
+                return true;
+            }
+        });
+        return deals;
+    }
+
+    public List<Flight> findFlights(final FlightSearchCriteria search) {
+        final Map<Itinerary, Flight> merged =
+            new LinkedHashMap<Itinerary, Flight>();
+        fanOut("flights", new Call<List<Flight>>() {
+            public List<Flight> call(FlightService provider) {
+                return provider.findFlights(search);
+            }
+
+            public boolean merge(List<Flight> answer) {
+                for (Flight flight : answer) {
+                    Itinerary key = new Itinerary(flight);
+                    Flight known = merged.get(key);
+                    if (known == null
+                            || SortKey.COST.compare(flight, known) < 0) {
+                        merged.put(key, flight);
+                    }
+                }
+                return true;
+            }
+        });
+        List<Flight> flights = new ArrayList<Flight>(merged.values());
+        Collections.sort(flights, search.getSortBy());
+        if (search.getLimit() > 0 && flights.size() > search.getLimit()) {
+            return new ArrayList<Flight>(flights.subList(0, search.getLimit()));
+        }
+        return flights;
+    }
+
+    /**
+     * Providers are searched in full, so the cursor holds the merged list.
+     */
+    public FlightCursor openSearch(FlightSearchCriteria search) {
+        return new ListFlightCursor(findFlights(search));
+    }
+
+    /**
+     * Keeps the lowest price any provider has for each day.  Providers may
+     * cover different days, each capping the flexible days on its own;
+     * a calendar with no days gives way to one with some, and any other
+     * that does not line up with the first is skipped like a failed answer.
+     */
+    public FareCalendar findFareCalendar(final FlightSearchCriteria search) {
+        final List<FareCalendar> merged = new ArrayList<FareCalendar>(1);
+        fanOut("fare calendar", new Call<FareCalendar>() {
+            public FareCalendar call(FlightService provider) {
+                return provider.findFareCalendar(search);
+            }
+
+            public boolean merge(FareCalendar answer) {
+                if (merged.isEmpty() || merged.get(0).getDepartDays() == 0) {
+                    merged.clear();
+                    merged.add(answer);
+                } else if (answer.getDepartDays() == 0) {
+                    // nothing to add
+                } else if (merged.get(0).coversSameDays(answer)) {
+                    merged.set(0, merged.get(0).cheapest(answer));
+                } else {
+                    return false;
+                }
+                return true;
+            }
+        });
+        return merged.get(0);
+    }
+
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Sends a call to every provider and merges answers on the calling
+     * thread as they arrive, hedging and retrying slow or failed providers
+     * and giving up on each at its deadline.
+     */
+    private <T> void fanOut(String what, final Call<T> call) {
+        CompletionService<Answer<T>> answers =
+            new ExecutorCompletionService<Answer<T>>(executor);
+        int count = providers.size();
+        long start = System.nanoTime();
+        long[] deadlineAt = new long[count];
+        long[] hedgeAt = new long[count];
+        int[] outstanding = new int[count];
+        boolean[] hedged = new boolean[count];
+        boolean[] settled = new boolean[count];
+        List<List<Future<Answer<T>>>> requests =
+            new ArrayList<List<Future<Answer<T>>>>(count);
+        for (int i = 0; i < count; i++) {
+            FlightProvider provider = providers.get(i);
+            deadlineAt[i] = start
+                + TimeUnit.MILLISECONDS.toNanos(provider.getDeadline());
+            hedgeAt[i] = (provider.getHedgeDelay() == 0 ? Long.MAX_VALUE
+                : start + TimeUnit.MILLISECONDS.toNanos(
+                        provider.getHedgeDelay()));
+            requests.add(new ArrayList<Future<Answer<T>>>(2));
+            send(answers, call, i, requests.get(i));
+            outstanding[i]++;
+        }
+
+        int pending = count;
+        int answered = 0;
+        Throwable failure = null;
+        try {
+            while (pending > 0 && answered < sufficientProviders) {
+                long now = System.nanoTime();
+                long next = Long.MAX_VALUE;
+                for (int i = 0; i < count; i++) {
+                    if (settled[i]) {
+                        continue;
+                    }
+                    if (now - deadlineAt[i] >= 0) {
+                        settled[i] = true;
+                        pending--;
+                        cancel(requests.get(i));
+                        logger.warn(providers.get(i) + " missed its "
+                                + providers.get(i).getDeadline()
+                                + " ms deadline for " + what);
+                        continue;
+                    }
+                    if (!hedged[i] && hedgeAt[i] != Long.MAX_VALUE) {
+                        if (now - hedgeAt[i] >= 0) {
+                            hedged[i] = true;
+                            send(answers, call, i, requests.get(i));
+                            outstanding[i]++;
+                        } else {
+                            next = Math.min(next, hedgeAt[i]);
+                        }
+                    }
+                    next = Math.min(next, deadlineAt[i]);
+                }
+                if (pending == 0) {
+                    break;
+                }
+
+                Future<Answer<T>> done =
+                    answers.poll(next - now, TimeUnit.NANOSECONDS);
+                if (done == null) {
+                    continue;
+                }
+                Answer<T> answer;
+                try {
+                    answer = done.get();
+                } catch (CancellationException e) {
+                    continue;
+                }
+                int i = answer.provider;
+                outstanding[i]--;
+                if (settled[i]) {
+                    continue;
+                }
+                if (answer.failure == null) {
+                    settled[i] = true;
+                    pending--;
+                    cancel(requests.get(i));
+                    if (call.merge(answer.value)) {
+                        answered++;
+                    } else {
+                        logger.warn(providers.get(i) + " answered "
+                                + what + " that cannot be merged");
+                    }
+                } else if (!hedged[i]) {
+                    hedged[i] = true;
+                    send(answers, call, i, requests.get(i));
+                    outstanding[i]++;
+                } else if (outstanding[i] == 0) {
+                    settled[i] = true;
+                    pending--;
+                    failure = answer.failure;
+                    logger.warn(providers.get(i) + " failed to answer for "
+                            + what, answer.failure);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(
+                    "Interrupted waiting for providers", e);
+        } catch (ExecutionException e) {
+            // answers carry their own failures, so this cannot happen
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            for (List<Future<Answer<T>>> sent : requests) {
+                cancel(sent);
+            }
+        }
+        if (answered == 0) {
+            throw new DataAccessResourceFailureException(
+                    "No flight provider answered for " + what, failure);
+        }
+    }
+
+    private <T> void send(CompletionService<Answer<T>> answers,
+            final Call<T> call, final int provider,
+            List<Future<Answer<T>>> sent) {
+        final FlightService service =
+            providers.get(provider).getFlightService();
+        sent.add(answers.submit(new Callable<Answer<T>>() {
+            public Answer<T> call() {
+                try {
+                    return new Answer<T>(provider, call.call(service), null);
+                } catch (RuntimeException e) {
+                    return new Answer<T>(provider, null, e);
+                }
+            }
+        }));
+    }
+
+    private static <T> void cancel(List<Future<T>> sent) {
+        for (Future<T> request : sent) {
+            request.cancel(true);
+        }
+    }
+
+    /**
+     * What to ask each provider, and how to fold its answer into the
+     * result; merge is only ever called on the calling thread, and returns
+     * false for an answer it cannot use, which is skipped.
+     */
+    private interface Call<T> {
+
+        T call(FlightService provider);
+
+        boolean merge(T answer);
+    }
+
+    private static class Answer<T> {
+
+        private final int provider;
+        private final T value;
+        private final RuntimeException failure;
+
+        Answer(int provider, T value, RuntimeException failure) {
+            this.provider = provider;
+            this.value = value;
+            this.failure = failure;
+        }
+    }
+
+    /**
+     * A flight's legs, by airports and times, for recognising the same
+     * itinerary sold by more than one provider.
+     */
+    private static class Itinerary {
+
+        private final Flight flight;
+        private final int hash;
+
+        Itinerary(Flight flight) {
+            this.flight = flight;
+            int h = 0;
+            for (int i = 0; i < flight.getNumberOfLegs(); i++) {
+                FlightLeg leg = flight.getLeg(i);
+                h = 31*h + leg.getDepartFrom().hashCode();
+                h = 31*h + leg.getArriveAt().hashCode();
+                h = 31*h + leg.getDepartOn().hashCode();
+                h = 31*h + leg.getArriveOn().hashCode();
+            }
+            this.hash = h;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this) return true;
+            if (! (obj instanceof Itinerary)) return false;
+            Flight other = ((Itinerary) obj).flight;
+            if (hash != ((Itinerary) obj).hash
+                    || flight.getNumberOfLegs() != other.getNumberOfLegs()) {
+                return false;
+            }
+            for (int i = 0; i < flight.getNumberOfLegs(); i++) {
+                FlightLeg a = flight.getLeg(i);
+                FlightLeg b = other.getLeg(i);
+                if (!a.getDepartFrom().equals(b.getDepartFrom())
+                        || !a.getArriveAt().equals(b.getArriveAt())
+                        || a.getDepartOn().getTime() != b.getDepartOn().getTime()
+                        || a.getArriveOn().getTime() != b.getArriveOn().getTime()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+}
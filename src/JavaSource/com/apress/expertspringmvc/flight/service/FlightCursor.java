@@ -0,0 +1,27 @@
+package JavaSource.com.apress.expertspringmvc.flight.service;
+
+import java.util.List;
+
+import JavaSource.com.apress.expertspringmvc.flight.domain.Flight;
+
+/**
+ * The ranked results of one flight search, turned into Flights only a page
+ * at a time.  A cursor holds the outcome of the search rather than the
+ * flights, so any page can be fetched, in any order and by any number of
+ * threads, without searching again.
+ */
+public interface FlightCursor {
+
+    /**
+     * @return how many flights the search found
+     */
+    int size();
+
+    /**
+     * @param offset the rank of the first flight wanted, from 0
+     * @param max the most flights to return
+     * @return the flights ranked from offset on, fewer than max at the end
+     */
+    List<Flight> fetch(int offset, int max);
+
+}
@@ -0,0 +1,65 @@
+package JavaSource.com.apress.expertspringmvc.flight.service;
+
+import java.util.List;
+
+import JavaSource.com.apress.expertspringmvc.flight.domain.Flight;
+import JavaSource.com.apress.expertspringmvc.flight.domain.FlightSearchCriteria;
+
+/**
+ * One page of a flight search, with the tokens that fetch its neighbours
+ * from a {@link FlightPager}.
+ */
+public class FlightPage {
+
+    private final FlightSearchCriteria search;
+    private final List<Flight> flights;
+    private final int offset;
+    private final int totalFlights;
+    private final String previousPageToken;
+    private final String nextPageToken;
+
+    public FlightPage(FlightSearchCriteria search, List<Flight> flights,
+            int offset, int totalFlights, String previousPageToken,
+            String nextPageToken) {
+        this.search = search;
+        this.flights = flights;
+        this.offset = offset;
+        this.totalFlights = totalFlights;
+        this.previousPageToken = previousPageToken;
+        this.nextPageToken = nextPageToken;
+    }
+
+    public FlightSearchCriteria getSearch() {
+        return search;
+    }
+
+    public List<Flight> getFlights() {
+        return flights;
+    }
+
+    /**
+     * @return the rank of the first flight on this page, from 0
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getTotalFlights() {
+        return totalFlights;
+    }
+
+    /**
+     * @return the token for the previous page, or null on the first page
+     */
+    public String getPreviousPageToken() {
+        return previousPageToken;
+    }
+
+    /**
+     * @return the token for the next page, or null on the last page
+     */
+    public String getNextPageToken() {
+        return nextPageToken;
+    }
+
+}
@@ -0,0 +1,128 @@
+package JavaSource.com.apress.expertspringmvc.flight.service;
+
+import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.util.Assert;
+
+import JavaSource.com.apress.expertspringmvc.flight.domain.FlightSearchCriteria;
+
+/**
+ * Hands out page tokens for open flight cursors, so the later pages of a
+ * search are cut from the cursor its first page opened instead of being
+ * searched for again.
+ * <p>
+ * A token names a cursor and an offset into it.  Cursors are kept until
+ * they go unused for a time to live, and beyond a maximum count the least
+ * recently used are dropped; tokens for a dropped cursor are simply not
+ * found, and the search has to be run again.
+ */
+public class FlightPager {
+
+    private final SecureRandom random = new SecureRandom();
+    private final Map<String, OpenCursor> cursors =
+        new LinkedHashMap<String, OpenCursor>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<String, OpenCursor> eldest) {
+                return size() > maxCursors;
+            }
+        };
+
+    private int maxCursors = 10000;
+    private long timeToLive = 15*60*1000;
+
+    /**
+     * @param maxCursors how many searches may be paged through at once
+     */
+    public void setMaxCursors(int maxCursors) {
+        Assert.isTrue(maxCursors > 0, "Max cursors must be positive");
+        this.maxCursors = maxCursors;
+    }
+
+    /**
+     * @param timeToLive milliseconds a cursor is kept after its last page
+     */
+    public void setTimeToLive(long timeToLive) {
+        Assert.isTrue(timeToLive > 0, "Time to live must be positive");
+        this.timeToLive = timeToLive;
+    }
+
+    /**
+     * Keeps the cursor for later pages and returns its first page.
+     */
+    public FlightPage open(FlightSearchCriteria search, FlightCursor cursor,
+            int pageSize) {
+        Assert.notNull(cursor, "Cursor must not be null");
+        Assert.isTrue(pageSize > 0, "Page size must be positive");
+        OpenCursor open = new OpenCursor(search, cursor, pageSize);
+        String id = Long.toHexString(random.nextLong());
+        synchronized (cursors) {
+            cursors.put(id, open);
+        }
+        return page(id, open, 0);
+    }
+
+    /**
+     * @return the page the token names, or null if the token is malformed
+     * or its cursor has been dropped
+     */
+    public FlightPage page(String token) {
+        int dot = (token == null ? -1 : token.indexOf('.'));
+        if (dot < 0) {
+            return null;
+        }
+        String id = token.substring(0, dot);
+        int offset;
+        try {
+            offset = Integer.parseInt(token.substring(dot + 1));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (offset < 0) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        OpenCursor open;
+        synchronized (cursors) {
+            open = cursors.get(id);
+            if (open != null && now - open.lastUsed > timeToLive) {
+                cursors.remove(id);
+                open = null;
+            }
+        }
+        if (open == null) {
+            return null;
+        }
+        open.lastUsed = now;
+        return page(id, open, offset);
+    }
+
+    private FlightPage page(String id, OpenCursor open, int offset) {
+        int size = open.cursor.size();
+        String previous = (offset == 0 ? null :
+                id + "." + Math.max(0, offset - open.pageSize));
+        String next = (offset + open.pageSize >= size ? null :
+                id + "." + (offset + open.pageSize));
+        return new FlightPage(open.search,
+                open.cursor.fetch(offset, open.pageSize),
+                offset, size, previous, next);
+    }
+
+    private static class OpenCursor {
+
+        private final FlightSearchCriteria search;
+        private final FlightCursor cursor;
+        private final int pageSize;
+        private volatile long lastUsed = System.currentTimeMillis();
+
+        OpenCursor(FlightSearchCriteria search, FlightCursor cursor,
+                int pageSize) {
+            this.search = search;
+            this.cursor = cursor;
+            this.pageSize = pageSize;
+        }
+    }
+
+}
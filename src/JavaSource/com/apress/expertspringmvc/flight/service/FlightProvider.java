@@ -0,0 +1,64 @@
+package JavaSource.com.apress.expertspringmvc.flight.service;
+
+import org.springframework.util.Assert;
+
+/**
+ * One source of inventory for a {@link FederatedFlightService}: a
+ * FlightService together with how long it may take.
+ */
+public class FlightProvider {
+
+    private final String name;
+    private final FlightService flightService;
+    private long deadline = 2000;
+    private long hedgeDelay;
+
+    public FlightProvider(String name, FlightService flightService) {
+        Assert.hasText(name, "Name must not be empty");
+        Assert.notNull(flightService, "Flight service must not be null");
+        this.name = name;
+        this.flightService = flightService;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public FlightService getFlightService() {
+        return flightService;
+    }
+
+    public long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * @param deadline milliseconds after which the provider's answer is no
+     * longer waited for
+     */
+    public void setDeadline(long deadline) {
+        Assert.isTrue(deadline > 0, "Deadline must be positive");
+        this.deadline = deadline;
+    }
+
+    public long getHedgeDelay() {
+        return hedgeDelay;
+    }
+
+    /**
+     * @param hedgeDelay milliseconds after which a provider that has not
+     * answered is asked a second time, the first answer winning; best set
+     * near the provider's 95th percentile latency.  0, the default, sends
+     * a second request only when the first fails.
+     */
+    public void setHedgeDelay(long hedgeDelay) {
+        Assert.isTrue(hedgeDelay >= 0, "Hedge delay must not be negative");
+        this.hedgeDelay = hedgeDelay;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+}
@@ -0,0 +1,284 @@
+package JavaSource.com.apress.expertspringmvc.flight.service;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+
+import org.springframework.util.Assert;
+
+import JavaSource.com.apress.expertspringmvc.flight.domain.Airport;
+import JavaSource.com.apress.expertspringmvc.flight.domain.FlightLeg;
+
+/**
+ * An in-memory timetable of flight legs, indexed by origin airport and by
+ * hour of departure.  Legs are held column by column in parallel primitive
+ * arrays sorted by origin then departure, so a leg costs a few dozen bytes
+ * and no objects; FlightLegs are only created for legs handed back to a
+ * caller.  Airports are numbered by an {@link AirportRegistry}, which may be
+ * shared with other schedules.  Immutable, so any number of searches may
+ * read it concurrently without locking.
+ */
+public class FlightSchedule extends AbstractLegIndex {
+
+    static final long BUCKET_MINUTES = 60;
+
+    private final AirportRegistry airports;
+    // airports registered after the schedule was built have no legs in it
+    private final int airportCount;
+
+    private final int[] destination;
+    private final long[] departure;
+    private final long[] arrival;
+    private final long[] fare;
+
+    // per origin: its legs are [legStarts[o], legStarts[o+1])
+    private final int[] legStarts;
+    private final long[] firstBucket;
+    private final int[][] bucketStarts;
+
+    public FlightSchedule(Collection<FlightLeg> legs) {
+        this(legs, new AirportRegistry());
+    }
+
+    public FlightSchedule(Collection<FlightLeg> legs,
+            AirportRegistry airports) {
+        this(builderOf(legs, airports));
+    }
+
+    private FlightSchedule(Builder builder) {
+        int size = builder.size;
+        airports = builder.airports;
+        airportCount = airports.size();
+
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        final int[] origins = builder.origin;
+        final long[] departures = builder.departure;
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                if (origins[a] != origins[b]) {
+                    return origins[a] < origins[b] ? -1 : 1;
+                }
+                if (departures[a] != departures[b]) {
+                    return departures[a] < departures[b] ? -1 : 1;
+                }
+                return 0;
+            }
+        });
+
+        destination = new int[size];
+        departure = new long[size];
+        arrival = new long[size];
+        fare = new long[size];
+        legStarts = new int[airportCount + 1];
+        for (int i = 0; i < size; i++) {
+            int from = order[i];
+            destination[i] = builder.destination[from];
+            departure[i] = builder.departure[from];
+            arrival[i] = builder.arrival[from];
+            fare[i] = builder.fare[from];
+            legStarts[origins[from] + 1]++;
+        }
+        for (int o = 0; o < airportCount; o++) {
+            legStarts[o + 1] += legStarts[o];
+        }
+
+        firstBucket = new long[airportCount];
+        bucketStarts = new int[airportCount][];
+        for (int o = 0; o < airportCount; o++) {
+            indexBuckets(o);
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder(new AirportRegistry());
+    }
+
+    public static Builder builder(AirportRegistry airports) {
+        return new Builder(airports);
+    }
+
+    private static Builder builderOf(Collection<FlightLeg> legs,
+            AirportRegistry airports) {
+        Assert.notNull(legs, "Legs must not be null");
+        Builder builder = new Builder(airports);
+        for (FlightLeg leg : legs) {
+            builder.addLeg(leg);
+        }
+        return builder;
+    }
+
+    public int size() {
+        return departure.length;
+    }
+
+    public int airportId(String airportCode) {
+        return airports.idOf(airportCode);
+    }
+
+    public Airport airport(int airportId) {
+        return airports.airport(airportId);
+    }
+
+    public int airportCount() {
+        return airportCount;
+    }
+
+    public int firstDeparting(int origin, long minute) {
+        if (origin >= airportCount) {
+            return 0;
+        }
+        int start = legStarts[origin];
+        int end = legStarts[origin + 1];
+        if (start == end) {
+            return end;
+        }
+        long bucket = bucketOf(minute) - firstBucket[origin];
+        int[] starts = bucketStarts[origin];
+        if (bucket < 0) {
+            return start;
+        }
+        if (bucket >= starts.length - 1) {
+            return end;
+        }
+        int leg = starts[(int) bucket];
+        while (leg < end && departure[leg] < minute) {
+            leg++;
+        }
+        return leg;
+    }
+
+    public int endOf(int origin) {
+        if (origin >= airportCount) {
+            return 0;
+        }
+        return legStarts[origin + 1];
+    }
+
+    public int destinationOf(int leg) {
+        return destination[leg];
+    }
+
+    public long departureOf(int leg) {
+        return departure[leg];
+    }
+
+    public long arrivalOf(int leg) {
+        return arrival[leg];
+    }
+
+    public long fareOf(int leg) {
+        return fare[leg];
+    }
+
+    public FlightLeg legAt(int leg) {
+        return new FlightLeg(airports.airport(originOf(leg)),
+                new Date(departure[leg] * ONE_MINUTE),
+                airports.airport(destination[leg]),
+                new Date(arrival[leg] * ONE_MINUTE),
+                fromCents(fare[leg]));
+    }
+
+    private int originOf(int leg) {
+        int o = Arrays.binarySearch(legStarts, leg);
+        if (o < 0) {
+            return -o - 2;
+        }
+        // skip origins with no legs, which share a start with the next one
+        while (legStarts[o + 1] == leg) {
+            o++;
+        }
+        return o;
+    }
+
+    /**
+     * Records where each hour bucket of an origin's departures starts, so a
+     * lookup never scans earlier hours.
+     */
+    private void indexBuckets(int origin) {
+        int start = legStarts[origin];
+        int end = legStarts[origin + 1];
+        if (start == end) {
+            bucketStarts[origin] = new int[1];
+            return;
+        }
+        firstBucket[origin] = bucketOf(departure[start]);
+        int buckets = (int) (bucketOf(departure[end - 1])
+                - firstBucket[origin]) + 1;
+        int[] starts = new int[buckets + 1];
+        int leg = start;
+        for (int bucket = 0; bucket <= buckets; bucket++) {
+            while (leg < end &&
+                    bucketOf(departure[leg]) - firstBucket[origin] < bucket) {
+                leg++;
+            }
+            starts[bucket] = leg;
+        }
+        bucketStarts[origin] = starts;
+    }
+
+    private static long bucketOf(long minute) {
+        return minute / BUCKET_MINUTES;
+    }
+
+    /**
+     * Collects legs into growable primitive columns, so a timetable can be
+     * loaded without first creating a FlightLeg per row.
+     */
+    public static class Builder {
+
+        private final AirportRegistry airports;
+        private int size;
+        private int[] origin = new int[16];
+        private int[] destination = new int[16];
+        private long[] departure = new long[16];
+        private long[] arrival = new long[16];
+        private long[] fare = new long[16];
+
+        private Builder(AirportRegistry airports) {
+            Assert.notNull(airports, "Airport registry must not be null");
+            this.airports = airports;
+        }
+
+        public Builder addLeg(FlightLeg leg) {
+            return addLeg(leg.getDepartFrom(), leg.getArriveAt(),
+                    leg.getDepartOn().getTime() / ONE_MINUTE,
+                    leg.getArriveOn().getTime() / ONE_MINUTE,
+                    toCents(leg.getFare()));
+        }
+
+        /**
+         * @param departMinute departure in minutes since the epoch
+         * @param arriveMinute arrival in minutes since the epoch
+         * @param fareCents fare in cents, or {@link LegIndex#NO_FARE}
+         */
+        public Builder addLeg(Airport departFrom, Airport arriveAt,
+                long departMinute, long arriveMinute, long fareCents) {
+            Assert.isTrue(arriveMinute > departMinute,
+                    "Legs must arrive after they depart");
+            if (size == departure.length) {
+                int capacity = size * 2;
+                origin = Arrays.copyOf(origin, capacity);
+                destination = Arrays.copyOf(destination, capacity);
+                departure = Arrays.copyOf(departure, capacity);
+                arrival = Arrays.copyOf(arrival, capacity);
+                fare = Arrays.copyOf(fare, capacity);
+            }
+            origin[size] = airports.register(departFrom);
+            destination[size] = airports.register(arriveAt);
+            departure[size] = departMinute;
+            arrival[size] = arriveMinute;
+            fare[size] = fareCents;
+            size++;
+            return this;
+        }
+
+        public FlightSchedule build() {
+            return new FlightSchedule(this);
+        }
+    }
+
+}
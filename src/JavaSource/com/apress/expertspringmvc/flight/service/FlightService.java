@@ -2,6 +2,7 @@ package JavaSource.com.apress.expertspringmvc.flight.service;
 
 import java.util.List;
 
+import JavaSource.com.apress.expertspringmvc.flight.domain.FareCalendar;
 import JavaSource.com.apress.expertspringmvc.flight.domain.Flight;
 import JavaSource.com.apress.expertspringmvc.flight.domain.FlightSearchCriteria;
 import JavaSource.com.apress.expertspringmvc.flight.domain.SpecialDeal;
@@ -11,5 +12,25 @@ public interface FlightService {
     List<SpecialDeal> getSpecialDeals();
     
     List<Flight> findFlights(FlightSearchCriteria search);
+
+    /**
+     * Runs a search whose results are turned into flights only as they are
+     * fetched, a page at a time, in the same order findFlights would
+     * return them.
+     */
+    FlightCursor openSearch(FlightSearchCriteria search);
+
+    /**
+     * @return the special deals on the searched route that are valid on the
+     * searched departure date
+     */
+    List<SpecialDeal> findSpecialDeals(FlightSearchCriteria search);
+
+    /**
+     * @return the lowest prices on the searched route for the days within
+     * {@link FlightSearchCriteria#getFlexibleDays() flexibleDays} of the
+     * departure date and, for a round trip, of the return date
+     */
+    FareCalendar findFareCalendar(FlightSearchCriteria search);
     
 }
@@ -0,0 +1,29 @@
+package JavaSource.com.apress.expertspringmvc.flight.service;
+
+import java.util.Collection;
+
+/**
+ * Where a {@link ConnectionSearch} task keeps the itineraries it finds.
+ * Not thread safe; each task fills its own and the results are merged.
+ */
+interface ItinerarySet {
+
+    /**
+     * @return true if no itinerary at least as expensive, as long, with as
+     * many legs and departing as late as given can enter the set, so a
+     * partial itinerary with those bounds need not be extended
+     */
+    boolean covers(long fare, long price, long travelTime, int numberOfLegs,
+            long departure);
+
+    void add(Candidate candidate);
+
+    Collection<Candidate> candidates();
+
+    /**
+     * Ranks the set and hands it to a cursor that creates flights a page
+     * at a time.  The set must not be added to afterwards.
+     */
+    FlightCursor toCursor(LegIndex index);
+
+}
@@ -0,0 +1,78 @@
+package JavaSource.com.apress.expertspringmvc.flight.service;
+
+import java.util.List;
+
+import JavaSource.com.apress.expertspringmvc.flight.domain.Airport;
+import JavaSource.com.apress.expertspringmvc.flight.domain.FlightLeg;
+
+/**
+ * A timetable that can find legs by origin and departure time without
+ * scanning the whole schedule.
+ * <p>
+ * Besides the object lookup, legs can be walked by position without creating
+ * any objects: the legs leaving one origin occupy a contiguous run of
+ * positions, sorted by departure, and every attribute of a leg is available
+ * as a primitive.  Times are in minutes since the epoch and fares in cents.
+ */
+public interface LegIndex {
+
+    /**
+     * Fare in cents of a leg that is not sold on its own.
+     */
+    long NO_FARE = Long.MIN_VALUE;
+
+    /**
+     * @return the number of legs in the timetable
+     */
+    int size();
+
+    /**
+     * Finds legs leaving the given airport in the half-open interval
+     * [from, to), optionally restricted to one destination, in order of
+     * departure.
+     *
+     * @param arriveAt destination code, or blank for any destination
+     */
+    List<FlightLeg> findLegs(String departFrom, String arriveAt,
+            long from, long to);
+
+    /**
+     * @return the id of the airport with the given code, or -1 if the
+     * airport is unknown
+     */
+    int airportId(String airportCode);
+
+    Airport airport(int airportId);
+
+    /**
+     * @return how many airports may have legs leaving them; origin ids run
+     * from 0 to one less than this
+     */
+    int airportCount();
+
+    /**
+     * @return the position of the first leg from the origin departing at or
+     * after the given minute, or {@link #endOf(int) endOf(origin)} if none
+     */
+    int firstDeparting(int origin, long minute);
+
+    /**
+     * @return the position just past the last leg from the origin
+     */
+    int endOf(int origin);
+
+    int destinationOf(int leg);
+
+    long departureOf(int leg);
+
+    long arrivalOf(int leg);
+
+    long fareOf(int leg);
+
+    /**
+     * Creates a FlightLeg for one position, for legs that are being returned
+     * to a caller.
+     */
+    FlightLeg legAt(int leg);
+
+}
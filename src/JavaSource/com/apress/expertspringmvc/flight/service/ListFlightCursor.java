@@ -0,0 +1,37 @@
+package JavaSource.com.apress.expertspringmvc.flight.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.springframework.util.Assert;
+
+import JavaSource.com.apress.expertspringmvc.flight.domain.Flight;
+
+/**
+ * A cursor over flights that were already found, for services that can only
+ * search all at once.
+ */
+public class ListFlightCursor implements FlightCursor {
+
+    private final List<Flight> flights;
+
+    public ListFlightCursor(List<Flight> flights) {
+        Assert.notNull(flights, "Flights must not be null");
+        this.flights = Collections.unmodifiableList(
+                new ArrayList<Flight>(flights));
+    }
+
+    public int size() {
+        return flights.size();
+    }
+
+    public List<Flight> fetch(int offset, int max) {
+        Assert.isTrue(offset >= 0, "Offset must not be negative");
+        Assert.isTrue(max >= 0, "Max must not be negative");
+        int from = Math.min(offset, flights.size());
+        int to = (int) Math.min((long) from + max, flights.size());
+        return new ArrayList<Flight>(flights.subList(from, to));
+    }
+
+}
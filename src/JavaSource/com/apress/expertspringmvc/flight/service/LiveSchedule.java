@@ -0,0 +1,369 @@
+package JavaSource.com.apress.expertspringmvc.flight.service;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.util.Assert;
+
+import JavaSource.com.apress.expertspringmvc.flight.domain.Airport;
+import JavaSource.com.apress.expertspringmvc.flight.domain.FlightLeg;
+
+/**
+ * A timetable that takes {@link ScheduleChange}s without being rebuilt.
+ * The legs leaving each origin are a run of their own, held in primitive
+ * columns sorted by departure as in a {@link FlightSchedule}, so applying
+ * changes copies just the runs of the origins they touch and shares every
+ * other run with the schedule it came from.  A leg's position is its
+ * origin in the high bits and its place in the run in the low ones, so the
+ * accessors find a leg's run without a search.  Departures within a run
+ * are found by binary search, which leaves nothing else to rebuild.
+ * <p>
+ * Immutable: {@link #apply} returns a new schedule, and searches reading
+ * this one never see the change.
+ */
+public class LiveSchedule extends AbstractLegIndex {
+
+    private final AirportRegistry airports;
+    private final Run[] runs;
+    private final int shift;
+    private final int mask;
+    private final int size;
+
+    private LiveSchedule(AirportRegistry airports, Run[] runs) {
+        int longest = 0;
+        int legs = 0;
+        for (Run run : runs) {
+            longest = Math.max(longest, run.size());
+            legs += run.size();
+        }
+        int bits = 32 - Integer.numberOfLeadingZeros(longest);
+        if (((long) runs.length << bits) > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Too many legs leave one of "
+                    + runs.length + " airports to number them all");
+        }
+        this.airports = airports;
+        this.runs = runs;
+        this.shift = bits;
+        this.mask = (1 << bits) - 1;
+        this.size = legs;
+    }
+
+    /**
+     * @return a schedule with no legs, numbering airports by the registry
+     */
+    public static LiveSchedule empty(AirportRegistry airports) {
+        Assert.notNull(airports, "Airport registry must not be null");
+        return new LiveSchedule(airports, runsFor(new Run[0], airports));
+    }
+
+    /**
+     * Copies any timetable, numbering its airports by the given registry.
+     */
+    public static LiveSchedule copyOf(LegIndex schedule,
+            AirportRegistry airports) {
+        Assert.notNull(schedule, "Schedule must not be null");
+        Assert.notNull(airports, "Airport registry must not be null");
+        int[] ids = new int[schedule.airportCount()];
+        Arrays.fill(ids, -1);
+        Editor[] editors = new Editor[schedule.airportCount()];
+        for (int origin = 0; origin < editors.length; origin++) {
+            int end = schedule.endOf(origin);
+            int leg = schedule.firstDeparting(origin, Long.MIN_VALUE);
+            if (leg == end) {
+                continue;
+            }
+            Editor editor = new Editor(Run.EMPTY, end - leg);
+            for (; leg < end; leg++) {
+                int destination = schedule.destinationOf(leg);
+                if (destination >= ids.length) {
+                    ids = grow(ids, destination + 1);
+                }
+                if (ids[destination] < 0) {
+                    ids[destination] = airports.register(
+                            schedule.airport(destination));
+                }
+                editor.append(ids[destination], schedule.departureOf(leg),
+                        schedule.arrivalOf(leg), schedule.fareOf(leg));
+            }
+            editors[origin] = editor;
+        }
+        Run[] runs = runsFor(new Run[0], airports);
+        for (int origin = 0; origin < editors.length; origin++) {
+            if (editors[origin] == null) {
+                continue;
+            }
+            if (ids[origin] < 0) {
+                ids[origin] = airports.register(schedule.airport(origin));
+                runs = runsFor(runs, airports);
+            }
+            runs[ids[origin]] = editors[origin].toRun();
+        }
+        return new LiveSchedule(airports, runs);
+    }
+
+    /**
+     * Applies changes in order.  Airports first seen in an added leg are
+     * registered.
+     *
+     * @return the changed schedule
+     */
+    public LiveSchedule apply(List<ScheduleChange> changes) {
+        Map<Integer, Editor> edited = new LinkedHashMap<Integer, Editor>();
+        for (ScheduleChange change : changes) {
+            FlightLeg leg = change.getLeg();
+            boolean add = change.getType() == ScheduleChange.Type.ADD;
+            int origin = (add ? airports.register(leg.getDepartFrom())
+                    : airports.idOf(leg.getDepartFrom().getAirportCode()));
+            int destination = (add ? airports.register(leg.getArriveAt())
+                    : airports.idOf(leg.getArriveAt().getAirportCode()));
+            if (origin < 0 || destination < 0) {
+                continue;
+            }
+            Editor editor = edited.get(origin);
+            if (editor == null) {
+                editor = new Editor(origin < runs.length ?
+                        runs[origin] : Run.EMPTY, 0);
+                edited.put(origin, editor);
+            }
+            long departure = leg.getDepartOn().getTime() / ONE_MINUTE;
+            if (add) {
+                editor.insert(destination, departure,
+                        leg.getArriveOn().getTime() / ONE_MINUTE,
+                        toCents(leg.getFare()));
+                continue;
+            }
+            int at = editor.indexOf(destination, departure);
+            if (at < 0) {
+                continue;
+            }
+            long fare = editor.fare[at];
+            editor.remove(at);
+            if (change.getType() == ScheduleChange.Type.RETIME) {
+                editor.insert(destination,
+                        change.getNewDepartOn().getTime() / ONE_MINUTE,
+                        change.getNewArriveOn().getTime() / ONE_MINUTE,
+                        fare);
+            }
+        }
+        Run[] next = runsFor(runs, airports);
+        for (Map.Entry<Integer, Editor> entry : edited.entrySet()) {
+            next[entry.getKey()] = entry.getValue().toRun();
+        }
+        return new LiveSchedule(airports, next);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int airportId(String airportCode) {
+        return airports.idOf(airportCode);
+    }
+
+    public Airport airport(int airportId) {
+        return airports.airport(airportId);
+    }
+
+    public int airportCount() {
+        return runs.length;
+    }
+
+    public int firstDeparting(int origin, long minute) {
+        if (origin >= runs.length) {
+            return 0;
+        }
+        return (origin << shift) + runs[origin].firstDeparting(minute);
+    }
+
+    public int endOf(int origin) {
+        if (origin >= runs.length) {
+            return 0;
+        }
+        return (origin << shift) + runs[origin].size();
+    }
+
+    public int destinationOf(int leg) {
+        return runs[leg >>> shift].destination[leg & mask];
+    }
+
+    public long departureOf(int leg) {
+        return runs[leg >>> shift].departure[leg & mask];
+    }
+
+    public long arrivalOf(int leg) {
+        return runs[leg >>> shift].arrival[leg & mask];
+    }
+
+    public long fareOf(int leg) {
+        return runs[leg >>> shift].fare[leg & mask];
+    }
+
+    public FlightLeg legAt(int leg) {
+        Run run = runs[leg >>> shift];
+        int i = leg & mask;
+        return new FlightLeg(airports.airport(leg >>> shift),
+                new Date(run.departure[i] * ONE_MINUTE),
+                airports.airport(run.destination[i]),
+                new Date(run.arrival[i] * ONE_MINUTE),
+                fromCents(run.fare[i]));
+    }
+
+    /**
+     * @return the runs, with an empty one for each airport registered
+     * since
+     */
+    private static Run[] runsFor(Run[] runs, AirportRegistry airports) {
+        Run[] copy = Arrays.copyOf(runs, Math.max(runs.length,
+                airports.size()));
+        Arrays.fill(copy, runs.length, copy.length, Run.EMPTY);
+        return copy;
+    }
+
+    private static int[] grow(int[] ids, int length) {
+        int[] grown = Arrays.copyOf(ids, length);
+        Arrays.fill(grown, ids.length, length, -1);
+        return grown;
+    }
+
+    /**
+     * The legs leaving one origin, sorted by departure.  Never changed once
+     * built.
+     */
+    private static class Run {
+
+        static final Run EMPTY =
+            new Run(new int[0], new long[0], new long[0], new long[0]);
+
+        final int[] destination;
+        final long[] departure;
+        final long[] arrival;
+        final long[] fare;
+
+        Run(int[] destination, long[] departure, long[] arrival,
+                long[] fare) {
+            this.destination = destination;
+            this.departure = departure;
+            this.arrival = arrival;
+            this.fare = fare;
+        }
+
+        int size() {
+            return departure.length;
+        }
+
+        int firstDeparting(long minute) {
+            return lowerBound(departure, departure.length, minute);
+        }
+    }
+
+    /**
+     * One origin's legs being changed, in columns with room to grow.
+     */
+    private static class Editor {
+
+        private int size;
+        private int[] destination;
+        private long[] departure;
+        private long[] arrival;
+        private long[] fare;
+
+        Editor(Run run, int extra) {
+            int capacity = run.size() + Math.max(extra, 8);
+            size = run.size();
+            destination = Arrays.copyOf(run.destination, capacity);
+            departure = Arrays.copyOf(run.departure, capacity);
+            arrival = Arrays.copyOf(run.arrival, capacity);
+            fare = Arrays.copyOf(run.fare, capacity);
+        }
+
+        /**
+         * Adds a leg departing no earlier than the last.
+         */
+        void append(int to, long departs, long arrives, long cents) {
+            insertAt(size, to, departs, arrives, cents);
+        }
+
+        /**
+         * Adds a leg after any departing at the same minute.
+         */
+        void insert(int to, long departs, long arrives, long cents) {
+            insertAt(lowerBound(departure, size, departs + 1), to, departs,
+                    arrives, cents);
+        }
+
+        /**
+         * @return the index of the first leg to the destination departing
+         * at the given minute, or -1 if there is none
+         */
+        int indexOf(int to, long departs) {
+            for (int i = lowerBound(departure, size, departs);
+                    i < size && departure[i] == departs; i++) {
+                if (destination[i] == to) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        void remove(int i) {
+            int tail = size - i - 1;
+            System.arraycopy(destination, i + 1, destination, i, tail);
+            System.arraycopy(departure, i + 1, departure, i, tail);
+            System.arraycopy(arrival, i + 1, arrival, i, tail);
+            System.arraycopy(fare, i + 1, fare, i, tail);
+            size--;
+        }
+
+        Run toRun() {
+            if (size == 0) {
+                return Run.EMPTY;
+            }
+            return new Run(Arrays.copyOf(destination, size),
+                    Arrays.copyOf(departure, size),
+                    Arrays.copyOf(arrival, size), Arrays.copyOf(fare, size));
+        }
+
+        private void insertAt(int i, int to, long departs, long arrives,
+                long cents) {
+            if (size == departure.length) {
+                int capacity = size * 2;
+                destination = Arrays.copyOf(destination, capacity);
+                departure = Arrays.copyOf(departure, capacity);
+                arrival = Arrays.copyOf(arrival, capacity);
+                fare = Arrays.copyOf(fare, capacity);
+            }
+            int tail = size - i;
+            System.arraycopy(destination, i, destination, i + 1, tail);
+            System.arraycopy(departure, i, departure, i + 1, tail);
+            System.arraycopy(arrival, i, arrival, i + 1, tail);
+            System.arraycopy(fare, i, fare, i + 1, tail);
+            destination[i] = to;
+            departure[i] = departs;
+            arrival[i] = arrives;
+            fare[i] = cents;
+            size++;
+        }
+    }
+
+    /**
+     * @return the index of the first of the sorted values at or after the
+     * given one, or size if none is
+     */
+    private static int lowerBound(long[] sorted, int size, long value) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sorted[mid] < value) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+}
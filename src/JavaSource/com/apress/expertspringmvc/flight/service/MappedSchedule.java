@@ -0,0 +1,204 @@
+package JavaSource.com.apress.expertspringmvc.flight.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Date;
+import java.util.zip.CRC32;
+
+import JavaSource.com.apress.expertspringmvc.flight.domain.Airport;
+import JavaSource.com.apress.expertspringmvc.flight.domain.FlightLeg;
+
+/**
+ * A timetable read in place from a memory-mapped {@link ScheduleSnapshot}.
+ * Opening one reads only the header and the airport directory, so it costs
+ * the same whatever the number of legs; legs are binary searched in the
+ * mapped pages and only the matches are turned into FlightLegs.  Readers
+ * use absolute gets only, so searches may run concurrently.
+ */
+public class MappedSchedule extends AbstractLegIndex {
+
+    private final ByteBuffer buffer;
+    private final AirportRegistry airports;
+    private final int[] firstLeg;
+    private final int[] legCount;
+    private final int legsOffset;
+    private final int size;
+
+    private MappedSchedule(ByteBuffer buffer, AirportRegistry airports,
+            int[] firstLeg, int[] legCount, int legsOffset, int size) {
+        this.buffer = buffer;
+        this.airports = airports;
+        this.firstLeg = firstLeg;
+        this.legCount = legCount;
+        this.legsOffset = legsOffset;
+        this.size = size;
+    }
+
+    /**
+     * Maps a snapshot file, checking its version and the checksum of its
+     * header and directory.
+     *
+     * @throws IOException if the file cannot be read or is not a snapshot
+     * this version understands
+     */
+    public static MappedSchedule open(File file) throws IOException {
+        ByteBuffer buffer;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            if (channel.size() < ScheduleSnapshot.HEADER_SIZE) {
+                throw new IOException(file + " is too short to be a snapshot");
+            }
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too large to map");
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+        } finally {
+            raf.close();
+        }
+
+        if (buffer.getInt(0) != ScheduleSnapshot.MAGIC) {
+            throw new IOException(file + " is not a schedule snapshot");
+        }
+        short version = buffer.getShort(4);
+        if (version != ScheduleSnapshot.VERSION) {
+            throw new IOException(file + " has snapshot version " + version +
+                    ", expected " + ScheduleSnapshot.VERSION);
+        }
+        int airportCount = buffer.getInt(ScheduleSnapshot.AIRPORT_COUNT_OFFSET);
+        int size = buffer.getInt(ScheduleSnapshot.LEG_COUNT_OFFSET);
+        int directoryLength = buffer.getInt(
+                ScheduleSnapshot.DIRECTORY_LENGTH_OFFSET);
+        int legsOffset = ScheduleSnapshot.HEADER_SIZE + directoryLength;
+        if (airportCount < 0 || size < 0 || directoryLength < 0 ||
+                buffer.capacity() != legsOffset +
+                (long) size * ScheduleSnapshot.LEG_SIZE) {
+            throw new IOException(file + " is truncated or corrupt");
+        }
+
+        byte[] checked = new byte[legsOffset];
+        ByteBuffer view = buffer.duplicate();
+        view.get(checked);
+        CRC32 crc = new CRC32();
+        crc.update(checked, 0, ScheduleSnapshot.DIRECTORY_CHECKSUM_OFFSET);
+        crc.update(checked, ScheduleSnapshot.HEADER_SIZE, directoryLength);
+        if (crc.getValue() != buffer.getLong(
+                ScheduleSnapshot.DIRECTORY_CHECKSUM_OFFSET)) {
+            throw new IOException(file + " failed its directory checksum");
+        }
+
+        // registered in directory order, so registry ids are snapshot ids
+        AirportRegistry airports = new AirportRegistry();
+        int[] firstLeg = new int[airportCount];
+        int[] legCount = new int[airportCount];
+        view.position(ScheduleSnapshot.HEADER_SIZE);
+        for (int id = 0; id < airportCount; id++) {
+            firstLeg[id] = view.getInt();
+            legCount[id] = view.getInt();
+            String code = readString(view);
+            if (airports.register(readString(view), code) != id) {
+                throw new IOException(file + " lists airport " + code +
+                        " twice");
+            }
+        }
+        return new MappedSchedule(buffer, airports, firstLeg, legCount,
+                legsOffset, size);
+    }
+
+    /**
+     * Reads every leg record to check the leg checksum.  This touches the
+     * whole file, so it is left to the caller to decide when to pay for it.
+     *
+     * @throws IOException if the legs do not match their checksum
+     */
+    public void verify() throws IOException {
+        ByteBuffer legs = buffer.duplicate();
+        legs.position(legsOffset);
+        byte[] chunk = new byte[1 << 16];
+        CRC32 crc = new CRC32();
+        while (legs.hasRemaining()) {
+            int n = Math.min(chunk.length, legs.remaining());
+            legs.get(chunk, 0, n);
+            crc.update(chunk, 0, n);
+        }
+        if (crc.getValue() != buffer.getLong(
+                ScheduleSnapshot.LEGS_CHECKSUM_OFFSET)) {
+            throw new IOException("Schedule snapshot failed its leg checksum");
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int airportId(String airportCode) {
+        return airports.idOf(airportCode);
+    }
+
+    public Airport airport(int airportId) {
+        return airports.airport(airportId);
+    }
+
+    public int airportCount() {
+        return firstLeg.length;
+    }
+
+    public int firstDeparting(int origin, long minute) {
+        int lo = firstLeg[origin];
+        int hi = lo + legCount[origin];
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (departureOf(mid) < minute) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    public int endOf(int origin) {
+        return firstLeg[origin] + legCount[origin];
+    }
+
+    public int destinationOf(int leg) {
+        return buffer.getInt(offsetOf(leg) + 4);
+    }
+
+    public long departureOf(int leg) {
+        return buffer.getLong(offsetOf(leg) + 8) / ONE_MINUTE;
+    }
+
+    public long arrivalOf(int leg) {
+        return buffer.getLong(offsetOf(leg) + 16) / ONE_MINUTE;
+    }
+
+    public long fareOf(int leg) {
+        return buffer.getLong(offsetOf(leg) + 24);
+    }
+
+    public FlightLeg legAt(int leg) {
+        int at = offsetOf(leg);
+        return new FlightLeg(airports.airport(buffer.getInt(at)),
+                new Date(buffer.getLong(at + 8)),
+                airports.airport(buffer.getInt(at + 4)),
+                new Date(buffer.getLong(at + 16)),
+                fromCents(buffer.getLong(at + 24)));
+    }
+
+    private int offsetOf(int leg) {
+        return legsOffset + leg * ScheduleSnapshot.LEG_SIZE;
+    }
+
+    private static String readString(ByteBuffer in) throws IOException {
+        int length = in.getShort() & 0xffff;
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+}
@@ -0,0 +1,326 @@
+package JavaSource.com.apress.expertspringmvc.flight.service;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+
+/**
+ * A sorted index from one part of a name to the ids of the accounts that
+ * have it, answering exact, case-insensitive and prefix searches a page at
+ * a time.
+ * <p>
+ * Names are keyed by their lower-cased form followed by the name as given,
+ * so every spelling of a name sits next to the others and each search is
+ * one range of keys.  Each key holds a sorted array of ids that is
+ * replaced, never changed: lookups take no lock, and writers swap arrays
+ * with compare-and-set.  Results are ordered by name and then by id, and
+ * skipping to a page passes over whole arrays rather than single ids.
+ */
+public class NameIndex {
+
+    private static final char SEPARATOR = '\0';
+    private static final long[] NO_IDS = new long[0];
+
+    private final ConcurrentSkipListMap<String, long[]> postings =
+        new ConcurrentSkipListMap<String, long[]>();
+
+    public void add(String name, long id) {
+        if (!StringUtils.hasText(name)) {
+            return;
+        }
+        String key = keyOf(name);
+        while (true) {
+            long[] ids = postings.get(key);
+            if (ids == null) {
+                if (postings.putIfAbsent(key, new long[] {id}) == null) {
+                    return;
+                }
+                continue;
+            }
+            int i = Arrays.binarySearch(ids, id);
+            if (i >= 0) {
+                return;
+            }
+            i = -i - 1;
+            long[] added = new long[ids.length + 1];
+            System.arraycopy(ids, 0, added, 0, i);
+            added[i] = id;
+            System.arraycopy(ids, i, added, i + 1, ids.length - i);
+            if (postings.replace(key, ids, added)) {
+                return;
+            }
+        }
+    }
+
+    public void remove(String name, long id) {
+        if (!StringUtils.hasText(name)) {
+            return;
+        }
+        String key = keyOf(name);
+        while (true) {
+            long[] ids = postings.get(key);
+            if (ids == null) {
+                return;
+            }
+            int i = Arrays.binarySearch(ids, id);
+            if (i < 0) {
+                return;
+            }
+            if (ids.length == 1) {
+                if (postings.remove(key, ids)) {
+                    return;
+                }
+                continue;
+            }
+            long[] removed = new long[ids.length - 1];
+            System.arraycopy(ids, 0, removed, 0, i);
+            System.arraycopy(ids, i + 1, removed, i, removed.length - i);
+            if (postings.replace(key, ids, removed)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Moves an account from one name to another, adding before removing so
+     * a concurrent search never misses it when the name is unchanged in
+     * all but case.
+     */
+    public void replace(String previous, String name, long id) {
+        if (previous == null ? name == null : previous.equals(name)) {
+            return;
+        }
+        add(name, id);
+        remove(previous, id);
+    }
+
+    /**
+     * @param offset how many matches to skip
+     * @param limit the most ids to return
+     * @return the ids of matching accounts, ordered by name and then by id
+     */
+    public long[] find(String searchBy, NameMatch match, int offset,
+            int limit) {
+        Assert.notNull(match, "Match must not be null");
+        Assert.isTrue(offset >= 0, "Offset must not be negative");
+        Assert.isTrue(limit >= 0, "Limit must not be negative");
+        if (!StringUtils.hasText(searchBy) || limit == 0) {
+            return NO_IDS;
+        }
+        String lower = lowerCase(searchBy);
+        NavigableMap<String, long[]> range;
+        switch (match) {
+        case EXACT:
+            String key = keyOf(searchBy);
+            range = postings.subMap(key, true, key, true);
+            break;
+        case IGNORE_CASE:
+            range = postings.subMap(lower + SEPARATOR, true,
+                    lower + (char) (SEPARATOR + 1), false);
+            break;
+        default:
+            range = postings.tailMap(lower, true);
+        }
+
+        long[] found = new long[Math.min(limit, 16)];
+        int size = 0;
+        for (Map.Entry<String, long[]> entry : range.entrySet()) {
+            if (!entry.getKey().startsWith(lower)) {
+                break;
+            }
+            long[] ids = entry.getValue();
+            if (offset >= ids.length) {
+                offset -= ids.length;
+                continue;
+            }
+            int count = Math.min(ids.length - offset, limit - size);
+            if (size + count > found.length) {
+                found = Arrays.copyOf(found,
+                        Math.min(limit, Math.max(size + count, size * 2)));
+            }
+            System.arraycopy(ids, offset, found, size, count);
+            size += count;
+            offset = 0;
+            if (size == limit) {
+                break;
+            }
+        }
+        return (size == found.length ? found : Arrays.copyOf(found, size));
+    }
+
+    /**
+     * @return whether a name satisfies a search, for checking an account
+     * found through the index against its current state
+     */
+    public static boolean matches(String name, String searchBy,
+            NameMatch match) {
+        if (!StringUtils.hasText(name) || !StringUtils.hasText(searchBy)) {
+            return false;
+        }
+        switch (match) {
+        case EXACT:
+            return name.trim().equals(searchBy.trim());
+        case IGNORE_CASE:
+            return lowerCase(name).equals(lowerCase(searchBy));
+        default:
+            return lowerCase(name).startsWith(lowerCase(searchBy));
+        }
+    }
+
+    /**
+     * Adds every id in another index, for filling this one in bulk while it
+     * is not yet being written to.  Names this index has no ids for take
+     * the other index's arrays as they are.
+     */
+    public void addAll(NameIndex other) {
+        for (Map.Entry<String, long[]> entry : other.postings.entrySet()) {
+            String key = entry.getKey();
+            if (postings.putIfAbsent(key, entry.getValue()) == null) {
+                continue;
+            }
+            String name = key.substring(key.indexOf(SEPARATOR) + 1);
+            for (long id : entry.getValue()) {
+                add(name, id);
+            }
+        }
+    }
+
+    /**
+     * Reads postings written by {@link Loader#writeTo} into this index,
+     * which must be empty.
+     */
+    void readPostings(DataInput in) throws IOException {
+        Assert.state(postings.isEmpty(), "Index must be empty");
+        while (in.readByte() != 0) {
+            String key = in.readUTF();
+            int count = in.readInt();
+            if (count < 1) {
+                throw new IOException("Bad posting count " + count);
+            }
+            long[] ids = new long[count];
+            for (int i = 0; i < count; i++) {
+                ids[i] = in.readLong();
+            }
+            postings.put(key, ids);
+        }
+    }
+
+    /**
+     * @return a loader that adds many ids at once, for filling an index
+     * while it is not yet being written to
+     */
+    public Loader loader() {
+        return new Loader();
+    }
+
+    /**
+     * @return how many distinct spellings of names are indexed
+     */
+    public int size() {
+        return postings.size();
+    }
+
+    private static String keyOf(String name) {
+        return lowerCase(name) + SEPARATOR + name.trim();
+    }
+
+    private static String lowerCase(String name) {
+        return name.trim().toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * Groups ids by name and sorts each group once, instead of copying a
+     * name's array for every id added.  Groups are found by the name as
+     * given, so the index key is only built once per distinct name.
+     */
+    public class Loader {
+
+        private final Map<String, Group> groups = new HashMap<String, Group>();
+
+        public void add(String name, long id) {
+            if (!StringUtils.hasText(name)) {
+                return;
+            }
+            String trimmed = name.trim();
+            Group group = groups.get(trimmed);
+            if (group == null) {
+                group = new Group(trimmed);
+                groups.put(trimmed, group);
+            }
+            group.add(id);
+        }
+
+        /**
+         * Adds everything loaded to the index.
+         */
+        public void finish() {
+            for (Group group : groups.values()) {
+                long[] ids = Arrays.copyOf(group.ids, group.size);
+                Arrays.sort(ids);
+                if (postings.putIfAbsent(keyOf(group.name), ids) != null) {
+                    for (long id : ids) {
+                        NameIndex.this.add(group.name, id);
+                    }
+                }
+            }
+            groups.clear();
+        }
+
+        /**
+         * Writes everything loaded as the postings of an index, in key
+         * order: for each key a marker byte of 1, the key, the number of
+         * ids and the ids in order, then a marker byte of 0.
+         */
+        void writeTo(DataOutput out) throws IOException {
+            String[] keys = new String[groups.size()];
+            Map<String, Group> byKey = new HashMap<String, Group>(
+                    groups.size() * 2);
+            int i = 0;
+            for (Group group : groups.values()) {
+                keys[i] = keyOf(group.name);
+                byKey.put(keys[i++], group);
+            }
+            Arrays.sort(keys);
+            for (String key : keys) {
+                Group group = byKey.get(key);
+                long[] ids = Arrays.copyOf(group.ids, group.size);
+                Arrays.sort(ids);
+                out.writeByte(1);
+                out.writeUTF(key);
+                out.writeInt(ids.length);
+                for (long id : ids) {
+                    out.writeLong(id);
+                }
+            }
+            out.writeByte(0);
+        }
+    }
+
+    private static class Group {
+
+        private final String name;
+        private long[] ids = new long[4];
+        private int size;
+
+        Group(String name) {
+            this.name = name;
+        }
+
+        void add(long id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+    }
+
+}
@@ -0,0 +1,17 @@
+package JavaSource.com.apress.expertspringmvc.flight.service;
+
+/**
+ * How a name search compares the search term with account names.
+ */
+public enum NameMatch {
+
+    /** The whole name, with the same case. */
+    EXACT,
+
+    /** The whole name, in any case. */
+    IGNORE_CASE,
+
+    /** The start of the name, in any case. */
+    PREFIX
+
+}
@@ -0,0 +1,88 @@
+package JavaSource.com.apress.expertspringmvc.flight.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import JavaSource.com.apress.expertspringmvc.flight.domain.SortKey;
+
+/**
+ * The set of itineraries not dominated on total price, total travel time
+ * and number of legs.  Itineraries are held as leg positions in a
+ * {@link LegIndex} with price in cents and travel time in minutes.  Not
+ * thread safe; each search task builds its own and the results are merged.
+ * <p>
+ * The cost compared is the {@link FareEngine} price, deals included, as
+ * the itineraries are ranked by.  A price never falls as fares or legs are
+ * added, so the price of a partial itinerary bounds that of every
+ * itinerary extending it.
+ */
+class ParetoFront implements ItinerarySet {
+
+    private final SortKey sortBy;
+    private final List<Candidate> itineraries = new ArrayList<Candidate>();
+
+    /**
+     * @param sortBy the order the front is ranked in once complete
+     */
+    ParetoFront(SortKey sortBy) {
+        this.sortBy = sortBy;
+    }
+
+    /**
+     * @return true if some itinerary already found is at least as good as
+     * the given bounds on every objective, so nothing with those bounds
+     * can enter the front
+     */
+    public boolean covers(long fare, long price, long travelTime,
+            int numberOfLegs, long departure) {
+        for (int i = 0, n = itineraries.size(); i < n; i++) {
+            Candidate it = itineraries.get(i);
+            if (it.price <= price && it.travelTime <= travelTime
+                    && it.legs.length <= numberOfLegs) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds the itinerary unless it is dominated, evicting anything it
+     * dominates.
+     */
+    public void add(Candidate candidate) {
+        for (Candidate it : itineraries) {
+            if (dominates(it, candidate)) {
+                return;
+            }
+        }
+        for (int i = itineraries.size() - 1; i >= 0; i--) {
+            if (dominates(candidate, itineraries.get(i))) {
+                itineraries.remove(i);
+            }
+        }
+        itineraries.add(candidate);
+    }
+
+    public Collection<Candidate> candidates() {
+        return itineraries;
+    }
+
+    public FlightCursor toCursor(LegIndex index) {
+        Candidate[] ranked =
+            itineraries.toArray(new Candidate[itineraries.size()]);
+        Arrays.sort(ranked, Candidate.orderBy(sortBy));
+        return Candidate.cursorOver(ranked, index);
+    }
+
+    private static boolean dominates(Candidate a, Candidate b) {
+        if (a.price > b.price || a.travelTime > b.travelTime
+                || a.legs.length > b.legs.length) {
+            return false;
+        }
+        return a.price < b.price || a.travelTime < b.travelTime
+            || a.legs.length < b.legs.length;
+    }
+
+}
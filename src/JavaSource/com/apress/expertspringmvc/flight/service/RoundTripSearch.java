@@ -0,0 +1,315 @@
+package JavaSource.com.apress.expertspringmvc.flight.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+
+import JavaSource.com.apress.expertspringmvc.flight.domain.Flight;
+import JavaSource.com.apress.expertspringmvc.flight.domain.FlightSearchCriteria;
+import JavaSource.com.apress.expertspringmvc.flight.domain.RoundTrip;
+import JavaSource.com.apress.expertspringmvc.flight.domain.SortKey;
+
+/**
+ * Finds the cheapest round trips for a search with a return date.  The
+ * flights each way come from two one-way searches of a
+ * {@link FlightService}, run at the same time, and are then joined: each
+ * outbound flight is paired with the inbound flights leaving after it
+ * lands, cheapest first, so the pairs are never all built.
+ * <p>
+ * The outbound flights are split across a fork/join pool, cheapest first,
+ * and every task keeps its best few pairs in a heap.  Once a heap is full
+ * its worst total is published to a bound shared by the whole search, as
+ * {@link TopItineraries} does: an outbound flight stops pairing when its
+ * total passes the bound, and no later outbound flight is paired once even
+ * the cheapest return would pass it.
+ * <p>
+ * Each direction's flights are those its one-way search returns without a
+ * limit, which for a {@link ScheduleFlightService} is the Pareto front
+ * over price, travel time and legs.  A return off the front is only missed
+ * when the front's returns all leave before the outbound flight lands.
+ * <p>
+ * Without a pool of its own, the search shares the one
+ * {@link ConnectionSearch} uses by default.
+ */
+public class RoundTripSearch {
+
+    private static final long ONE_MINUTE = 1000*60;
+
+    private final FlightService flights;
+    private final ForkJoinPool pool;
+    private int maxRoundTrips = 50;
+    private long minTurnaround = 60*ONE_MINUTE;
+    private int sequentialThreshold = 16;
+
+    public RoundTripSearch(FlightService flights) {
+        this(flights, ConnectionSearch.SHARED_POOL);
+    }
+
+    public RoundTripSearch(FlightService flights, ForkJoinPool pool) {
+        Assert.notNull(flights, "Flight service must not be null");
+        Assert.notNull(pool, "Pool must not be null");
+        this.flights = flights;
+        this.pool = pool;
+    }
+
+    /**
+     * @param maxRoundTrips the most round trips returned, whatever the
+     * search's limit
+     */
+    public void setMaxRoundTrips(int maxRoundTrips) {
+        Assert.isTrue(maxRoundTrips > 0, "Maximum round trips must be positive");
+        this.maxRoundTrips = maxRoundTrips;
+    }
+
+    /**
+     * @param minTurnaround milliseconds between landing and leaving again
+     */
+    public void setMinTurnaround(long minTurnaround) {
+        Assert.isTrue(minTurnaround >= 0,
+                "Minimum turnaround must not be negative");
+        this.minTurnaround = minTurnaround;
+    }
+
+    /**
+     * @param sequentialThreshold how many outbound flights one task pairs
+     * before it splits the rest off to other workers
+     */
+    public void setSequentialThreshold(int sequentialThreshold) {
+        Assert.isTrue(sequentialThreshold >= 1,
+                "Sequential threshold must be positive");
+        this.sequentialThreshold = sequentialThreshold;
+    }
+
+    /**
+     * @return the cheapest round trips, cheapest first, up to the search's
+     * limit; none for a search without both airports and both dates
+     */
+    public List<RoundTrip> search(FlightSearchCriteria search) {
+        if (!StringUtils.hasText(search.getDepartFrom())
+                || !StringUtils.hasText(search.getArriveAt())
+                || search.getDepartOn() == null
+                || search.getReturnOn() == null) {
+            return new ArrayList<RoundTrip>();
+        }
+        int limit = (search.getLimit() > 0 ?
+                Math.min(search.getLimit(), maxRoundTrips) : maxRoundTrips);
+        final FlightSearchCriteria back = oneWay(search.getArriveAt(),
+                search.getDepartFrom(), search.getReturnOn());
+        ForkJoinTask<List<Flight>> returns = pool.submit(
+                new Callable<List<Flight>>() {
+                    public List<Flight> call() {
+                        return flights.findFlights(back);
+                    }
+                });
+        Flight[] outbound = cheapestFirst(flights.findFlights(oneWay(
+                search.getDepartFrom(), search.getArriveAt(),
+                search.getDepartOn())));
+        Flight[] inbound = cheapestFirst(returns.join());
+        if (outbound.length == 0 || inbound.length == 0) {
+            return new ArrayList<RoundTrip>();
+        }
+        Join join = new Join(outbound, inbound, limit);
+        PriorityQueue<Pair> best =
+            pool.invoke(new JoinTask(join, 0, outbound.length));
+        Pair[] ranked = best.toArray(new Pair[best.size()]);
+        Arrays.sort(ranked, Pair.ORDER);
+        List<RoundTrip> trips = new ArrayList<RoundTrip>(ranked.length);
+        for (Pair pair : ranked) {
+            trips.add(new RoundTrip(outbound[pair.out], inbound[pair.in]));
+        }
+        return trips;
+    }
+
+    private static FlightSearchCriteria oneWay(String departFrom,
+            String arriveAt, Date departOn) {
+        FlightSearchCriteria search = new FlightSearchCriteria();
+        search.setDepartFrom(departFrom);
+        search.setArriveAt(arriveAt);
+        search.setDepartOn(departOn);
+        search.setSortBy(SortKey.COST);
+        return search;
+    }
+
+    /**
+     * @return the priced flights, cheapest first
+     */
+    private static Flight[] cheapestFirst(List<Flight> found) {
+        List<Flight> priced = new ArrayList<Flight>(found.size());
+        for (Flight flight : found) {
+            if (flight.getTotalPrice() != null) {
+                priced.add(flight);
+            }
+        }
+        Collections.sort(priced, SortKey.COST);
+        return priced.toArray(new Flight[priced.size()]);
+    }
+
+    /**
+     * An outbound and an inbound flight by position, with their total in
+     * cents.
+     */
+    private static class Pair {
+
+        static final Comparator<Pair> ORDER = new Comparator<Pair>() {
+            public int compare(Pair a, Pair b) {
+                return compareTo(a, b.total, b.out, b.in);
+            }
+        };
+
+        private final int out;
+        private final int in;
+        private final long total;
+
+        Pair(int out, int in, long total) {
+            this.out = out;
+            this.in = in;
+            this.total = total;
+        }
+
+        /**
+         * Orders by total, then by the flights' own order, so the result
+         * does not depend on how the work was split.
+         */
+        static int compareTo(Pair a, long total, int out, int in) {
+            if (a.total != total) {
+                return (a.total < total ? -1 : 1);
+            }
+            if (a.out != out) {
+                return (a.out < out ? -1 : 1);
+            }
+            return (a.in < in ? -1 : (a.in == in ? 0 : 1));
+        }
+    }
+
+    /**
+     * Both directions' prices and times as columns, and the bound shared by
+     * every task of one search.
+     */
+    private class Join {
+
+        private final long[] outPrice;
+        private final long[] outArrival;
+        private final long[] inPrice;
+        private final long[] inDeparture;
+        private final int limit;
+        private final AtomicLong bound = new AtomicLong(Long.MAX_VALUE);
+
+        Join(Flight[] outbound, Flight[] inbound, int limit) {
+            this.outPrice = new long[outbound.length];
+            this.outArrival = new long[outbound.length];
+            for (int i = 0; i < outbound.length; i++) {
+                outPrice[i] = outbound[i].getTotalPrice().getCents();
+                outArrival[i] = outbound[i].getArriveOn().getTime();
+            }
+            this.inPrice = new long[inbound.length];
+            this.inDeparture = new long[inbound.length];
+            for (int i = 0; i < inbound.length; i++) {
+                inPrice[i] = inbound[i].getTotalPrice().getCents();
+                inDeparture[i] = inbound[i].getDepartOn().getTime();
+            }
+            this.limit = limit;
+        }
+
+        PriorityQueue<Pair> newHeap() {
+            return new PriorityQueue<Pair>(Math.min(limit, 64) + 1,
+                    Collections.reverseOrder(Pair.ORDER));
+        }
+
+        /**
+         * Pairs one outbound flight with every return that fits and is
+         * cheap enough.
+         *
+         * @return false if no outbound flight from this one on can make a
+         * pair cheap enough
+         */
+        boolean pair(int out, PriorityQueue<Pair> best) {
+            long price = outPrice[out];
+            if (price + inPrice[0] > bound.get()) {
+                return false;
+            }
+            long ready = outArrival[out] + minTurnaround;
+            for (int in = 0; in < inPrice.length; in++) {
+                long total = price + inPrice[in];
+                if (total > bound.get()) {
+                    break;
+                }
+                if (inDeparture[in] >= ready) {
+                    offer(best, out, in, total);
+                }
+            }
+            return true;
+        }
+
+        void offer(PriorityQueue<Pair> best, int out, int in, long total) {
+            if (best.size() < limit) {
+                best.add(new Pair(out, in, total));
+            } else if (Pair.compareTo(best.peek(), total, out, in) > 0) {
+                best.poll();
+                best.add(new Pair(out, in, total));
+            } else {
+                return;
+            }
+            if (best.size() == limit) {
+                lowerBound(best.peek().total);
+            }
+        }
+
+        private void lowerBound(long total) {
+            long current;
+            while (total < (current = bound.get())) {
+                if (bound.compareAndSet(current, total)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private class JoinTask extends RecursiveTask<PriorityQueue<Pair>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Join join;
+        private final int lo;
+        private final int hi;
+
+        JoinTask(Join join, int lo, int hi) {
+            this.join = join;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected PriorityQueue<Pair> compute() {
+            if (hi - lo <= sequentialThreshold) {
+                PriorityQueue<Pair> best = join.newHeap();
+                for (int out = lo; out < hi; out++) {
+                    if (!join.pair(out, best)) {
+                        break;
+                    }
+                }
+                return best;
+            }
+            int mid = (lo + hi) >>> 1;
+            JoinTask right = new JoinTask(join, mid, hi);
+            right.fork();
+            PriorityQueue<Pair> best = new JoinTask(join, lo, mid).compute();
+            for (Pair pair : right.join()) {
+                join.offer(best, pair.out, pair.in, pair.total);
+            }
+            return best;
+        }
+    }
+
+}
@@ -0,0 +1,90 @@
+package JavaSource.com.apress.expertspringmvc.flight.service;
+
+import java.util.Date;
+
+import org.springframework.util.Assert;
+
+import JavaSource.com.apress.expertspringmvc.flight.domain.FlightLeg;
+
+/**
+ * One change to a timetable: a leg added, cancelled or retimed.  A leg is
+ * named by its origin, destination and departure time, as in a flight
+ * status feed; changes naming a leg that is not in the timetable are
+ * ignored, so a change sent twice does no harm.  Immutable.
+ */
+public class ScheduleChange {
+
+    public enum Type { ADD, CANCEL, RETIME }
+
+    private final Type type;
+    private final FlightLeg leg;
+    private final Date newDepartOn;
+    private final Date newArriveOn;
+
+    private ScheduleChange(Type type, FlightLeg leg, Date newDepartOn,
+            Date newArriveOn) {
+        Assert.notNull(leg, "Leg must not be null");
+        Assert.notNull(leg.getDepartFrom(), "Leg must have an origin");
+        Assert.notNull(leg.getArriveAt(), "Leg must have a destination");
+        Assert.notNull(leg.getDepartOn(), "Leg must have a departure time");
+        this.type = type;
+        this.leg = leg;
+        this.newDepartOn = newDepartOn;
+        this.newArriveOn = newArriveOn;
+    }
+
+    public static ScheduleChange add(FlightLeg leg) {
+        Assert.isTrue(leg.getArriveOn() != null
+                && leg.getArriveOn().after(leg.getDepartOn()),
+                "Legs must arrive after they depart");
+        return new ScheduleChange(Type.ADD, leg, null, null);
+    }
+
+    /**
+     * @param leg the leg's route and departure; its other fields are not
+     * used
+     */
+    public static ScheduleChange cancel(FlightLeg leg) {
+        return new ScheduleChange(Type.CANCEL, leg, null, null);
+    }
+
+    /**
+     * Moves a leg to new times, keeping its route and fare.
+     *
+     * @param leg the leg's route and current departure
+     */
+    public static ScheduleChange retime(FlightLeg leg, Date departOn,
+            Date arriveOn) {
+        Assert.isTrue(departOn != null && arriveOn != null
+                && arriveOn.after(departOn),
+                "Legs must arrive after they depart");
+        return new ScheduleChange(Type.RETIME, leg, departOn, arriveOn);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return the leg added, or the leg as it was before being cancelled
+     * or retimed
+     */
+    public FlightLeg getLeg() {
+        return leg;
+    }
+
+    /**
+     * @return a retimed leg's new departure, or null
+     */
+    public Date getNewDepartOn() {
+        return newDepartOn;
+    }
+
+    /**
+     * @return a retimed leg's new arrival, or null
+     */
+    public Date getNewArriveOn() {
+        return newArriveOn;
+    }
+
+}
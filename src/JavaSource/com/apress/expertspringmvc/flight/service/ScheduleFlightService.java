@@ -0,0 +1,376 @@
+package JavaSource.com.apress.expertspringmvc.flight.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+
+import JavaSource.com.apress.expertspringmvc.flight.domain.FareCalendar;
+import JavaSource.com.apress.expertspringmvc.flight.domain.Flight;
+import JavaSource.com.apress.expertspringmvc.flight.domain.FlightLeg;
+import JavaSource.com.apress.expertspringmvc.flight.domain.FlightSearchCriteria;
+import JavaSource.com.apress.expertspringmvc.flight.domain.Money;
+import JavaSource.com.apress.expertspringmvc.flight.domain.SortKey;
+import JavaSource.com.apress.expertspringmvc.flight.domain.SpecialDeal;
+
+/**
+ * A FlightService backed by a {@link LegIndex}, either an in-memory
+ * {@link FlightSchedule} or a {@link MappedSchedule} snapshot.  A search
+ * looks up the origin and scans the legs departing within the search window,
+ * so its cost does not grow with the size of the whole timetable.  Searches
+ * naming a destination are handed to a {@link ConnectionSearch} and return
+ * connecting itineraries as well as nonstops.  Every flight is priced by
+ * the {@link FareEngine}, taking the route's special deals into account.
+ * <p>
+ * The schedule may be replaced or changed while searches run.  Each
+ * search reads whichever version was published when it started, see
+ * {@link #applyChanges(List)}.
+ */
+public class ScheduleFlightService implements FlightService {
+
+    private static final long ONE_DAY = 1000*60*60*24;
+
+    // the schedule and its fares, published together
+    private final AtomicReference<DailyFareTable> timetable =
+        new AtomicReference<DailyFareTable>(DailyFareTable.build(
+                new FlightSchedule(Collections.<FlightLeg>emptyList())));
+    private volatile SpecialDealIndex specialDeals =
+        new SpecialDealIndex(Collections.<SpecialDeal>emptyList());
+    private long searchWindow = ONE_DAY;
+    private ConnectionSearch connectionSearch = new ConnectionSearch();
+    private AirportRegistry airports = new AirportRegistry();
+    private FareEngine fareEngine = new FareEngine();
+    private int maxFlexibleDays = 7;
+
+    public ScheduleFlightService() {
+        connectionSearch.setFareEngine(fareEngine);
+    }
+
+    /**
+     * Publishes the schedule with an empty {@link DailyFareTable}, which
+     * fills in an origin's fares on its first search, so nothing here scans
+     * the legs.  The two are published together in one swap, so a search
+     * never sees the fares of one schedule with the legs of another.
+     */
+    public void setSchedule(LegIndex schedule) {
+        Assert.notNull(schedule, "Schedule must not be null");
+        timetable.set(DailyFareTable.build(schedule));
+    }
+
+    /**
+     * Applies changes to the schedule and publishes the result in one swap.
+     * Searches already running finish on the schedule they started with,
+     * and none waits for the changes to be applied.  The first changes copy
+     * the schedule into a {@link LiveSchedule}; after that only the legs
+     * and daily fares of the origins changed are copied.
+     */
+    public void applyChanges(List<ScheduleChange> changes) {
+        Assert.notNull(changes, "Changes must not be null");
+        while (true) {
+            DailyFareTable current = timetable.get();
+            DailyFareTable next = applyChanges(current, changes);
+            if (timetable.compareAndSet(current, next)) {
+                return;
+            }
+        }
+    }
+
+    private DailyFareTable applyChanges(DailyFareTable current,
+            List<ScheduleChange> changes) {
+        LegIndex schedule = current.getSchedule();
+        if (!(schedule instanceof LiveSchedule)) {
+            return DailyFareTable.build(
+                    LiveSchedule.copyOf(schedule, airports).apply(changes));
+        }
+        LiveSchedule next = ((LiveSchedule) schedule).apply(changes);
+        // the days each origin's changes depart on, before and after
+        Map<Integer, long[]> days = new LinkedHashMap<Integer, long[]>();
+        for (ScheduleChange change : changes) {
+            int origin = next.airportId(
+                    change.getLeg().getDepartFrom().getAirportCode());
+            if (origin < 0) {
+                continue;
+            }
+            long day = change.getLeg().getDepartOn().getTime() / ONE_DAY;
+            long[] range = days.get(origin);
+            if (range == null) {
+                range = new long[] { day, day };
+                days.put(origin, range);
+            }
+            range[0] = Math.min(range[0], day);
+            range[1] = Math.max(range[1], day);
+            if (change.getNewDepartOn() != null) {
+                day = change.getNewDepartOn().getTime() / ONE_DAY;
+                range[0] = Math.min(range[0], day);
+                range[1] = Math.max(range[1], day);
+            }
+        }
+        if (days.isEmpty()) {
+            return current;
+        }
+        DailyFareTable fares = current;
+        for (Map.Entry<Integer, long[]> range : days.entrySet()) {
+            fares = fares.refresh(next, range.getKey(), range.getValue()[0],
+                    range.getValue()[1]);
+        }
+        return fares;
+    }
+
+    public void setLegs(List<FlightLeg> legs) {
+        setSchedule(new FlightSchedule(legs, airports));
+    }
+
+    /**
+     * @param airports the registry that numbers airports for schedules
+     * built from {@link #setLegs(List) legs}
+     */
+    public void setAirportRegistry(AirportRegistry airports) {
+        Assert.notNull(airports, "Airport registry must not be null");
+        this.airports = airports;
+    }
+
+    /**
+     * Serves searches straight from a snapshot written by
+     * {@link ScheduleSnapshot#write}, without loading it onto the heap.
+     *
+     * @param snapshotFile the snapshot, or null to keep the schedule held
+     * in memory
+     */
+    public void setSnapshotFile(File snapshotFile) throws IOException {
+        if (snapshotFile != null) {
+            setSchedule(MappedSchedule.open(snapshotFile));
+        }
+    }
+
+    public LegIndex getSchedule() {
+        return timetable.get().getSchedule();
+    }
+
+    public void setSpecialDeals(List<SpecialDeal> specialDeals) {
+        this.specialDeals = new SpecialDealIndex(specialDeals, airports);
+    }
+
+    /**
+     * @param searchWindow how many milliseconds after the requested departure
+     * a leg may leave and still match
+     */
+    public void setSearchWindow(long searchWindow) {
+        Assert.isTrue(searchWindow > 0, "Search window must be positive");
+        this.searchWindow = searchWindow;
+    }
+
+    /**
+     * @param connectionSearch the search for connections, which is given
+     * this service's {@link #setFareEngine(FareEngine) fare engine}
+     */
+    public void setConnectionSearch(ConnectionSearch connectionSearch) {
+        Assert.notNull(connectionSearch, "Connection search must not be null");
+        connectionSearch.setFareEngine(fareEngine);
+        this.connectionSearch = connectionSearch;
+    }
+
+    /**
+     * @param fareEngine the engine pricing every flight, nonstop or
+     * connecting; it is handed on to the connection search
+     */
+    public void setFareEngine(FareEngine fareEngine) {
+        Assert.notNull(fareEngine, "Fare engine must not be null");
+        this.fareEngine = fareEngine;
+        connectionSearch.setFareEngine(fareEngine);
+    }
+
+    /**
+     * @param maxFlexibleDays the most days either side of the requested
+     * dates a fare calendar covers
+     */
+    public void setMaxFlexibleDays(int maxFlexibleDays) {
+        Assert.isTrue(maxFlexibleDays >= 0,
+                "Flexible days must not be negative");
+        this.maxFlexibleDays = maxFlexibleDays;
+    }
+
+    /**
+     * @return the deals valid now
+     */
+    public List<SpecialDeal> getSpecialDeals() {
+        return specialDeals.findValidOn(System.currentTimeMillis());
+    }
+
+    public List<SpecialDeal> findSpecialDeals(FlightSearchCriteria search) {
+        if (search.getDepartOn() == null) {
+            return new ArrayList<SpecialDeal>();
+        }
+        return specialDeals.findValidOn(search.getDepartFrom(),
+                search.getArriveAt(), search.getDepartOn().getTime());
+    }
+
+    public List<Flight> findFlights(FlightSearchCriteria search) {
+        FlightCursor cursor = openSearch(search);
+        return cursor.fetch(0, cursor.size());
+    }
+
+    /**
+     * Searches naming a destination keep the itineraries found as leg
+     * positions, and searches without one the positions of the nonstops
+     * ranked.  Either way FlightLegs are created only for the page fetched.
+     */
+    public FlightCursor openSearch(FlightSearchCriteria search) {
+        LegIndex current = getSchedule();
+        if (search.getDepartFrom() == null || search.getDepartOn() == null) {
+            return new ListFlightCursor(Collections.<Flight>emptyList());
+        }
+        long from = search.getDepartOn().getTime();
+        if (StringUtils.hasText(search.getArriveAt())) {
+            long dealFare = FareEngine.dealFare(specialDeals.findValidOn(
+                    search.getDepartFrom(), search.getArriveAt(), from));
+            return connectionSearch.open(current, search.getDepartFrom(),
+                    search.getArriveAt(), from, from + searchWindow, dealFare,
+                    search.getSortBy(), Math.max(search.getLimit(), 0));
+        }
+        int origin = current.airportId(search.getDepartFrom());
+        if (origin < 0) {
+            return new ListFlightCursor(Collections.<Flight>emptyList());
+        }
+        int first = current.firstDeparting(origin,
+                AbstractLegIndex.toMinuteCeiling(from));
+        int last = current.firstDeparting(origin,
+                AbstractLegIndex.toMinuteCeiling(from + searchWindow));
+        int limit = (search.getLimit() > 0 ?
+                Math.min(search.getLimit(), last - first) : last - first);
+        return rankNonstops(current, first, last, search.getSortBy(), limit,
+                new RouteDeals(current, search.getDepartFrom(), from));
+    }
+
+    /**
+     * Keeps the best of the nonstops at leg positions [first, last) in a
+     * bounded heap, creating nothing for a leg that cannot get in.  Legs
+     * are in order of departure, so ranking by departure stops at the
+     * first leg leaving after the heap's worst.  Each leg is priced with
+     * the deals on its route, as connections are.
+     */
+    private FlightCursor rankNonstops(LegIndex current, int first, int last,
+            SortKey sortBy, int limit, RouteDeals deals) {
+        if (limit == 0) {
+            return new ListFlightCursor(Collections.<Flight>emptyList());
+        }
+        TopItineraries best = new TopItineraries(sortBy, limit,
+                new AtomicLong(Long.MAX_VALUE));
+        for (int leg = first; leg < last; leg++) {
+            long fare = FareEngine.fareOf(current, leg);
+            long price = fareEngine.price(fare, 1,
+                    deals.dealFareTo(current.destinationOf(leg)));
+            long departure = current.departureOf(leg);
+            if (sortBy == SortKey.DEPARTURE
+                    && best.covers(0, 0, 0, 1, departure)) {
+                break;
+            }
+            long travelTime = current.arrivalOf(leg) - departure;
+            if (!best.covers(fare, price, travelTime, 1, departure)) {
+                best.add(new Candidate(new int[] { leg }, fare, price,
+                        travelTime, departure));
+            }
+        }
+        return best.toCursor(current);
+    }
+
+    /**
+     * Finds each direction's lowest price for every day in one pass of the
+     * {@link ConnectionSearch}, seeded from the {@link DailyFareTable} so
+     * only itineraries cheaper than a day's best nonstop are expanded.
+     */
+    public FareCalendar findFareCalendar(FlightSearchCriteria search) {
+        DailyFareTable fares = timetable.get();
+        int flexibleDays = Math.max(0,
+                Math.min(search.getFlexibleDays(), maxFlexibleDays));
+        if (search.getDepartFrom() == null || search.getDepartOn() == null
+                || !StringUtils.hasText(search.getArriveAt())) {
+            return new FareCalendar(0, new Money[0]);
+        }
+        long departOn = search.getDepartOn().getTime();
+        Money[] departPrices = lowestPrices(fares, search.getDepartFrom(),
+                search.getArriveAt(), departOn, flexibleDays);
+        if (search.getReturnOn() == null) {
+            return new FareCalendar(departOn / ONE_DAY - flexibleDays,
+                    departPrices);
+        }
+        long returnOn = search.getReturnOn().getTime();
+        Money[] returnPrices = lowestPrices(fares, search.getArriveAt(),
+                search.getDepartFrom(), returnOn, flexibleDays);
+        return new FareCalendar(departOn / ONE_DAY - flexibleDays,
+                departPrices, returnOn / ONE_DAY - flexibleDays, returnPrices);
+    }
+
+    /**
+     * @return the lowest price from one airport to another for each day
+     * within flexibleDays of the given time, null for a day with none
+     */
+    private Money[] lowestPrices(DailyFareTable fares, String departFrom,
+            String arriveAt, long around, int flexibleDays) {
+        long firstDay = around / ONE_DAY - flexibleDays;
+        long[] dealFares = new long[2*flexibleDays + 1];
+        for (int day = 0; day < dealFares.length; day++) {
+            dealFares[day] = FareEngine.dealFare(specialDeals.findValidOn(
+                    departFrom, arriveAt,
+                    around + (day - flexibleDays) * ONE_DAY));
+        }
+        long[] lowest = connectionSearch.findLowestPrices(fares, departFrom,
+                arriveAt, firstDay, dealFares);
+        Money[] prices = new Money[lowest.length];
+        for (int day = 0; day < lowest.length; day++) {
+            if (lowest[day] != LegIndex.NO_FARE) {
+                prices[day] = Money.ofCents(lowest[day]);
+            }
+        }
+        return prices;
+    }
+
+    /**
+     * The lowest deal fare from one origin to each destination, looked up
+     * the first time a leg to that destination is priced.
+     */
+    private class RouteDeals {
+
+        private static final long UNKNOWN = Long.MIN_VALUE;
+
+        private final LegIndex schedule;
+        private final String departFrom;
+        private final long time;
+        private final SpecialDealIndex deals = specialDeals;
+        private long[] dealFares = new long[0];
+
+        RouteDeals(LegIndex schedule, String departFrom, long time) {
+            this.schedule = schedule;
+            this.departFrom = departFrom;
+            this.time = time;
+        }
+
+        /**
+         * @return the lowest deal fare in cents, or
+         * {@link FareEngine#NO_DEAL}
+         */
+        long dealFareTo(int destination) {
+            if (destination >= dealFares.length) {
+                int known = dealFares.length;
+                dealFares = Arrays.copyOf(dealFares,
+                        Math.max(destination + 1, 2*known));
+                Arrays.fill(dealFares, known, dealFares.length, UNKNOWN);
+            }
+            if (dealFares[destination] == UNKNOWN) {
+                dealFares[destination] = FareEngine.dealFare(
+                        deals.findValidOn(departFrom, schedule.airport(
+                                destination).getAirportCode(), time));
+            }
+            return dealFares[destination];
+        }
+    }
+
+}
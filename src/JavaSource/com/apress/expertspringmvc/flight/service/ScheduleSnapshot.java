@@ -0,0 +1,148 @@
+package JavaSource.com.apress.expertspringmvc.flight.service;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import org.springframework.util.Assert;
+
+import JavaSource.com.apress.expertspringmvc.flight.domain.FlightLeg;
+
+/**
+ * Writes a timetable as a binary snapshot that {@link MappedSchedule} can map
+ * and query in place.  The layout, all big-endian, is
+ * <pre>
+ *  header     magic, version, airport count, leg count, directory length,
+ *             leg checksum, header and directory checksum
+ *  directory  per airport: first leg, leg count, code, name
+ *  legs       fixed 32 byte records sorted by origin then departure:
+ *             origin id, destination id, departure, arrival, fare in cents
+ * </pre>
+ * The header and directory checksum covers everything but the legs and is
+ * cheap enough to check on every open; the leg checksum is checked on demand.
+ */
+public final class ScheduleSnapshot {
+
+    static final int MAGIC = 0x41534348;
+    static final short VERSION = 1;
+
+    static final int HEADER_SIZE = 36;
+    static final int LEG_SIZE = 32;
+
+    static final int AIRPORT_COUNT_OFFSET = 8;
+    static final int LEG_COUNT_OFFSET = 12;
+    static final int DIRECTORY_LENGTH_OFFSET = 16;
+    static final int LEGS_CHECKSUM_OFFSET = 20;
+    static final int DIRECTORY_CHECKSUM_OFFSET = 28;
+
+    private ScheduleSnapshot() { }
+
+    /**
+     * Writes the legs to a snapshot file, replacing any existing file only
+     * once the new one is complete.
+     */
+    public static void write(Collection<FlightLeg> legs, File file)
+            throws IOException {
+        Assert.notNull(legs, "Legs must not be null");
+        final AirportRegistry airports = new AirportRegistry();
+        for (FlightLeg leg : legs) {
+            airports.register(leg.getDepartFrom());
+            airports.register(leg.getArriveAt());
+        }
+
+        FlightLeg[] sorted = legs.toArray(new FlightLeg[legs.size()]);
+        Arrays.sort(sorted, new Comparator<FlightLeg>() {
+            public int compare(FlightLeg a, FlightLeg b) {
+                int byOrigin = airports.register(a.getDepartFrom()) -
+                    airports.register(b.getDepartFrom());
+                if (byOrigin != 0) {
+                    return byOrigin;
+                }
+                return a.getDepartOn().compareTo(b.getDepartOn());
+            }
+        });
+        int[] firstLeg = new int[airports.size()];
+        int[] legCount = new int[airports.size()];
+        for (int i = sorted.length - 1; i >= 0; i--) {
+            int origin = airports.register(sorted[i].getDepartFrom());
+            firstLeg[origin] = i;
+            legCount[origin]++;
+        }
+
+        ByteArrayOutputStream directoryBytes = new ByteArrayOutputStream();
+        DataOutputStream directory = new DataOutputStream(directoryBytes);
+        for (int id = 0; id < airports.size(); id++) {
+            directory.writeInt(legCount[id] == 0 ? 0 : firstLeg[id]);
+            directory.writeInt(legCount[id]);
+            writeString(directory, airports.airport(id).getAirportCode());
+            writeString(directory, airports.airport(id).getName());
+        }
+        directory.close();
+
+        File tmp = new File(file.getPath() + ".tmp");
+        RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+        try {
+            raf.setLength(0);
+            FileChannel channel = raf.getChannel();
+            channel.position(HEADER_SIZE);
+            channel.write(ByteBuffer.wrap(directoryBytes.toByteArray()));
+
+            CRC32 legsCrc = new CRC32();
+            DataOutputStream out = new DataOutputStream(
+                    new CheckedOutputStream(new BufferedOutputStream(
+                            Channels.newOutputStream(channel), 1 << 16),
+                            legsCrc));
+            for (FlightLeg leg : sorted) {
+                out.writeInt(airports.register(leg.getDepartFrom()));
+                out.writeInt(airports.register(leg.getArriveAt()));
+                out.writeLong(leg.getDepartOn().getTime());
+                out.writeLong(leg.getArriveOn().getTime());
+                out.writeLong(AbstractLegIndex.toCents(leg.getFare()));
+            }
+            out.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC);
+            header.putShort(VERSION);
+            header.putShort((short) 0);
+            header.putInt(airports.size());
+            header.putInt(sorted.length);
+            header.putInt(directoryBytes.size());
+            header.putLong(legsCrc.getValue());
+            CRC32 directoryCrc = new CRC32();
+            directoryCrc.update(header.array(), 0, DIRECTORY_CHECKSUM_OFFSET);
+            directoryCrc.update(directoryBytes.toByteArray());
+            header.putLong(directoryCrc.getValue());
+            header.flip();
+            channel.write(header, 0);
+            channel.force(true);
+        } finally {
+            raf.close();
+        }
+        Files.move(tmp.toPath(), file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeString(DataOutputStream out, String value)
+            throws IOException {
+        byte[] bytes = (value == null ? "" : value).getBytes("UTF-8");
+        Assert.isTrue(bytes.length <= 0xffff, "String too long: " + value);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+}
@@ -0,0 +1,208 @@
+package JavaSource.com.apress.expertspringmvc.flight.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.util.Assert;
+
+/**
+ * Feeds {@link ScheduleChange}s to a {@link ScheduleFlightService} from a
+ * single writer thread.  Submitting a change only queues it.  The writer
+ * applies whatever has arrived as one batch and publishes it as one new
+ * version of the schedule, so a burst of changes copies each origin it
+ * touches once rather than once per change.  Searches never wait for the
+ * writer; they read the version published when they started.
+ * <p>
+ * The publication lag, from a change being submitted to searches seeing
+ * it, is recorded for every change.  With a {@link CachingFlightService}
+ * in front of the service, the cached searches from each changed origin
+ * are dropped once its changes are published.
+ */
+public class ScheduleUpdater implements DisposableBean {
+
+    private static final Log logger =
+        LogFactory.getLog(ScheduleUpdater.class);
+
+    private final ScheduleFlightService flights;
+    private final BlockingQueue<Submitted> queue;
+    private final Thread writer;
+    private volatile int maxBatch = 10000;
+    private volatile CachingFlightService cache;
+
+    private final AtomicLong versions = new AtomicLong();
+    private final AtomicLong applied = new AtomicLong();
+    private final AtomicLong totalLag = new AtomicLong();
+    private final AtomicLong maxLag = new AtomicLong();
+
+    public ScheduleUpdater(ScheduleFlightService flights) {
+        this(flights, 100000);
+    }
+
+    /**
+     * @param capacity how many changes may wait to be applied before
+     * more are refused
+     */
+    public ScheduleUpdater(ScheduleFlightService flights, int capacity) {
+        Assert.notNull(flights, "Flight service must not be null");
+        Assert.isTrue(capacity > 0, "Capacity must be positive");
+        this.flights = flights;
+        this.queue = new LinkedBlockingQueue<Submitted>(capacity);
+        this.writer = new Thread(new Runnable() {
+            public void run() {
+                applyAll();
+            }
+        }, "schedule-updater");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * @param maxBatch the most changes published as one version
+     */
+    public void setMaxBatch(int maxBatch) {
+        Assert.isTrue(maxBatch > 0, "Batch size must be positive");
+        this.maxBatch = maxBatch;
+    }
+
+    /**
+     * @param cache the cache in front of the service, whose searches from
+     * changed origins are to be dropped
+     */
+    public void setCache(CachingFlightService cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Queues a change without waiting for it to be applied.
+     *
+     * @throws IllegalStateException if the queue is full
+     */
+    public void submit(ScheduleChange change) {
+        Assert.notNull(change, "Change must not be null");
+        if (!queue.offer(new Submitted(change, System.nanoTime()))) {
+            throw new IllegalStateException(
+                    "Too many schedule changes waiting to be applied");
+        }
+    }
+
+    public void submitAll(Collection<ScheduleChange> changes) {
+        for (ScheduleChange change : changes) {
+            submit(change);
+        }
+    }
+
+    /**
+     * @return how many versions of the schedule have been published
+     */
+    public long getVersionCount() {
+        return versions.get();
+    }
+
+    /**
+     * @return how many changes have been applied
+     */
+    public long getAppliedCount() {
+        return applied.get();
+    }
+
+    /**
+     * @return how many changes are waiting to be applied
+     */
+    public int getPendingCount() {
+        return queue.size();
+    }
+
+    /**
+     * @return the mean publication lag, in microseconds
+     */
+    public long getMeanLag() {
+        long count = applied.get();
+        return (count == 0 ? 0
+                : TimeUnit.NANOSECONDS.toMicros(totalLag.get() / count));
+    }
+
+    /**
+     * @return the longest publication lag, in microseconds
+     */
+    public long getMaxLag() {
+        return TimeUnit.NANOSECONDS.toMicros(maxLag.get());
+    }
+
+    public void destroy() {
+        writer.interrupt();
+    }
+
+    private void applyAll() {
+        List<Submitted> batch = new ArrayList<Submitted>();
+        try {
+            while (true) {
+                batch.add(queue.take());
+                queue.drainTo(batch, maxBatch - 1);
+                publish(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            // destroyed
+        }
+    }
+
+    private void publish(List<Submitted> batch) {
+        List<ScheduleChange> changes =
+            new ArrayList<ScheduleChange>(batch.size());
+        for (Submitted submitted : batch) {
+            changes.add(submitted.change);
+        }
+        try {
+            flights.applyChanges(changes);
+        } catch (RuntimeException e) {
+            logger.warn("Failed to apply " + changes.size()
+                    + " schedule changes", e);
+            return;
+        }
+        long now = System.nanoTime();
+        long lag = 0;
+        long longest = 0;
+        for (Submitted submitted : batch) {
+            lag += now - submitted.at;
+            longest = Math.max(longest, now - submitted.at);
+        }
+        // only the writer records lags
+        totalLag.addAndGet(lag);
+        maxLag.set(Math.max(maxLag.get(), longest));
+        applied.addAndGet(batch.size());
+        versions.incrementAndGet();
+
+        CachingFlightService searches = cache;
+        if (searches != null) {
+            Set<String> origins = new LinkedHashSet<String>();
+            for (ScheduleChange change : changes) {
+                origins.add(change.getLeg().getDepartFrom().getAirportCode());
+            }
+            for (String origin : origins) {
+                searches.invalidateRoute(origin, null);
+            }
+        }
+    }
+
+    private static class Submitted {
+
+        private final ScheduleChange change;
+        private final long at;
+
+        Submitted(ScheduleChange change, long at) {
+            this.change = change;
+            this.at = at;
+        }
+    }
+
+}
@@ -0,0 +1,220 @@
+package JavaSource.com.apress.expertspringmvc.flight.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.util.Assert;
+
+import JavaSource.com.apress.expertspringmvc.flight.domain.SpecialDeal;
+
+/**
+ * Special deals indexed by route and by validity window.  Each route, and
+ * the whole set, keeps a centered interval tree over the deals' begin and
+ * end times, so finding the deals valid at an instant costs a walk down the
+ * tree plus the deals returned, not a pass over every deal.  Immutable once
+ * built.
+ */
+public class SpecialDealIndex {
+
+    private final AirportRegistry airports;
+    private final List<SpecialDeal> deals;
+    private final IntervalNode all;
+    private final Map<Long, IntervalNode> byRoute;
+
+    public SpecialDealIndex(Collection<SpecialDeal> deals) {
+        this(deals, new AirportRegistry());
+    }
+
+    public SpecialDealIndex(Collection<SpecialDeal> deals,
+            AirportRegistry airports) {
+        Assert.notNull(deals, "Deals must not be null");
+        Assert.notNull(airports, "Airport registry must not be null");
+        this.airports = airports;
+        this.deals = Collections.unmodifiableList(
+                new ArrayList<SpecialDeal>(deals));
+
+        Map<Long, List<Entry>> routes = new HashMap<Long, List<Entry>>();
+        List<Entry> entries = new ArrayList<Entry>(deals.size());
+        for (SpecialDeal deal : deals) {
+            Entry entry = new Entry(deal);
+            entries.add(entry);
+            Long route = routeOf(airports.register(deal.getDepartFrom()),
+                    airports.register(deal.getArriveAt()));
+            List<Entry> onRoute = routes.get(route);
+            if (onRoute == null) {
+                onRoute = new ArrayList<Entry>();
+                routes.put(route, onRoute);
+            }
+            onRoute.add(entry);
+        }
+        this.all = IntervalNode.build(entries);
+        this.byRoute = new HashMap<Long, IntervalNode>(routes.size() * 2);
+        for (Map.Entry<Long, List<Entry>> route : routes.entrySet()) {
+            byRoute.put(route.getKey(), IntervalNode.build(route.getValue()));
+        }
+    }
+
+    /**
+     * @return every deal, valid or not
+     */
+    public List<SpecialDeal> getDeals() {
+        return deals;
+    }
+
+    /**
+     * @return the deals valid at the given time, in milliseconds
+     */
+    public List<SpecialDeal> findValidOn(long time) {
+        List<SpecialDeal> found = new ArrayList<SpecialDeal>();
+        if (all != null) {
+            all.stab(time, found);
+        }
+        return found;
+    }
+
+    /**
+     * @return the deals from one airport to another that are valid at the
+     * given time, in milliseconds
+     */
+    public List<SpecialDeal> findValidOn(String departFrom, String arriveAt,
+            long time) {
+        List<SpecialDeal> found = new ArrayList<SpecialDeal>();
+        int from = airports.idOf(departFrom);
+        int to = airports.idOf(arriveAt);
+        if (from < 0 || to < 0) {
+            return found;
+        }
+        IntervalNode route = byRoute.get(routeOf(from, to));
+        if (route != null) {
+            route.stab(time, found);
+        }
+        return found;
+    }
+
+    private static Long routeOf(int from, int to) {
+        return ((long) from << 32) | to;
+    }
+
+    /**
+     * A deal with its window unpacked, so the tree never copies Dates.  A
+     * window that ends before it begins contains no center, and would keep
+     * the tree from ever placing it, so it is rejected.
+     */
+    private static class Entry {
+
+        private final SpecialDeal deal;
+        private final long begin;
+        private final long end;
+
+        Entry(SpecialDeal deal) {
+            this.deal = deal;
+            this.begin = deal.getBeginOn().getTime();
+            this.end = deal.getEndOn().getTime();
+            Assert.isTrue(begin <= end, "Deal ends before it begins");
+        }
+    }
+
+    /**
+     * A node of a centered interval tree: the deals whose window contains
+     * the center, sorted both by begin and by end, with the deals wholly
+     * before or after the center in the subtrees.
+     */
+    private static class IntervalNode {
+
+        private static final Comparator<Entry> BY_BEGIN =
+            new Comparator<Entry>() {
+                public int compare(Entry a, Entry b) {
+                    if (a.begin != b.begin) {
+                        return a.begin < b.begin ? -1 : 1;
+                    }
+                    return 0;
+                }
+            };
+
+        private static final Comparator<Entry> BY_END_DESCENDING =
+            new Comparator<Entry>() {
+                public int compare(Entry a, Entry b) {
+                    if (a.end != b.end) {
+                        return a.end > b.end ? -1 : 1;
+                    }
+                    return 0;
+                }
+            };
+
+        private final long center;
+        private final Entry[] byBegin;
+        private final Entry[] byEndDescending;
+        private final IntervalNode before;
+        private final IntervalNode after;
+
+        private IntervalNode(long center, Entry[] overlapping,
+                IntervalNode before, IntervalNode after) {
+            this.center = center;
+            this.byBegin = overlapping;
+            this.byEndDescending = overlapping.clone();
+            Arrays.sort(byBegin, BY_BEGIN);
+            Arrays.sort(byEndDescending, BY_END_DESCENDING);
+            this.before = before;
+            this.after = after;
+        }
+
+        static IntervalNode build(List<Entry> entries) {
+            if (entries.isEmpty()) {
+                return null;
+            }
+            long[] endpoints = new long[entries.size() * 2];
+            for (int i = 0; i < entries.size(); i++) {
+                endpoints[2*i] = entries.get(i).begin;
+                endpoints[2*i + 1] = entries.get(i).end;
+            }
+            Arrays.sort(endpoints);
+            long center = endpoints[entries.size()];
+
+            List<Entry> before = new ArrayList<Entry>();
+            List<Entry> after = new ArrayList<Entry>();
+            List<Entry> overlapping = new ArrayList<Entry>();
+            for (Entry entry : entries) {
+                if (entry.end < center) {
+                    before.add(entry);
+                } else if (entry.begin > center) {
+                    after.add(entry);
+                } else {
+                    overlapping.add(entry);
+                }
+            }
+            return new IntervalNode(center,
+                    overlapping.toArray(new Entry[overlapping.size()]),
+                    build(before), build(after));
+        }
+
+        void stab(long time, List<SpecialDeal> found) {
+            IntervalNode node = this;
+            while (node != null) {
+                if (time < node.center) {
+                    for (Entry entry : node.byBegin) {
+                        if (entry.begin > time) {
+                            break;
+                        }
+                        found.add(entry.deal);
+                    }
+                    node = node.before;
+                } else {
+                    for (Entry entry : node.byEndDescending) {
+                        if (entry.end < time) {
+                            break;
+                        }
+                        found.add(entry.deal);
+                    }
+                    node = node.after;
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,87 @@
+package JavaSource.com.apress.expertspringmvc.flight.service;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import JavaSource.com.apress.expertspringmvc.flight.domain.SortKey;
+
+/**
+ * The best itineraries found so far by one sort key, up to a limit.  They
+ * are kept in a heap with the worst on top, so a newcomer is compared with
+ * just that one to see if it gets in.
+ * <p>
+ * Once the heap is full, its worst key is published to a bound shared by
+ * every set of the same search: the search's own top K can only be better,
+ * so anything whose key already exceeds the bound, including any partial
+ * itinerary, can be dropped by every task.  The bound is the only part
+ * that is thread safe.
+ */
+class TopItineraries implements ItinerarySet {
+
+    private final SortKey sortBy;
+    private final int limit;
+    private final AtomicLong bound;
+    private final Comparator<Candidate> order;
+    private final PriorityQueue<Candidate> heap;
+
+    /**
+     * @param bound shared by every set of one search, starting at
+     * Long.MAX_VALUE
+     */
+    TopItineraries(SortKey sortBy, int limit, AtomicLong bound) {
+        this.sortBy = sortBy;
+        this.limit = limit;
+        this.bound = bound;
+        this.order = Candidate.orderBy(sortBy);
+        this.heap = new PriorityQueue<Candidate>(Math.min(limit, 64) + 1,
+                Collections.reverseOrder(order));
+    }
+
+    /**
+     * @return true if the key of anything with the given bounds is already
+     * worse than the search's K-th best
+     */
+    public boolean covers(long fare, long price, long travelTime,
+            int numberOfLegs, long departure) {
+        return Candidate.keyOf(sortBy, price, travelTime, numberOfLegs,
+                departure) > bound.get();
+    }
+
+    public void add(Candidate candidate) {
+        if (heap.size() < limit) {
+            heap.add(candidate);
+        } else if (order.compare(candidate, heap.peek()) < 0) {
+            heap.poll();
+            heap.add(candidate);
+        } else {
+            return;
+        }
+        if (heap.size() == limit) {
+            lowerBound(heap.peek().keyOf(sortBy));
+        }
+    }
+
+    public Collection<Candidate> candidates() {
+        return heap;
+    }
+
+    public FlightCursor toCursor(LegIndex index) {
+        Candidate[] ranked = heap.toArray(new Candidate[heap.size()]);
+        Arrays.sort(ranked, order);
+        return Candidate.cursorOver(ranked, index);
+    }
+
+    private void lowerBound(long key) {
+        long current;
+        while (key < (current = bound.get())) {
+            if (bound.compareAndSet(current, key)) {
+                return;
+            }
+        }
+    }
+
+}
@@ -8,6 +8,7 @@ import javax.servlet.http.HttpServletResponse;
 
 import org.springframework.util.StringUtils;
 import org.springframework.validation.BindException;
+import org.springframework.web.context.request.ServletWebRequest;
 import org.springframework.web.servlet.ModelAndView;
 import org.springframework.web.servlet.mvc.multiaction.MultiActionController;
 import org.springframework.web.servlet.support.RequestMethodNotSupportedException;
@@ -15,6 +16,7 @@ import org.springframework.web.servlet.support.RequestMethodNotSupportedExceptio
 import JavaSource.com.apress.expertspringmvc.flight.domain.Account;
 import JavaSource.com.apress.expertspringmvc.flight.service.AccountNotFoundException;
 import JavaSource.com.apress.expertspringmvc.flight.service.AccountService;
+import JavaSource.com.apress.expertspringmvc.flight.service.AccountVersion;
 
 public class AccountController extends MultiActionController {
     
@@ -29,18 +31,34 @@ public class AccountController extends MultiActionController {
             RequestMethodNotSupportedException {
         ensureMethod(request, METHOD_GET);
         if (!validatePresenceOf(request, response, "id")) return null;
-        String id = request.getParameter("id");
+        Long id = Long.valueOf(request.getParameter("id"));
+        // Last-Modified was already checked through viewLastModified
+        AccountVersion version = accountService.findAccountVersion(id);
+        if (new ServletWebRequest(request, response).checkNotModified(
+                version.getETag())) {
+            return null;
+        }
         return new ModelAndView("viewSuccess", "account",
-                accountService.findAccount(new Long(id)));
+                accountService.findAccount(id));
     }
 
+    /**
+     * Reads only the account's version, so a repeat view can be answered
+     * with 304 Not Modified without loading the account.
+     */
     public long viewLastModified(HttpServletRequest request) {
         String id = request.getParameter("id");
         if (! StringUtils.hasText(id)) {
             return -1;
         }
-        Account account = accountService.findAccount(new Long(id));
-        return account.getLastUpdated().getTime();
+        try {
+            return accountService.findAccountVersion(Long.valueOf(id))
+                .getLastModified();
+        } catch (NumberFormatException e) {
+            return -1;
+        } catch (AccountNotFoundException e) {
+            return -1;
+        }
     }
 
     public ModelAndView create(HttpServletRequest request,
@@ -98,7 +116,7 @@ public class AccountController extends MultiActionController {
     private boolean validatePresenceOf(HttpServletRequest request,
             HttpServletResponse response, String ... params) throws IOException {
         for (String param : params) {
-            if (StringUtils.hasText(request.getParameter(param))) {
+            if (!StringUtils.hasText(request.getParameter(param))) {
                 response.sendError(HttpServletResponse.SC_BAD_REQUEST,
                         param + " must be provided");
                 return false;
@@ -0,0 +1,183 @@
+package JavaSource.com.apress.expertspringmvc.flight.web;
+
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.propertyeditors.CustomDateEditor;
+import org.springframework.stereotype.Controller;
+import org.springframework.util.Assert;
+import org.springframework.validation.BindingResult;
+import org.springframework.web.bind.WebDataBinder;
+import org.springframework.web.bind.annotation.InitBinder;
+import org.springframework.web.bind.annotation.ModelAttribute;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.ModelAndView;
+
+import JavaSource.com.apress.expertspringmvc.flight.domain.FareCalendar;
+import JavaSource.com.apress.expertspringmvc.flight.domain.Flight;
+import JavaSource.com.apress.expertspringmvc.flight.domain.FlightSearchCriteria;
+import JavaSource.com.apress.expertspringmvc.flight.domain.SpecialDeal;
+import JavaSource.com.apress.expertspringmvc.flight.service.FlightCursor;
+import JavaSource.com.apress.expertspringmvc.flight.service.FlightPage;
+import JavaSource.com.apress.expertspringmvc.flight.service.FlightPager;
+import JavaSource.com.apress.expertspringmvc.flight.service.FlightService;
+import JavaSource.com.apress.expertspringmvc.flight.service.RoundTripSearch;
+
+/**
+ * Takes search form submissions off the container's threads.  Each search
+ * runs on a bounded pool of its own, and the request is suspended until the
+ * first page is ready or the timeout passes, leaving container threads free
+ * for other pages meanwhile.
+ * <p>
+ * A search that is too slow, or that cannot even be queued because the
+ * pool is full, is answered with what can be had cheaply: the special deals
+ * on the route and a way to search again.  A search still queued when it
+ * times out is dropped.  One already running checks between its steps
+ * whether its request has been answered, and if so skips the rest: the
+ * flight search under way is left to finish, so with a caching
+ * FlightService the retry finds its result waiting, but the fare calendar
+ * and round trips are not looked for.  A single step, once started, runs to
+ * the end, so a slow one still holds a search thread after its timeout.
+ */
+@Controller
+public class AsyncSearchFlightsController implements DisposableBean {
+
+    private final FlightService flights;
+    private final FlightPager pager;
+    private final ThreadPoolExecutor executor;
+    private RoundTripSearch roundTrips;
+    private int pageSize = 20;
+    private long timeout = 10000;
+
+    /**
+     * @param threads how many searches may run at once
+     * @param queueCapacity how many more may wait for a thread before
+     * being turned away
+     */
+    public AsyncSearchFlightsController(FlightService flights,
+            FlightPager pager, int threads, int queueCapacity) {
+        Assert.notNull(flights, "Flight service must not be null");
+        Assert.notNull(pager, "Pager must not be null");
+        Assert.isTrue(threads > 0, "Need at least one search thread");
+        Assert.isTrue(queueCapacity > 0, "Queue capacity must be positive");
+        this.flights = flights;
+        this.pager = pager;
+        this.executor = new ThreadPoolExecutor(threads, threads,
+                0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity),
+                new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    public Thread newThread(Runnable task) {
+                        Thread thread = new Thread(task,
+                                "flight-search-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    /**
+     * @param roundTrips the search for round trips to list along with the
+     * flights of a search with a return date
+     */
+    public void setRoundTripSearch(RoundTripSearch roundTrips) {
+        this.roundTrips = roundTrips;
+    }
+
+    public void setPageSize(int pageSize) {
+        Assert.isTrue(pageSize > 0, "Page size must be positive");
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * @param timeout milliseconds a request waits for its search before
+     * being answered without flights
+     */
+    public void setTimeout(long timeout) {
+        Assert.isTrue(timeout > 0, "Timeout must be positive");
+        this.timeout = timeout;
+    }
+
+    @InitBinder
+    protected void initBinder(WebDataBinder binder) {
+        binder.registerCustomEditor(Date.class, new CustomDateEditor(
+                new SimpleDateFormat("yyyy-MM-dd HH"), true));
+    }
+
+    @RequestMapping(value = "/findFlights", method = RequestMethod.POST)
+    public DeferredResult<ModelAndView> findFlights(
+            @ModelAttribute("flightSearchCriteria")
+            final FlightSearchCriteria search, BindingResult errors) {
+        final DeferredResult<ModelAndView> result =
+            new DeferredResult<ModelAndView>(timeout);
+        if (errors.hasErrors()) {
+            result.setResult(new ModelAndView("beginSearch",
+                    errors.getModel()));
+            return result;
+        }
+        result.onTimeout(new Runnable() {
+            public void run() {
+                result.setResult(incomplete(search));
+            }
+        });
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    if (result.isSetOrExpired()) {
+                        return;
+                    }
+                    try {
+                        FlightCursor cursor = flights.openSearch(search);
+                        if (result.isSetOrExpired()) {
+                            return;
+                        }
+                        FlightPage page = pager.open(search, cursor, pageSize);
+                        List<SpecialDeal> deals =
+                            flights.findSpecialDeals(search);
+                        FareCalendar fareCalendar =
+                            SearchFlightsController.findFareCalendar(
+                                    flights, search);
+                        if (result.isSetOrExpired()) {
+                            return;
+                        }
+                        result.setResult(SearchFlightsController.listFlights(
+                                page, deals, fareCalendar,
+                                SearchFlightsController.findRoundTrips(
+                                        roundTrips, search)));
+                    } catch (RuntimeException e) {
+                        result.setErrorResult(e);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            result.setResult(incomplete(search));
+        }
+        return result;
+    }
+
+    private ModelAndView incomplete(FlightSearchCriteria search) {
+        ModelAndView mav = new ModelAndView("listFlights");
+        mav.addObject("flights", Collections.<Flight>emptyList());
+        mav.addObject("specialDeals", flights.findSpecialDeals(search));
+        mav.addObject("flightSearchCriteria", search);
+        mav.addObject("searchIncomplete", Boolean.TRUE);
+        return mav;
+    }
+
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+}
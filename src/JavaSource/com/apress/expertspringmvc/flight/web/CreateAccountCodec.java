@@ -0,0 +1,216 @@
+package JavaSource.com.apress.expertspringmvc.flight.web;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+import org.springframework.util.Assert;
+
+import JavaSource.com.apress.expertspringmvc.flight.domain.Account;
+import JavaSource.com.apress.expertspringmvc.flight.domain.Address;
+import JavaSource.com.apress.expertspringmvc.flight.domain.Name;
+
+/**
+ * Writes a {@link CreateAccount} as compact bytes for a
+ * {@link WizardStateStore}, and reads it back.  A format byte comes first,
+ * then a bit for each field that is present, then just those fields in
+ * order: strings as a length and their UTF-8 bytes, numbers as variable
+ * length integers.  A half-filled form of short strings takes a few dozen
+ * bytes.
+ */
+class CreateAccountCodec {
+
+    private static final int FORMAT = 1;
+
+    private static final int CONFIRM_PASSWORD = 0;
+    private static final int ACCOUNT = 1;
+    private static final int ID = 2;
+    private static final int NAME = 3;
+    private static final int FIRST = 4;
+    private static final int MIDDLE = 5;
+    private static final int LAST = 6;
+    private static final int USERNAME = 7;
+    private static final int PASSWORD = 8;
+    private static final int EMAIL = 9;
+    private static final int LAST_UPDATED = 10;
+    private static final int BILLING_ADDRESS = 11;
+    private static final int ADDRESS_ID = 12;
+    private static final int STREET = 13;
+    private static final int CITY = 14;
+    private static final int STATE = 15;
+    private static final int POSTAL_CODE = 16;
+
+    private CreateAccountCodec() { }
+
+    static byte[] encode(CreateAccount form) {
+        Assert.notNull(form, "Form must not be null");
+        Account account = form.getAccount();
+        Name name = (account == null ? null : account.getName());
+        Address address = (account == null ? null : account.getBillingAddress());
+        Object[] fields = new Object[POSTAL_CODE + 1];
+        fields[CONFIRM_PASSWORD] = form.getConfirmPassword();
+        if (account != null) {
+            fields[ACCOUNT] = account;
+            fields[ID] = account.getId();
+            fields[USERNAME] = account.getUsername();
+            fields[PASSWORD] = account.getPassword();
+            fields[EMAIL] = account.getEmail();
+            fields[LAST_UPDATED] = account.getLastUpdated();
+        }
+        if (name != null) {
+            fields[NAME] = name;
+            fields[FIRST] = name.getFirst();
+            fields[MIDDLE] = name.getMiddle();
+            fields[LAST] = name.getLast();
+        }
+        if (address != null) {
+            fields[BILLING_ADDRESS] = address;
+            fields[ADDRESS_ID] = address.getId();
+            fields[STREET] = address.getStreet();
+            fields[CITY] = address.getCity();
+            fields[STATE] = address.getState();
+            fields[POSTAL_CODE] = address.getPostalCode();
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+        out.write(FORMAT);
+        long present = 0;
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i] != null) {
+                present |= 1L << i;
+            }
+        }
+        writeVarLong(out, present);
+        for (Object field : fields) {
+            if (field instanceof String) {
+                byte[] utf8 = ((String) field).getBytes(StandardCharsets.UTF_8);
+                writeVarLong(out, utf8.length);
+                out.write(utf8, 0, utf8.length);
+            } else if (field instanceof Long) {
+                writeVarLong(out, zigZag((Long) field));
+            } else if (field instanceof Date) {
+                writeVarLong(out, zigZag(((Date) field).getTime()));
+            }
+        }
+        if (account != null) {
+            writeVarLong(out, zigZag(account.getVersion()));
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @throws IllegalArgumentException if the bytes were not written by
+     * {@link #encode} in this format
+     */
+    static CreateAccount decode(byte[] bytes) {
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        Assert.isTrue(bytes.length > 0 && in.get() == FORMAT,
+                "Unknown wizard state format");
+        long present = readVarLong(in);
+
+        CreateAccount form = new CreateAccount();
+        if (has(present, CONFIRM_PASSWORD)) {
+            form.setConfirmPassword(readString(in));
+        }
+        if (!has(present, ACCOUNT)) {
+            form.setAccount(null);
+            return form;
+        }
+        Account account = form.getAccount();
+        if (has(present, ID)) {
+            account.setId(unZigZag(readVarLong(in)));
+        }
+        if (has(present, NAME)) {
+            Name name = account.getName();
+            if (has(present, FIRST)) {
+                name.setFirst(readString(in));
+            }
+            if (has(present, MIDDLE)) {
+                name.setMiddle(readString(in));
+            }
+            if (has(present, LAST)) {
+                name.setLast(readString(in));
+            }
+        } else {
+            account.setName(null);
+        }
+        if (has(present, USERNAME)) {
+            account.setUsername(readString(in));
+        }
+        if (has(present, PASSWORD)) {
+            account.setPassword(readString(in));
+        }
+        if (has(present, EMAIL)) {
+            account.setEmail(readString(in));
+        }
+        if (has(present, LAST_UPDATED)) {
+            account.setLastUpdated(new Date(unZigZag(readVarLong(in))));
+        }
+        if (has(present, BILLING_ADDRESS)) {
+            Address address = (has(present, ADDRESS_ID) ?
+                    new Address(unZigZag(readVarLong(in))) : new Address());
+            if (has(present, STREET)) {
+                address.setStreet(readString(in));
+            }
+            if (has(present, CITY)) {
+                address.setCity(readString(in));
+            }
+            if (has(present, STATE)) {
+                address.setState(readString(in));
+            }
+            if (has(present, POSTAL_CODE)) {
+                address.setPostalCode(readString(in));
+            }
+            account.setBillingAddress(address);
+        } else {
+            account.setBillingAddress(null);
+        }
+        account.setVersion(unZigZag(readVarLong(in)));
+        Assert.isTrue(!in.hasRemaining(), "Trailing bytes in wizard state");
+        return form;
+    }
+
+    private static boolean has(long present, int field) {
+        return (present & (1L << field)) != 0;
+    }
+
+    private static long zigZag(long n) {
+        return (n << 1) ^ (n >> 63);
+    }
+
+    private static long unZigZag(long n) {
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    private static void writeVarLong(ByteArrayOutputStream out, long n) {
+        while ((n & ~0x7FL) != 0) {
+            out.write((int) (n & 0x7F) | 0x80);
+            n >>>= 7;
+        }
+        out.write((int) n);
+    }
+
+    private static long readVarLong(ByteBuffer in) {
+        long n = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            n |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return n;
+            }
+        }
+        throw new IllegalArgumentException("Malformed number in wizard state");
+    }
+
+    private static String readString(ByteBuffer in) {
+        long length = readVarLong(in);
+        Assert.isTrue(length >= 0 && length <= in.remaining(),
+                "Malformed string in wizard state");
+        String s = new String(in.array(), in.position(), (int) length,
+                StandardCharsets.UTF_8);
+        in.position(in.position() + (int) length);
+        return s;
+    }
+
+}
@@ -1,8 +1,14 @@
 package JavaSource.com.apress.expertspringmvc.flight.web;
 
+import java.util.Enumeration;
+
+import javax.servlet.ServletContext;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
 import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
 
+import org.springframework.util.Assert;
 import org.springframework.validation.BindException;
 import org.springframework.validation.Errors;
 import org.springframework.web.servlet.ModelAndView;
@@ -10,9 +16,16 @@ import org.springframework.web.servlet.mvc.AbstractWizardFormController;
 
 import JavaSource.com.apress.expertspringmvc.flight.service.AccountService;
 
+/**
+ * Signs up a new account over two pages.  Between pages the form is kept in
+ * a {@link WizardStateStore} as compact bytes, and the session holds only
+ * the token it was saved under; a wizard whose state the store has dropped
+ * starts over.
+ */
 public class CreateAccountWizardController extends AbstractWizardFormController {
     
     private AccountService accountService;
+    private WizardStateStore wizardStateStore = new InMemoryWizardStateStore();
 
     public CreateAccountWizardController() {
         setCommandName("createAccount");
@@ -25,6 +38,23 @@ public class CreateAccountWizardController extends AbstractWizardFormController
         this.accountService = accountService;
     }
 
+    public void setWizardStateStore(WizardStateStore wizardStateStore) {
+        Assert.notNull(wizardStateStore, "Wizard state store must not be null");
+        this.wizardStateStore = wizardStateStore;
+    }
+
+    /**
+     * Showing a page and fetching the form back from the session are final
+     * in the superclass, so the form is moved into the store by handing the
+     * superclass a session that stores it there.
+     */
+    @Override
+    protected ModelAndView handleRequestInternal(HttpServletRequest request,
+            HttpServletResponse response) throws Exception {
+        return super.handleRequestInternal(new StoredFormRequest(request,
+                getFormSessionAttributeName(request)), response);
+    }
+
     @Override
     protected void validatePage(Object command, Errors errors, int page) {
         CreateAccount createAccount = (CreateAccount) command;
@@ -49,4 +79,144 @@ public class CreateAccountWizardController extends AbstractWizardFormController
                 "account", createAccount.getAccount());
     }
     
+    /**
+     * Hands out sessions that keep the form in the wizard state store.
+     */
+    private class StoredFormRequest extends HttpServletRequestWrapper {
+
+        private final String formAttrName;
+
+        StoredFormRequest(HttpServletRequest request, String formAttrName) {
+            super(request);
+            this.formAttrName = formAttrName;
+        }
+
+        @Override
+        public HttpSession getSession() {
+            return new StoredFormSession(super.getSession(), formAttrName);
+        }
+
+        @Override
+        public HttpSession getSession(boolean create) {
+            HttpSession session = super.getSession(create);
+            return (session == null ?
+                    null : new StoredFormSession(session, formAttrName));
+        }
+    }
+
+    /**
+     * A session that saves the form attribute to the wizard state store and
+     * holds the token in its place.  Every other attribute, and everything
+     * else, is the real session's.
+     */
+    @SuppressWarnings("deprecation")
+    private class StoredFormSession implements HttpSession {
+
+        private final HttpSession session;
+        private final String formAttrName;
+
+        StoredFormSession(HttpSession session, String formAttrName) {
+            this.session = session;
+            this.formAttrName = formAttrName;
+        }
+
+        public Object getAttribute(String name) {
+            Object value = session.getAttribute(name);
+            if (!formAttrName.equals(name) || !(value instanceof String)) {
+                return value;
+            }
+            byte[] state = wizardStateStore.load((String) value);
+            if (state == null) {
+                return null;
+            }
+            try {
+                return CreateAccountCodec.decode(state);
+            } catch (RuntimeException ex) {
+                // written in some other format; start the wizard over
+                return null;
+            }
+        }
+
+        public void setAttribute(String name, Object value) {
+            if (!formAttrName.equals(name) || !(value instanceof CreateAccount)) {
+                session.setAttribute(name, value);
+                return;
+            }
+            discardState();
+            session.setAttribute(name, wizardStateStore.save(
+                    CreateAccountCodec.encode((CreateAccount) value)));
+        }
+
+        public void removeAttribute(String name) {
+            if (formAttrName.equals(name)) {
+                discardState();
+            }
+            session.removeAttribute(name);
+        }
+
+        private void discardState() {
+            Object token = session.getAttribute(formAttrName);
+            if (token instanceof String) {
+                wizardStateStore.remove((String) token);
+            }
+        }
+
+        public Object getValue(String name) {
+            return getAttribute(name);
+        }
+
+        public void putValue(String name, Object value) {
+            setAttribute(name, value);
+        }
+
+        public void removeValue(String name) {
+            removeAttribute(name);
+        }
+
+        public Enumeration<String> getAttributeNames() {
+            return session.getAttributeNames();
+        }
+
+        public String[] getValueNames() {
+            return session.getValueNames();
+        }
+
+        public long getCreationTime() {
+            return session.getCreationTime();
+        }
+
+        public String getId() {
+            return session.getId();
+        }
+
+        public long getLastAccessedTime() {
+            return session.getLastAccessedTime();
+        }
+
+        public ServletContext getServletContext() {
+            return session.getServletContext();
+        }
+
+        public void setMaxInactiveInterval(int interval) {
+            session.setMaxInactiveInterval(interval);
+        }
+
+        public int getMaxInactiveInterval() {
+            return session.getMaxInactiveInterval();
+        }
+
+        public javax.servlet.http.HttpSessionContext getSessionContext() {
+            return session.getSessionContext();
+        }
+
+        public void invalidate() {
+            discardState();
+            session.invalidate();
+        }
+
+        public boolean isNew() {
+            return session.isNew();
+        }
+    }
+
 }
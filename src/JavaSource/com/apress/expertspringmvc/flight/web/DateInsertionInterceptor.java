@@ -18,7 +18,10 @@ public class DateInsertionInterceptor implements HandlerInterceptor {
     public void postHandle(HttpServletRequest request,
             HttpServletResponse response, Object handler,
             ModelAndView modelAndView) throws Exception {
-        modelAndView.addObject("currentTime", new Date());
+        // handlers that write their own response have no model
+        if (modelAndView != null) {
+            modelAndView.addObject("currentTime", new Date());
+        }
     }
 
     public void afterCompletion(HttpServletRequest request,
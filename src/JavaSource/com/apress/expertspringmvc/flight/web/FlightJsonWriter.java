@@ -0,0 +1,433 @@
+package JavaSource.com.apress.expertspringmvc.flight.web;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.List;
+
+import org.springframework.util.Assert;
+
+import JavaSource.com.apress.expertspringmvc.flight.domain.Airport;
+import JavaSource.com.apress.expertspringmvc.flight.domain.Flight;
+import JavaSource.com.apress.expertspringmvc.flight.domain.FlightLeg;
+import JavaSource.com.apress.expertspringmvc.flight.domain.FlightSearchCriteria;
+
+/**
+ * Writes flight search results as UTF-8 JSON straight to an output stream.
+ * Values are encoded by hand into one byte buffer that is flushed whenever
+ * it fills, so a response costs no intermediate strings, maps or DOM beyond
+ * the flights themselves; dates are written as ISO-8601 UTC without a
+ * formatter.
+ * <p>
+ * A writer is not thread-safe, but may be reused for any number of
+ * responses one after another via {@link #reset(OutputStream)}, keeping its
+ * buffer.
+ */
+public class FlightJsonWriter {
+
+    private static final byte[] HEX = {
+        '0', '1', '2', '3', '4', '5', '6', '7',
+        '8', '9', 'a', 'b', 'c', 'd', 'e', 'f' };
+
+    private final byte[] buffer;
+    private int count;
+    private OutputStream out;
+    // whether the next value in the current object or array needs a comma
+    private boolean separate;
+
+    public FlightJsonWriter() {
+        this(8192);
+    }
+
+    public FlightJsonWriter(int bufferSize) {
+        Assert.isTrue(bufferSize >= 64, "Buffer must hold at least 64 bytes");
+        this.buffer = new byte[bufferSize];
+    }
+
+    /**
+     * Points the writer at a new stream, discarding anything unflushed.
+     */
+    public FlightJsonWriter reset(OutputStream out) {
+        Assert.notNull(out, "Output stream must not be null");
+        this.out = out;
+        this.count = 0;
+        this.separate = false;
+        return this;
+    }
+
+    /**
+     * Starts a search response: the criteria and the total, then an open
+     * <code>flights</code> array for {@link #writeFlights(List)}.
+     */
+    public void beginResults(FlightSearchCriteria search, int totalFlights)
+            throws IOException {
+        beginObject();
+        name("search");
+        beginObject();
+        name("departFrom");
+        value(search.getDepartFrom());
+        name("arriveAt");
+        value(search.getArriveAt());
+        name("departOn");
+        value(search.getDepartOn());
+        name("returnOn");
+        value(search.getReturnOn());
+        name("sortBy");
+        value(search.getSortBy().name());
+        name("limit");
+        value(search.getLimit());
+        endObject();
+        name("totalFlights");
+        value(totalFlights);
+        name("flights");
+        beginArray();
+    }
+
+    public void writeFlights(List<Flight> flights) throws IOException {
+        for (int i = 0; i < flights.size(); i++) {
+            writeFlight(flights.get(i));
+        }
+    }
+
+    public void writeFlight(Flight flight) throws IOException {
+        beginObject();
+        name("departFrom");
+        value(flight.getDepartFrom());
+        name("arriveAt");
+        value(flight.getArrivalAt());
+        name("totalCost");
+        value(flight.getTotalCost());
+        name("nonStop");
+        value(flight.isNonStop());
+        name("totalTravelMinutes");
+        value(flight.getTotalTravelTime() / (1000*60));
+        name("legs");
+        beginArray();
+        for (int i = 0; i < flight.getNumberOfLegs(); i++) {
+            FlightLeg leg = flight.getLeg(i);
+            beginObject();
+            name("departFrom");
+            value(leg.getDepartFrom().getAirportCode());
+            name("departOn");
+            value(leg.getDepartOn());
+            name("arriveAt");
+            value(leg.getArriveAt().getAirportCode());
+            name("arriveOn");
+            value(leg.getArriveOn());
+            name("fare");
+            value(leg.getFare());
+            endObject();
+        }
+        endArray();
+        endObject();
+    }
+
+    /**
+     * Closes the array and object opened by {@link #beginResults} and
+     * flushes.
+     */
+    public void endResults() throws IOException {
+        endArray();
+        endObject();
+        flush();
+    }
+
+    /**
+     * Closes the flights array opened by {@link #beginResults}, adds an
+     * <code>error</code> member saying why the results stop short, closes
+     * the object and flushes.  For a search that fails once part of its
+     * response has been sent, when the status can no longer change.
+     */
+    public void endResults(String error) throws IOException {
+        endArray();
+        name("error");
+        value(error);
+        endObject();
+        flush();
+    }
+
+    /**
+     * Writes a complete <code>{"error": message}</code> body and flushes.
+     */
+    public void writeError(String message) throws IOException {
+        beginObject();
+        name("error");
+        value(message);
+        endObject();
+        flush();
+    }
+
+    public void flush() throws IOException {
+        if (count > 0) {
+            out.write(buffer, 0, count);
+            count = 0;
+        }
+        out.flush();
+    }
+
+    private void beginObject() throws IOException {
+        separator();
+        write('{');
+        separate = false;
+    }
+
+    private void endObject() throws IOException {
+        write('}');
+        separate = true;
+    }
+
+    private void beginArray() throws IOException {
+        separator();
+        write('[');
+        separate = false;
+    }
+
+    private void endArray() throws IOException {
+        write(']');
+        separate = true;
+    }
+
+    private void name(String name) throws IOException {
+        separator();
+        string(name);
+        write(':');
+        separate = false;
+    }
+
+    private void separator() throws IOException {
+        if (separate) {
+            write(',');
+        }
+    }
+
+    private void value(String value) throws IOException {
+        separator();
+        if (value == null) {
+            nullValue();
+        } else {
+            string(value);
+        }
+        separate = true;
+    }
+
+    private void value(Airport airport) throws IOException {
+        if (airport == null) {
+            value((String) null);
+            return;
+        }
+        beginObject();
+        name("code");
+        value(airport.getAirportCode());
+        name("name");
+        value(airport.getName());
+        endObject();
+    }
+
+    private void value(long value) throws IOException {
+        separator();
+        number(value);
+        separate = true;
+    }
+
+    private void value(boolean value) throws IOException {
+        separator();
+        ascii(value ? "true" : "false");
+        separate = true;
+    }
+
+    private void value(BigDecimal value) throws IOException {
+        separator();
+        if (value == null) {
+            nullValue();
+        } else {
+            ascii(value.toPlainString());
+        }
+        separate = true;
+    }
+
+    private void value(Date value) throws IOException {
+        separator();
+        if (value == null) {
+            nullValue();
+        } else {
+            date(value.getTime());
+        }
+        separate = true;
+    }
+
+    private void nullValue() throws IOException {
+        ascii("null");
+    }
+
+    /**
+     * Writes a quoted string, escaping what JSON requires and encoding the
+     * rest as UTF-8.
+     */
+    private void string(String s) throws IOException {
+        write('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                write('\\');
+                write(c);
+            } else if (c < 0x20) {
+                ensure(6);
+                buffer[count++] = '\\';
+                buffer[count++] = 'u';
+                buffer[count++] = '0';
+                buffer[count++] = '0';
+                buffer[count++] = HEX[c >> 4];
+                buffer[count++] = HEX[c & 0xf];
+            } else if (c < 0x80) {
+                write(c);
+            } else if (c < 0x800) {
+                ensure(2);
+                buffer[count++] = (byte) (0xc0 | (c >> 6));
+                buffer[count++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length()
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                ensure(4);
+                buffer[count++] = (byte) (0xf0 | (cp >> 18));
+                buffer[count++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+                buffer[count++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+                buffer[count++] = (byte) (0x80 | (cp & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                // an unpaired surrogate cannot be encoded; escape it instead
+                ensure(6);
+                buffer[count++] = '\\';
+                buffer[count++] = 'u';
+                buffer[count++] = HEX[c >> 12];
+                buffer[count++] = HEX[(c >> 8) & 0xf];
+                buffer[count++] = HEX[(c >> 4) & 0xf];
+                buffer[count++] = HEX[c & 0xf];
+            } else {
+                ensure(3);
+                buffer[count++] = (byte) (0xe0 | (c >> 12));
+                buffer[count++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                buffer[count++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+        write('"');
+    }
+
+    /**
+     * Writes characters known to be ASCII, a buffer at a time, so a value
+     * of any length fits.
+     */
+    private void ascii(String s) throws IOException {
+        int i = 0;
+        while (i < s.length()) {
+            if (count == buffer.length) {
+                ensure(1);
+            }
+            int end = Math.min(s.length(), i + buffer.length - count);
+            while (i < end) {
+                buffer[count++] = (byte) s.charAt(i++);
+            }
+        }
+    }
+
+    private void number(long value) throws IOException {
+        ensure(20);
+        if (value == Long.MIN_VALUE) {
+            ascii("-9223372036854775808");
+            return;
+        }
+        if (value < 0) {
+            buffer[count++] = '-';
+            value = -value;
+        }
+        int start = count;
+        do {
+            buffer[count++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        reverse(start, count - 1);
+    }
+
+    /**
+     * Writes milliseconds since the epoch as a quoted
+     * <code>yyyy-MM-ddTHH:mm:ssZ</code>, converting days to a civil date
+     * arithmetically rather than through a Calendar.
+     */
+    private void date(long millis) throws IOException {
+        long seconds = floorDiv(millis, 1000);
+        long days = floorDiv(seconds, 86400);
+        int secondOfDay = (int) (seconds - days * 86400);
+
+        long z = days + 719468;
+        long era = floorDiv(z, 146097);
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra/1460 + dayOfEra/36524
+                - dayOfEra/146096) / 365;
+        long dayOfYear = dayOfEra - (365*yearOfEra + yearOfEra/4
+                - yearOfEra/100);
+        long mp = (5*dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153*mp + 2)/5 + 1);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+        if (year < 0 || year > 9999) {
+            number(millis);
+            return;
+        }
+        ensure(22);
+        buffer[count++] = '"';
+        digits((int) year, 4);
+        buffer[count++] = '-';
+        digits(month, 2);
+        buffer[count++] = '-';
+        digits(day, 2);
+        buffer[count++] = 'T';
+        digits(secondOfDay / 3600, 2);
+        buffer[count++] = ':';
+        digits(secondOfDay / 60 % 60, 2);
+        buffer[count++] = ':';
+        digits(secondOfDay % 60, 2);
+        buffer[count++] = 'Z';
+        buffer[count++] = '"';
+    }
+
+    private void digits(int value, int width) {
+        for (int i = count + width - 1; i >= count; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        count += width;
+    }
+
+    private void reverse(int from, int to) {
+        while (from < to) {
+            byte b = buffer[from];
+            buffer[from++] = buffer[to];
+            buffer[to--] = b;
+        }
+    }
+
+    private void write(char c) throws IOException {
+        ensure(1);
+        buffer[count++] = (byte) c;
+    }
+
+    /**
+     * Makes room for n more bytes, writing out the buffer if needed.  n is
+     * never more than the smallest buffer allowed.
+     */
+    private void ensure(int n) throws IOException {
+        if (count + n > buffer.length) {
+            out.write(buffer, 0, count);
+            count = 0;
+        }
+    }
+
+    private static long floorDiv(long x, long y) {
+        long q = x / y;
+        if ((x % y != 0) && ((x ^ y) < 0)) {
+            q--;
+        }
+        return q;
+    }
+
+}
@@ -0,0 +1,119 @@
+package JavaSource.com.apress.expertspringmvc.flight.web;
+
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency, in-flight and error counts per handler and HTTP method.  A
+ * handler is named by the URL pattern it was mapped under, so the set of
+ * names is as fixed as the mapping.  Looking up a handler's timers costs
+ * one map read, and every counter is updated without locking.
+ */
+public class HandlerMetrics {
+
+    static final String[] METHODS = {
+        "GET", "POST", "HEAD", "PUT", "DELETE", "OTHER" };
+
+    private final ConcurrentMap<String, Timer[]> handlers =
+        new ConcurrentHashMap<String, Timer[]>();
+
+    /**
+     * @return the timer for one handler and method, created on first use
+     */
+    public Timer timerFor(String handler, String method) {
+        Timer[] timers = handlers.get(handler);
+        if (timers == null) {
+            timers = new Timer[METHODS.length];
+            for (int i = 0; i < timers.length; i++) {
+                timers[i] = new Timer();
+            }
+            Timer[] existing = handlers.putIfAbsent(handler, timers);
+            if (existing != null) {
+                timers = existing;
+            }
+        }
+        return timers[indexOf(method)];
+    }
+
+    private static int indexOf(String method) {
+        for (int i = 0; i < METHODS.length - 1; i++) {
+            if (METHODS[i].equals(method)) {
+                return i;
+            }
+        }
+        return METHODS.length - 1;
+    }
+
+    /**
+     * Writes one line per handler and method that has seen a request, in
+     * handler order, with times in milliseconds.
+     */
+    public void writeTo(PrintWriter out) {
+        out.println("# handler method count errors inFlight"
+                + " meanMs p50Ms p90Ms p99Ms p999Ms maxMs");
+        Map<String, Timer[]> sorted = new TreeMap<String, Timer[]>(handlers);
+        for (Map.Entry<String, Timer[]> handler : sorted.entrySet()) {
+            Timer[] timers = handler.getValue();
+            for (int i = 0; i < timers.length; i++) {
+                Timer timer = timers[i];
+                LatencyHistogram.Snapshot latency = timer.latency.snapshot();
+                if (latency.getCount() == 0 && timer.getInFlight() == 0) {
+                    continue;
+                }
+                out.printf("%s %s %d %d %d %.3f %.3f %.3f %.3f %.3f %.3f%n",
+                        handler.getKey(), METHODS[i], latency.getCount(),
+                        timer.getErrors(), timer.getInFlight(),
+                        millis(latency.getMeanNanos()),
+                        millis(latency.getNanosAt(0.5)),
+                        millis(latency.getNanosAt(0.9)),
+                        millis(latency.getNanosAt(0.99)),
+                        millis(latency.getNanosAt(0.999)),
+                        millis(latency.getMaxNanos()));
+            }
+        }
+    }
+
+    private static double millis(double nanos) {
+        return nanos / 1e6;
+    }
+
+    /**
+     * The counters for one handler and method.
+     */
+    public static class Timer {
+
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicLong errors = new AtomicLong();
+
+        public void started() {
+            inFlight.incrementAndGet();
+        }
+
+        public void finished(long nanos, boolean failed) {
+            inFlight.decrementAndGet();
+            latency.record(nanos);
+            if (failed) {
+                errors.incrementAndGet();
+            }
+        }
+
+        public int getInFlight() {
+            return inFlight.get();
+        }
+
+        public long getErrors() {
+            return errors.get();
+        }
+
+        public LatencyHistogram.Snapshot getLatency() {
+            return latency.snapshot();
+        }
+    }
+
+}
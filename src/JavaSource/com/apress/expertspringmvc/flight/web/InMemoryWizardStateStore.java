@@ -0,0 +1,200 @@
+package JavaSource.com.apress.expertspringmvc.flight.web;
+
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.util.Assert;
+
+/**
+ * A {@link WizardStateStore} in memory, bounded by the total bytes of the
+ * states it holds.  States idle for longer than the time to idle are
+ * dropped, and when the bound is reached the least recently used go first.
+ * The store is split into segments, each a small LRU map under its own
+ * lock, as in the flight search cache.
+ * <p>
+ * Tokens start with a random prefix chosen when the store is created, so a
+ * token kept in a session that outlives the store never finds another
+ * wizard's state in a new one.
+ */
+public class InMemoryWizardStateStore implements WizardStateStore {
+
+    private static final int SEGMENTS = 16;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final String prefix;
+    private final AtomicLong nextToken = new AtomicLong();
+    private volatile long timeToIdle = 30*60*1000;
+
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+
+    public InMemoryWizardStateStore() {
+        this(64*1024*1024);
+    }
+
+    /**
+     * @param maximumBytes how many bytes of state to hold before the least
+     * recently used are evicted
+     */
+    public InMemoryWizardStateStore(long maximumBytes) {
+        Assert.isTrue(maximumBytes >= SEGMENTS,
+                "Maximum bytes must be at least " + SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(maximumBytes / SEGMENTS);
+        }
+        this.prefix = Long.toString(
+                new SecureRandom().nextLong() & Long.MAX_VALUE, 36) + "-";
+    }
+
+    /**
+     * @param timeToIdle milliseconds a state is kept without being used
+     */
+    public void setTimeToIdle(long timeToIdle) {
+        Assert.isTrue(timeToIdle > 0, "Time to idle must be positive");
+        this.timeToIdle = timeToIdle;
+    }
+
+    public String save(byte[] state) {
+        Assert.notNull(state, "State must not be null");
+        String token = prefix + Long.toString(nextToken.incrementAndGet(), 36);
+        Segment segment = segmentFor(token);
+        long now = System.currentTimeMillis();
+        synchronized (segment) {
+            segment.expire(now);
+            segment.put(token, new StoredState(state, now));
+            segment.bytes += state.length;
+            segment.evict();
+        }
+        return token;
+    }
+
+    public byte[] load(String token) {
+        Segment segment = segmentFor(token);
+        long now = System.currentTimeMillis();
+        synchronized (segment) {
+            StoredState entry = segment.get(token);
+            if (entry == null) {
+                return null;
+            }
+            if (now - entry.lastUsed > timeToIdle) {
+                segment.discard(token);
+                expirations.incrementAndGet();
+                return null;
+            }
+            entry.lastUsed = now;
+            return entry.state;
+        }
+    }
+
+    public void remove(String token) {
+        Segment segment = segmentFor(token);
+        synchronized (segment) {
+            segment.discard(token);
+        }
+    }
+
+    /**
+     * @return how many states are held, including any that have expired
+     * but not yet been dropped
+     */
+    public int getSize() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return the total bytes of the states held
+     */
+    public long getBytes() {
+        long bytes = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                bytes += segment.bytes;
+            }
+        }
+        return bytes;
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    public long getExpirationCount() {
+        return expirations.get();
+    }
+
+    private Segment segmentFor(String token) {
+        int h = token.hashCode();
+        return segments[(h ^ (h >>> 16)) & (SEGMENTS - 1)];
+    }
+
+    private static class StoredState {
+
+        private final byte[] state;
+        private long lastUsed;
+
+        StoredState(byte[] state, long lastUsed) {
+            this.state = state;
+            this.lastUsed = lastUsed;
+        }
+    }
+
+    /**
+     * One lock's worth of the store, in least recently used order.
+     */
+    private class Segment extends LinkedHashMap<String, StoredState> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final long capacity;
+        private long bytes;
+
+        Segment(long capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        void discard(String token) {
+            StoredState entry = remove(token);
+            if (entry != null) {
+                bytes -= entry.state.length;
+            }
+        }
+
+        /**
+         * Drops the least recently used states until the rest fit.
+         */
+        void evict() {
+            Iterator<StoredState> eldest = values().iterator();
+            while (bytes > capacity && eldest.hasNext()) {
+                bytes -= eldest.next().state.length;
+                eldest.remove();
+                evictions.incrementAndGet();
+            }
+        }
+
+        /**
+         * Drops idle states, which are always the least recently used.
+         */
+        void expire(long now) {
+            Iterator<StoredState> eldest = values().iterator();
+            while (eldest.hasNext()) {
+                StoredState entry = eldest.next();
+                if (now - entry.lastUsed <= timeToIdle) {
+                    return;
+                }
+                bytes -= entry.state.length;
+                eldest.remove();
+                expirations.incrementAndGet();
+            }
+        }
+    }
+
+}
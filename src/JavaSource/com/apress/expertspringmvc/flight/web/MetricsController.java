@@ -0,0 +1,37 @@
+package JavaSource.com.apress.expertspringmvc.flight.web;
+
+import java.io.PrintWriter;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.util.Assert;
+import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.servlet.mvc.AbstractController;
+
+/**
+ * Shows the request metrics as plain text, one line per handler and
+ * method.  The output is never cached.
+ */
+public class MetricsController extends AbstractController {
+
+    private final HandlerMetrics metrics;
+
+    public MetricsController(HandlerMetrics metrics) {
+        Assert.notNull(metrics, "Metrics must not be null");
+        this.metrics = metrics;
+        setSupportedMethods(new String[]{METHOD_GET});
+        setCacheSeconds(0);
+    }
+
+    @Override
+    protected ModelAndView handleRequestInternal(HttpServletRequest req,
+            HttpServletResponse res) throws Exception {
+        res.setContentType("text/plain;charset=UTF-8");
+        PrintWriter out = res.getWriter();
+        metrics.writeTo(out);
+        out.flush();
+        return null;
+    }
+
+}
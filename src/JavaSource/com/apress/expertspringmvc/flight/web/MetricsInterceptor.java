@@ -0,0 +1,78 @@
+package JavaSource.com.apress.expertspringmvc.flight.web;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.util.Assert;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.ModelAndView;
+
+/**
+ * Times every request from the first interceptor to the end of view
+ * rendering, recording into {@link HandlerMetrics} under the URL pattern
+ * that matched.  Register it first so it covers the other interceptors too.
+ * Requests that end in an exception the dispatcher could not resolve count
+ * as errors.  A request handled asynchronously is timed once, from its
+ * first dispatch to the end of the dispatch that completes it.
+ */
+public class MetricsInterceptor implements AsyncHandlerInterceptor {
+
+    private static final String TIMER =
+        MetricsInterceptor.class.getName() + ".timer";
+    private static final String STARTED =
+        MetricsInterceptor.class.getName() + ".started";
+
+    private final HandlerMetrics metrics;
+
+    public MetricsInterceptor(HandlerMetrics metrics) {
+        Assert.notNull(metrics, "Metrics must not be null");
+        this.metrics = metrics;
+    }
+
+    public boolean preHandle(HttpServletRequest request,
+            HttpServletResponse response, Object handler) throws Exception {
+        if (request.getAttribute(TIMER) != null) {
+            return true;    // resuming an asynchronous request
+        }
+        HandlerMetrics.Timer timer = metrics.timerFor(nameOf(request, handler),
+                request.getMethod());
+        timer.started();
+        request.setAttribute(TIMER, timer);
+        request.setAttribute(STARTED, System.nanoTime());
+        return true;
+    }
+
+    public void postHandle(HttpServletRequest request,
+            HttpServletResponse response, Object handler,
+            ModelAndView modelAndView) throws Exception {
+        // timed in afterCompletion, so rendering is included
+    }
+
+    public void afterConcurrentHandlingStarted(HttpServletRequest request,
+            HttpServletResponse response, Object handler) throws Exception {
+        // still in flight; timed when the resumed dispatch completes
+    }
+
+    public void afterCompletion(HttpServletRequest request,
+            HttpServletResponse response, Object handler, Exception ex)
+            throws Exception {
+        HandlerMetrics.Timer timer =
+            (HandlerMetrics.Timer) request.getAttribute(TIMER);
+        Long started = (Long) request.getAttribute(STARTED);
+        if (timer != null && started != null) {
+            request.removeAttribute(TIMER);
+            timer.finished(System.nanoTime() - started, ex != null);
+        }
+    }
+
+    private static String nameOf(HttpServletRequest request, Object handler) {
+        Object pattern = request.getAttribute(
+                HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        if (pattern instanceof String) {
+            return (String) pattern;
+        }
+        return handler.getClass().getSimpleName();
+    }
+
+}
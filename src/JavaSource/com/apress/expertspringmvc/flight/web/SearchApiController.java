@@ -0,0 +1,126 @@
+package JavaSource.com.apress.expertspringmvc.flight.web;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.propertyeditors.CustomDateEditor;
+import org.springframework.stereotype.Controller;
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+import org.springframework.validation.BindingResult;
+import org.springframework.web.bind.WebDataBinder;
+import org.springframework.web.bind.annotation.InitBinder;
+import org.springframework.web.bind.annotation.ModelAttribute;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+
+import JavaSource.com.apress.expertspringmvc.flight.domain.Flight;
+import JavaSource.com.apress.expertspringmvc.flight.domain.FlightSearchCriteria;
+import JavaSource.com.apress.expertspringmvc.flight.service.FlightCursor;
+import JavaSource.com.apress.expertspringmvc.flight.service.FlightService;
+
+/**
+ * Searches for flights on behalf of programs rather than people, binding
+ * the same parameters as the search form and answering in JSON.  Results
+ * are fetched from the search's cursor a chunk at a time and written
+ * straight to the response by a {@link FlightJsonWriter}, so no view is
+ * rendered and only one chunk of Flights is alive at once.
+ * <p>
+ * The search runs and its first chunk is fetched before anything is
+ * written, so a search that fails outright gets an error status.  Should a
+ * later chunk fail, the status has already been sent, so the response is
+ * ended with an <code>error</code> member instead of being cut off.
+ */
+@Controller
+public class SearchApiController {
+
+    private static final Log logger =
+        LogFactory.getLog(SearchApiController.class);
+
+    private static final String CONTENT_TYPE = "application/json;charset=UTF-8";
+
+    private FlightService flights;
+    private int chunkSize = 64;
+
+    public void setFlightService(FlightService flights) {
+        this.flights = flights;
+    }
+
+    /**
+     * @param chunkSize how many flights to create and write at a time
+     */
+    public void setChunkSize(int chunkSize) {
+        Assert.isTrue(chunkSize > 0, "Chunk size must be positive");
+        this.chunkSize = chunkSize;
+    }
+
+    @InitBinder
+    protected void initBinder(WebDataBinder binder) {
+        binder.registerCustomEditor(Date.class, new CustomDateEditor(
+                new SimpleDateFormat("yyyy-MM-dd HH"), true));
+    }
+
+    @RequestMapping(value = "/api/search",
+            method = {RequestMethod.GET, RequestMethod.POST})
+    public void search(
+            @ModelAttribute("flightSearchCriteria") FlightSearchCriteria search,
+            BindingResult errors, HttpServletResponse response)
+            throws IOException {
+        String problem = problemWith(search, errors);
+        if (problem != null) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            response.setContentType(CONTENT_TYPE);
+            new FlightJsonWriter().reset(response.getOutputStream())
+                .writeError(problem);
+            return;
+        }
+
+        FlightCursor cursor = flights.openSearch(search);
+        int total = cursor.size();
+        List<Flight> chunk = cursor.fetch(0, chunkSize);
+
+        response.setContentType(CONTENT_TYPE);
+        FlightJsonWriter writer =
+            new FlightJsonWriter().reset(response.getOutputStream());
+        writer.beginResults(search, total);
+        writer.writeFlights(chunk);
+        for (int offset = chunkSize; offset < total; offset += chunkSize) {
+            try {
+                chunk = cursor.fetch(offset, chunkSize);
+            } catch (RuntimeException e) {
+                logger.warn("Flight search failed after " + offset + " of "
+                        + total + " flights", e);
+                writer.endResults("Search failed after " + offset
+                        + " flights");
+                return;
+            }
+            writer.writeFlights(chunk);
+        }
+        writer.endResults();
+    }
+
+    private static String problemWith(FlightSearchCriteria search,
+            BindingResult errors) {
+        if (errors.hasFieldErrors("departOn")
+                || errors.hasFieldErrors("returnOn")) {
+            return "Dates must be given as yyyy-MM-dd HH";
+        }
+        if (errors.hasErrors()) {
+            return "Invalid search";
+        }
+        if (!StringUtils.hasText(search.getDepartFrom())) {
+            return "departFrom is required";
+        }
+        if (search.getDepartOn() == null) {
+            return "departOn is required";
+        }
+        return null;
+    }
+
+}
@@ -2,20 +2,39 @@ package JavaSource.com.apress.expertspringmvc.flight.web;
 
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.List;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 import org.springframework.beans.propertyeditors.CustomDateEditor;
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
 import org.springframework.web.bind.ServletRequestDataBinder;
 import org.springframework.web.servlet.ModelAndView;
 import org.springframework.web.servlet.mvc.SimpleFormController;
 
+import JavaSource.com.apress.expertspringmvc.flight.domain.FareCalendar;
 import JavaSource.com.apress.expertspringmvc.flight.domain.FlightSearchCriteria;
+import JavaSource.com.apress.expertspringmvc.flight.domain.RoundTrip;
+import JavaSource.com.apress.expertspringmvc.flight.domain.SpecialDeal;
+import JavaSource.com.apress.expertspringmvc.flight.service.FlightPage;
+import JavaSource.com.apress.expertspringmvc.flight.service.FlightPager;
 import JavaSource.com.apress.expertspringmvc.flight.service.FlightService;
+import JavaSource.com.apress.expertspringmvc.flight.service.RoundTripSearch;
 
+/**
+ * Searches for flights and lists them a page at a time.  A submitted search
+ * opens a cursor and shows its first page; <code>?page=token</code> shows a
+ * later page of the same cursor without searching again.  A token whose
+ * cursor has expired shows a fresh search form.
+ */
 public class SearchFlightsController extends SimpleFormController {
 
     private FlightService flights;
+    private RoundTripSearch roundTrips;
+    private FlightPager pager = new FlightPager();
+    private int pageSize = 20;
     
     public SearchFlightsController() {
         setCommandName("flightSearchCriteria");
@@ -28,6 +47,38 @@ public class SearchFlightsController extends SimpleFormController {
         this.flights = flights;
     }
 
+    /**
+     * @param roundTrips the search for round trips to list along with the
+     * flights of a search with a return date; none are listed without one
+     */
+    public void setRoundTripSearch(RoundTripSearch roundTrips) {
+        this.roundTrips = roundTrips;
+    }
+
+    public void setFlightPager(FlightPager pager) {
+        Assert.notNull(pager, "Pager must not be null");
+        this.pager = pager;
+    }
+
+    public void setPageSize(int pageSize) {
+        Assert.isTrue(pageSize > 0, "Page size must be positive");
+        this.pageSize = pageSize;
+    }
+
+    @Override
+    protected ModelAndView handleRequestInternal(HttpServletRequest request,
+            HttpServletResponse response) throws Exception {
+        String token = request.getParameter("page");
+        if (StringUtils.hasText(token)) {
+            FlightPage page = pager.page(token);
+            if (page != null) {
+                return showPage(page);
+            }
+            return showNewForm(request, response);
+        }
+        return super.handleRequestInternal(request, response);
+    }
+
     @Override
     protected void initBinder(HttpServletRequest req,
             ServletRequestDataBinder binder) throws Exception {
@@ -38,9 +89,57 @@ public class SearchFlightsController extends SimpleFormController {
     @Override
     protected ModelAndView onSubmit(Object command) throws Exception {
         FlightSearchCriteria search = (FlightSearchCriteria) command;
-        ModelAndView mav = new ModelAndView(getSuccessView());
-        mav.addObject("flights", flights.findFlights(search));
-        mav.addObject("flightSearchCriteria", search);
+        FlightPage page = pager.open(search, flights.openSearch(search),
+                pageSize);
+        return listFlights(page, flights.findSpecialDeals(search),
+                findFareCalendar(flights, search),
+                findRoundTrips(roundTrips, search));
+    }
+
+    /**
+     * Later pages leave out the fare calendar and round trips shown with
+     * the first.
+     */
+    private ModelAndView showPage(FlightPage page) {
+        return listFlights(page, flights.findSpecialDeals(page.getSearch()),
+                null, null);
+    }
+
+    /**
+     * @return the fare calendar for a search with flexible dates, or null
+     */
+    static FareCalendar findFareCalendar(FlightService flights,
+            FlightSearchCriteria search) {
+        return (search.getFlexibleDays() > 0 ?
+                flights.findFareCalendar(search) : null);
+    }
+
+    /**
+     * @return the round trips for a search with a return date, or null
+     */
+    static List<RoundTrip> findRoundTrips(RoundTripSearch roundTrips,
+            FlightSearchCriteria search) {
+        return (roundTrips != null && search.getReturnOn() != null ?
+                roundTrips.search(search) : null);
+    }
+
+    /**
+     * @return the listFlights view of one page of a search
+     */
+    static ModelAndView listFlights(FlightPage page,
+            List<SpecialDeal> specialDeals, FareCalendar fareCalendar,
+            List<RoundTrip> roundTrips) {
+        ModelAndView mav = new ModelAndView("listFlights");
+        mav.addObject("flights", page.getFlights());
+        mav.addObject("flightPage", page);
+        mav.addObject("specialDeals", specialDeals);
+        mav.addObject("flightSearchCriteria", page.getSearch());
+        if (fareCalendar != null) {
+            mav.addObject("fareCalendar", fareCalendar);
+        }
+        if (roundTrips != null) {
+            mav.addObject("roundTrips", roundTrips);
+        }
         return mav;
     }
     
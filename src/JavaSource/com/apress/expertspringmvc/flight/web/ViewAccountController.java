@@ -14,9 +14,18 @@ import org.springframework.web.servlet.support.RequestMethodNotSupportedExceptio
 import JavaSource.com.apress.expertspringmvc.flight.domain.Account;
 import JavaSource.com.apress.expertspringmvc.flight.service.AccountNotFoundException;
 import JavaSource.com.apress.expertspringmvc.flight.service.AccountService;
+import JavaSource.com.apress.expertspringmvc.flight.service.NameMatch;
 
 public class ViewAccountController extends MultiActionController {
     
+    private static final int PAGE_SIZE = 50;
+
+    /**
+     * The last page whose offset still fits in an int; any page past the
+     * end of the results is empty anyway.
+     */
+    private static final int MAX_PAGE = Integer.MAX_VALUE / PAGE_SIZE - 1;
+
     private AccountService accountService;
    
     public ViewAccountController() throws ApplicationContextException {
@@ -48,19 +57,25 @@ public class ViewAccountController extends MultiActionController {
     public ModelAndView findByFirstName(HttpServletRequest request,
             HttpServletResponse response, SearchCriteria criteria) {
         List<Account> accounts = accountService.findAccountsByFirstName(
-                criteria.getSearchBy());
-        return new ModelAndView("viewAccounts", "accounts", accounts);
+                criteria.getSearchBy(), criteria.getMatch(),
+                criteria.getOffset(), PAGE_SIZE);
+        return new ModelAndView("viewAccounts", "accounts", accounts)
+            .addObject("page", criteria.getPage());
     }
 
     public ModelAndView findByLastName(HttpServletRequest request,
             HttpServletResponse response, SearchCriteria criteria) {
         List<Account> accounts = accountService.findAccountsByLastName(
-                criteria.getSearchBy());
-        return new ModelAndView("viewAccounts", "accounts", accounts);
+                criteria.getSearchBy(), criteria.getMatch(),
+                criteria.getOffset(), PAGE_SIZE);
+        return new ModelAndView("viewAccounts", "accounts", accounts)
+            .addObject("page", criteria.getPage());
     }
     
     public static class SearchCriteria {
         private String searchBy;
+        private boolean prefix;
+        private int page;
 
         public String getSearchBy() {
             return searchBy;
@@ -69,6 +84,33 @@ public class ViewAccountController extends MultiActionController {
         public void setSearchBy(String searchBy) {
             this.searchBy = searchBy;
         }
+
+        /**
+         * @return whether searchBy is only the start of the name
+         */
+        public boolean isPrefix() {
+            return prefix;
+        }
+
+        public void setPrefix(boolean prefix) {
+            this.prefix = prefix;
+        }
+
+        public int getPage() {
+            return page;
+        }
+
+        public void setPage(int page) {
+            this.page = Math.min(Math.max(page, 0), MAX_PAGE);
+        }
+
+        int getOffset() {
+            return page * PAGE_SIZE;
+        }
+
+        NameMatch getMatch() {
+            return (prefix ? NameMatch.PREFIX : NameMatch.IGNORE_CASE);
+        }
     }
     
     private void ensureMethod(HttpServletRequest request, String ... methods)
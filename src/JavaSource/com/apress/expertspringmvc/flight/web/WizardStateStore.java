@@ -0,0 +1,23 @@
+package JavaSource.com.apress.expertspringmvc.flight.web;
+
+/**
+ * Holds the state of half-finished wizards as bytes, so the session need
+ * only hold the token a state was saved under.  A store may drop states
+ * it has no room for or that have been idle too long; the wizard then
+ * starts over.
+ */
+public interface WizardStateStore {
+
+    /**
+     * @return the token to load the state with
+     */
+    String save(byte[] state);
+
+    /**
+     * @return the state saved under the token, or null if it is gone
+     */
+    byte[] load(String token);
+
+    void remove(String token);
+
+}
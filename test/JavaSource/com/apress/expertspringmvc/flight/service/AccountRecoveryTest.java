@@ -0,0 +1,335 @@
+package JavaSource.com.apress.expertspringmvc.flight.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+
+import JavaSource.com.apress.expertspringmvc.flight.domain.Account;
+import JavaSource.com.apress.expertspringmvc.flight.domain.Name;
+
+/**
+ * Snapshots an account store while writers keep changing it, recovers a
+ * second store from the log and compares the two.  The number of accounts
+ * is taken from the <code>accountRecoveryTest.accounts</code> system
+ * property, and a limit on the time recovery may take from
+ * <code>accountRecoveryTest.maxRecoveryMillis</code>, so the same test
+ * checks a full-size store when run with a large heap.  The limit allows
+ * a second plus 10 microseconds an account unless given.
+ */
+public class AccountRecoveryTest {
+
+    private static final int FIRST_NAMES = 50;
+    private static final int LAST_NAMES = 200;
+    private static final int WRITERS = 2;
+
+    private final int accounts =
+        Integer.getInteger("accountRecoveryTest.accounts", 20000);
+    private final long maxRecoveryMillis =
+        Long.getLong("accountRecoveryTest.maxRecoveryMillis",
+                1000 + accounts / 100);
+
+    private File directory;
+    private AccountLog log;
+    private AccountServiceImpl store;
+    private final Queue<Long> ids = new ConcurrentLinkedQueue<Long>();
+    private final AtomicInteger usernames = new AtomicInteger();
+
+    @Before
+    public void openStore() throws IOException {
+        directory = Files.createTempDirectory("accounts").toFile();
+        log = new AccountLog(directory, AccountLog.Durability.BATCHED, 5);
+        store = new AccountServiceImpl(accounts);
+        store.setAccountLog(log);
+    }
+
+    @After
+    public void deleteLog() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void recoversSnapshotTakenUnderConcurrentWritesPlusTail()
+            throws Exception {
+        Random random = new Random(11);
+        for (int i = 0; i < accounts; i++) {
+            save(random);
+        }
+
+        final AtomicBoolean stop = new AtomicBoolean();
+        final AtomicInteger writes = new AtomicInteger();
+        final List<Throwable> failures = new ArrayList<Throwable>();
+        List<Thread> writers = new ArrayList<Thread>();
+        for (int w = 0; w < WRITERS; w++) {
+            final Random own = new Random(w);
+            Thread writer = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        while (!stop.get()) {
+                            change(own);
+                            writes.incrementAndGet();
+                        }
+                    } catch (Throwable e) {
+                        synchronized (failures) {
+                            failures.add(e);
+                        }
+                    }
+                }
+            });
+            writer.start();
+            writers.add(writer);
+        }
+        awaitWrites(writes, 1000);
+        store.snapshot();
+        awaitWrites(writes, writes.get() + 1000);
+        store.snapshot();
+        awaitWrites(writes, writes.get() + 1000);
+        stop.set(true);
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        assertTrue("Writers failed: " + failures, failures.isEmpty());
+        for (int i = 0; i < 100; i++) {
+            save(random);
+        }
+        log.close();
+
+        assertCompacted();
+
+        long start = System.currentTimeMillis();
+        AccountLog reopened = new AccountLog(directory,
+                AccountLog.Durability.BATCHED, 5);
+        AccountServiceImpl recovered = new AccountServiceImpl(accounts);
+        recovered.setAccountLog(reopened);
+        long recoveryMillis = System.currentTimeMillis() - start;
+        try {
+            assertSameAccounts(store, recovered);
+            assertSameNameIndexes(store, recovered);
+            assertTrue("Recovery took " + recoveryMillis + "ms",
+                    recoveryMillis <= maxRecoveryMillis);
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void doesNotReissueIdsOfAccountsRemovedBeforeSnapshot()
+            throws Exception {
+        Random random = new Random(12);
+        for (int i = 0; i < 10; i++) {
+            save(random);
+        }
+        Account last = store.findAccountByUsername("user10");
+        store.cancelAccount("user10");
+        store.snapshot();
+        log.close();
+
+        AccountLog reopened = new AccountLog(directory,
+                AccountLog.Durability.BATCHED, 5);
+        try {
+            store = new AccountServiceImpl();
+            store.setAccountLog(reopened);
+            save(random);
+            assertTrue(store.findAccountByUsername("user11").getId()
+                    > last.getId());
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void doesNotPublishChangesTheLogFailedToWrite() throws Exception {
+        log.close();
+        log = new AccountLog(directory, AccountLog.Durability.BATCHED, 5) {
+            @Override
+            public Pending put(Account account) {
+                Pending failed = new Pending(new byte[0], true);
+                failed.complete(new IOException("Disk full"));
+                return failed;
+            }
+        };
+        store = new AccountServiceImpl();
+        store.setAccountLog(log);
+        Account account = new Account(randomName(new Random(13)), "user1",
+                "secret");
+        try {
+            store.saveAccount(account);
+            fail("Saved an account the log did not write");
+        } catch (DataAccessResourceFailureException e) {
+            // expected
+        }
+        assertEquals(0, store.size());
+        try {
+            store.findAccountByUsername("user1");
+            fail("Found an account the log did not write");
+        } catch (AccountNotFoundException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void versionsAccountsLoggedWithoutAnUpdateTime() throws Exception {
+        Account account = new Account(randomName(new Random(14)), "user1",
+                "secret");
+        account.setId(1L);
+        log.put(account).await();
+        log.close();
+
+        AccountLog reopened = new AccountLog(directory,
+                AccountLog.Durability.BATCHED, 5);
+        try {
+            store = new AccountServiceImpl();
+            store.setAccountLog(reopened);
+            assertEquals(-1, store.findAccountVersion(1L).getLastModified());
+        } finally {
+            reopened.close();
+        }
+    }
+
+    private void save(Random random) {
+        Account account = new Account(randomName(random),
+                "user" + usernames.incrementAndGet(), "secret");
+        account.setEmail(account.getUsername() + "@example.com");
+        store.saveAccount(account);
+        ids.add(account.getId());
+    }
+
+    /**
+     * Renames, updates, removes or adds one account at random.
+     */
+    private void change(Random random) {
+        int choice = random.nextInt(10);
+        if (choice == 0) {
+            save(random);
+            return;
+        }
+        String username = "user" + (1 + random.nextInt(usernames.get()));
+        try {
+            Account account = store.findAccountByUsername(username);
+            if (choice == 1) {
+                store.cancelAccount(username);
+            } else if (choice == 2) {
+                account.setUsername(username + "x");
+                store.updateAccount(account);
+            } else {
+                account.setName(randomName(random));
+                account.setEmail("changed" + random.nextInt() + "@example.com");
+                store.updateAccount(account);
+            }
+        } catch (AccountNotFoundException e) {
+            // removed or renamed by the other writer
+        } catch (DuplicateUsernameException e) {
+            // renamed to a username already taken
+        }
+    }
+
+    private static Name randomName(Random random) {
+        return new Name("First" + random.nextInt(FIRST_NAMES), null,
+                "Last" + random.nextInt(LAST_NAMES));
+    }
+
+    private static void awaitWrites(AtomicInteger writes, int count)
+            throws InterruptedException {
+        while (writes.get() < count) {
+            Thread.sleep(1);
+        }
+    }
+
+    /**
+     * Only the latest snapshot and the segments from it on are left.
+     */
+    private void assertCompacted() {
+        String[] snapshots = directory.list(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".snapshot");
+            }
+        });
+        assertEquals(1, snapshots.length);
+        String first = snapshots[0].replace(".snapshot", ".log");
+        for (String name : directory.list()) {
+            assertTrue(name + " precedes the snapshot",
+                    name.compareTo(first) >= 0);
+        }
+    }
+
+    private void assertSameAccounts(AccountServiceImpl expected,
+            AccountServiceImpl actual) {
+        assertEquals(expected.size(), actual.size());
+        for (Long id : ids) {
+            Account a = find(expected, id);
+            Account b = find(actual, id);
+            if (a == null || b == null) {
+                assertEquals("Account " + id, a, b);
+                continue;
+            }
+            assertEquals(a.getUsername(), b.getUsername());
+            assertEquals(a.getName(), b.getName());
+            assertEquals(a.getEmail(), b.getEmail());
+            assertEquals(a.getVersion(), b.getVersion());
+            assertEquals(a.getLastUpdated(), b.getLastUpdated());
+            try {
+                assertEquals(id, actual.findAccountByUsername(
+                        b.getUsername()).getId());
+            } catch (AccountNotFoundException e) {
+                throw new AssertionError("No account for " + b.getUsername());
+            }
+        }
+    }
+
+    private void assertSameNameIndexes(AccountServiceImpl expected,
+            AccountServiceImpl actual) {
+        for (int i = 0; i < FIRST_NAMES; i++) {
+            String name = "First" + i;
+            assertEquals(name, idsOf(expected.findAccountsByFirstName(name,
+                    NameMatch.EXACT, 0, Integer.MAX_VALUE)),
+                    idsOf(actual.findAccountsByFirstName(name,
+                            NameMatch.EXACT, 0, Integer.MAX_VALUE)));
+        }
+        for (int i = 0; i < LAST_NAMES; i++) {
+            String name = "Last" + i;
+            assertEquals(name, idsOf(expected.findAccountsByLastName(name,
+                    NameMatch.EXACT, 0, Integer.MAX_VALUE)),
+                    idsOf(actual.findAccountsByLastName(name,
+                            NameMatch.EXACT, 0, Integer.MAX_VALUE)));
+        }
+    }
+
+    private static Account find(AccountServiceImpl store, Long id) {
+        try {
+            return store.findAccount(id);
+        } catch (AccountNotFoundException e) {
+            return null;
+        }
+    }
+
+    private static List<Long> idsOf(List<Account> accounts) {
+        List<Long> ids = new ArrayList<Long>(accounts.size());
+        for (Account account : accounts) {
+            ids.add(account.getId());
+        }
+        return ids;
+    }
+
+}
@@ -0,0 +1,100 @@
+package JavaSource.com.apress.expertspringmvc.flight.service;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.TimeZone;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import JavaSource.com.apress.expertspringmvc.flight.domain.FareCalendar;
+import JavaSource.com.apress.expertspringmvc.flight.domain.Flight;
+import JavaSource.com.apress.expertspringmvc.flight.domain.FlightSearchCriteria;
+import JavaSource.com.apress.expertspringmvc.flight.domain.SpecialDeal;
+
+/**
+ * Checks which searches share a cache entry, and what the search that
+ * loads an entry passes on, in a time zone half an hour off UTC.
+ */
+public class CachingFlightServiceTest {
+
+    private TimeZone defaultZone;
+    private TimeZone zone;
+    private final List<FlightSearchCriteria> loaded =
+        new ArrayList<FlightSearchCriteria>();
+    private CachingFlightService cache;
+
+    @Before
+    public void setUp() {
+        defaultZone = TimeZone.getDefault();
+        zone = TimeZone.getTimeZone("Asia/Kolkata");
+        TimeZone.setDefault(zone);
+        cache = new CachingFlightService(new FlightService() {
+            public List<SpecialDeal> getSpecialDeals() {
+                return Collections.emptyList();
+            }
+            public List<Flight> findFlights(FlightSearchCriteria search) {
+                return openSearch(search).fetch(0, 0);
+            }
+            public FlightCursor openSearch(FlightSearchCriteria search) {
+                loaded.add(search);
+                return new ListFlightCursor(Collections.<Flight>emptyList());
+            }
+            public List<SpecialDeal> findSpecialDeals(
+                    FlightSearchCriteria search) {
+                return Collections.emptyList();
+            }
+            public FareCalendar findFareCalendar(
+                    FlightSearchCriteria search) {
+                return null;
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        TimeZone.setDefault(defaultZone);
+    }
+
+    @Test
+    public void sharesAnEntryWithinTheLocalHour() {
+        cache.openSearch(search("bos ", 10, 5));
+        cache.openSearch(search("BOS", 10, 55));
+        cache.openSearch(search("BOS", 11, 5));
+
+        assertEquals(2, loaded.size());
+        assertEquals("BOS", loaded.get(0).getDepartFrom());
+        assertEquals(search("BOS", 10, 0).getDepartOn(),
+                loaded.get(0).getDepartOn());
+        assertEquals(search("BOS", 11, 0).getDepartOn(),
+                loaded.get(1).getDepartOn());
+    }
+
+    @Test
+    public void loadsWithTheCallersOtherCriteria() {
+        FlightSearchCriteria search = search("BOS", 10, 5);
+        search.setFlexibleDays(3);
+        search.setLimit(20);
+        cache.openSearch(search);
+
+        assertEquals(3, loaded.get(0).getFlexibleDays());
+        assertEquals(20, loaded.get(0).getLimit());
+    }
+
+    private FlightSearchCriteria search(String from, int hour, int minute) {
+        Calendar calendar = Calendar.getInstance(zone);
+        calendar.clear();
+        calendar.set(2026, Calendar.MARCH, 14, hour, minute);
+        FlightSearchCriteria search = new FlightSearchCriteria();
+        search.setDepartFrom(from);
+        search.setArriveAt("SFO");
+        search.setDepartOn(calendar.getTime());
+        return search;
+    }
+
+}
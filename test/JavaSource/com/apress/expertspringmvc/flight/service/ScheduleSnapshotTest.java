@@ -0,0 +1,179 @@
+package JavaSource.com.apress.expertspringmvc.flight.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import JavaSource.com.apress.expertspringmvc.flight.domain.Airport;
+import JavaSource.com.apress.expertspringmvc.flight.domain.Flight;
+import JavaSource.com.apress.expertspringmvc.flight.domain.FlightLeg;
+import JavaSource.com.apress.expertspringmvc.flight.domain.FlightSearchCriteria;
+
+/**
+ * Writes a generated schedule as a snapshot, maps it back and checks that
+ * searches served from the snapshot find the same flights as searches over
+ * the legs held in memory.
+ */
+public class ScheduleSnapshotTest {
+
+    private static final long ONE_HOUR = 1000*60*60;
+    private static final long ONE_DAY = ONE_HOUR*24;
+    private static final int DAYS = 7;
+    private static final int LEGS = 5000;
+
+    private static final String[] AIRPORTS = {
+        "ATL", "BOS", "DEN", "JFK", "LAX", "ORD", "SFO" };
+
+    private final long start = (System.currentTimeMillis() / ONE_DAY) * ONE_DAY;
+    private File file;
+    private List<FlightLeg> legs;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("schedule", ".snapshot");
+        legs = generate(LEGS);
+        ScheduleSnapshot.write(legs, file);
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void searchesTheSnapshotAsTheLegsInMemory() throws IOException {
+        MappedSchedule mapped = MappedSchedule.open(file);
+        mapped.verify();
+        assertEquals(LEGS, mapped.size());
+
+        ScheduleFlightService inMemory = new ScheduleFlightService();
+        inMemory.setLegs(legs);
+        ScheduleFlightService fromSnapshot = new ScheduleFlightService();
+        fromSnapshot.setSnapshotFile(file);
+
+        for (int day = 0; day < DAYS; day += 3) {
+            Date departOn = new Date(start + day * ONE_DAY + 6 * ONE_HOUR);
+            for (String from : AIRPORTS) {
+                FlightSearchCriteria nonstops = criteria(from, null, departOn);
+                List<Flight> expected = inMemory.findFlights(nonstops);
+                assertFalse(expected.isEmpty());
+                assertEquals(describe(expected),
+                        describe(fromSnapshot.findFlights(nonstops)));
+
+                String to = AIRPORTS[(day + 1) % AIRPORTS.length];
+                if (!to.equals(from)) {
+                    FlightSearchCriteria connections =
+                        criteria(from, to, departOn);
+                    assertEquals(describe(inMemory.findFlights(connections)),
+                            describe(fromSnapshot.findFlights(connections)));
+                }
+            }
+        }
+    }
+
+    /**
+     * Opening reads only the header and the airport directory, which is
+     * what keeps it as quick for a million legs as for a thousand: damage
+     * to the legs goes unnoticed until they are verified.
+     */
+    @Test
+    public void opensWithoutReadingTheLegs() throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(raf.length() - 1);
+            int last = raf.read();
+            raf.seek(raf.length() - 1);
+            raf.write(last ^ 0xff);
+        } finally {
+            raf.close();
+        }
+
+        MappedSchedule mapped = MappedSchedule.open(file);
+        assertEquals(LEGS, mapped.size());
+        try {
+            mapped.verify();
+            fail("Damaged legs passed their checksum");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void refusesADamagedDirectory() throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(ScheduleSnapshot.HEADER_SIZE + 8);
+            raf.write(raf.read() ^ 0xff);
+        } finally {
+            raf.close();
+        }
+
+        try {
+            MappedSchedule.open(file);
+            fail("Opened a snapshot with a damaged directory");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private List<FlightLeg> generate(int count) {
+        Random random = new Random(3);
+        AirportRegistry registry = new AirportRegistry();
+        Airport[] airports = new Airport[AIRPORTS.length];
+        for (int i = 0; i < airports.length; i++) {
+            airports[i] = registry.intern(AIRPORTS[i], AIRPORTS[i]);
+        }
+        List<FlightLeg> generated = new ArrayList<FlightLeg>(count);
+        for (int i = 0; i < count; i++) {
+            int from = random.nextInt(airports.length);
+            int to = (from + 1 + random.nextInt(airports.length - 1))
+                % airports.length;
+            long departOn = start + random.nextInt(DAYS * 24 * 60) * 60000L;
+            long arriveOn = departOn + (1 + random.nextInt(6)) * ONE_HOUR;
+            generated.add(new FlightLeg(airports[from], new Date(departOn),
+                    airports[to], new Date(arriveOn),
+                    new BigDecimal(100 + random.nextInt(800))));
+        }
+        return generated;
+    }
+
+    private static FlightSearchCriteria criteria(String from, String to,
+            Date departOn) {
+        FlightSearchCriteria criteria = new FlightSearchCriteria();
+        criteria.setDepartFrom(from);
+        criteria.setArriveAt(to);
+        criteria.setDepartOn(departOn);
+        return criteria;
+    }
+
+    private static List<String> describe(List<Flight> flights) {
+        List<String> described = new ArrayList<String>(flights.size());
+        for (Flight flight : flights) {
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < flight.getNumberOfLegs(); i++) {
+                FlightLeg leg = flight.getLeg(i);
+                text.append(leg.getDepartFrom().getAirportCode())
+                    .append(' ').append(leg.getDepartOn().getTime())
+                    .append(' ').append(leg.getArriveAt().getAirportCode())
+                    .append(' ').append(leg.getArriveOn().getTime())
+                    .append(' ').append(leg.getFare()).append("; ");
+            }
+            described.add(text.append(flight.getTotalCost()).toString());
+        }
+        return described;
+    }
+
+}
@@ -0,0 +1,68 @@
+package JavaSource.com.apress.expertspringmvc.flight.web;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.support.FileSystemXmlApplicationContext;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.servlet.ModelAndView;
+
+import JavaSource.com.apress.expertspringmvc.flight.domain.SpecialDeal;
+import JavaSource.com.apress.expertspringmvc.flight.service.FlightService;
+
+/**
+ * Loads the application context the webapp ships with and checks that the
+ * home page lists the special deals it configures.
+ */
+public class HomeControllerTest {
+
+    private static final String ACCOUNTS_PROPERTY =
+        "flight.accounts.directory";
+
+    private File directory;
+    private FileSystemXmlApplicationContext context;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("accounts").toFile();
+        System.setProperty(ACCOUNTS_PROPERTY, directory.getPath());
+        context = new FileSystemXmlApplicationContext(
+            "WebContent/WEB-INF/applicationContext.xml");
+    }
+
+    @After
+    public void tearDown() {
+        context.close();
+        System.clearProperty(ACCOUNTS_PROPERTY);
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void listsTheConfiguredSpecialDeals() throws Exception {
+        HomeController controller = new HomeController();
+        controller.setFlightService(
+            context.getBean("flightService", FlightService.class));
+
+        ModelAndView mav = controller.handleRequest(
+            new MockHttpServletRequest("GET", "/home"),
+            new MockHttpServletResponse());
+
+        @SuppressWarnings("unchecked")
+        List<SpecialDeal> specials =
+            (List<SpecialDeal>) mav.getModel().get("specials");
+        assertEquals("home", mav.getViewName());
+        assertEquals(3, specials.size());
+    }
+
+}
@@ -0,0 +1,53 @@
+package JavaSource.com.apress.expertspringmvc.flight.web;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import JavaSource.com.apress.expertspringmvc.flight.service.DummyFlightService;
+
+/**
+ * Drives /api/search through the annotation handler mapping and adapter.
+ */
+public class SearchApiControllerTest {
+
+    private MockMvc mvc;
+
+    @Before
+    public void setUp() {
+        SearchApiController controller = new SearchApiController();
+        controller.setFlightService(new DummyFlightService());
+        mvc = MockMvcBuilders.standaloneSetup(controller).build();
+    }
+
+    @Test
+    public void answersASearchInJson() throws Exception {
+        mvc.perform(get("/api/search")
+                .param("departFrom", "BOS")
+                .param("arriveAt", "SFO")
+                .param("departOn", "2026-03-14 10"))
+            .andExpect(status().isOk())
+            .andExpect(content().contentType(
+                    "application/json;charset=UTF-8"))
+            .andExpect(content().string(
+                    containsString("\"totalFlights\":1")));
+    }
+
+    @Test
+    public void rejectsADateInTheWrongFormat() throws Exception {
+        mvc.perform(post("/api/search")
+                .param("departFrom", "BOS")
+                .param("departOn", "14/03/2026"))
+            .andExpect(status().isBadRequest())
+            .andExpect(content().string(
+                    containsString("Dates must be given as yyyy-MM-dd HH")));
+    }
+
+}
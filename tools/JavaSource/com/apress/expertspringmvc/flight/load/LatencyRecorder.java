@@ -0,0 +1,109 @@
+package JavaSource.com.apress.expertspringmvc.flight.load;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Latencies and errors per label, in label order, kept exactly as growable
+ * arrays of nanoseconds.  Each worker thread owns one recorder, so recording
+ * takes no lock; recorders are merged once the run is over.
+ */
+class LatencyRecorder {
+
+    private final Map<String, Series> series =
+        new TreeMap<String, Series>();
+
+    void record(String label, long nanos, boolean error) {
+        Series s = series.get(label);
+        if (s == null) {
+            s = new Series(label);
+            series.put(label, s);
+        }
+        s.add(nanos, error);
+    }
+
+    void clear() {
+        series.clear();
+    }
+
+    Collection<Series> getSeries() {
+        return series.values();
+    }
+
+    static LatencyRecorder merge(Collection<LatencyRecorder> recorders) {
+        LatencyRecorder merged = new LatencyRecorder();
+        for (LatencyRecorder recorder : recorders) {
+            for (Series s : recorder.series.values()) {
+                Series into = merged.series.get(s.label);
+                if (into == null) {
+                    into = new Series(s.label);
+                    merged.series.put(s.label, into);
+                }
+                into.addAll(s);
+            }
+        }
+        for (Series s : merged.series.values()) {
+            Arrays.sort(s.nanos, 0, s.count);
+        }
+        return merged;
+    }
+
+    static class Series {
+
+        private final String label;
+        private long[] nanos = new long[1024];
+        private int count;
+        private int errors;
+
+        Series(String label) {
+            this.label = label;
+        }
+
+        void add(long latency, boolean error) {
+            if (count == nanos.length) {
+                nanos = Arrays.copyOf(nanos, count * 2);
+            }
+            nanos[count++] = latency;
+            if (error) {
+                errors++;
+            }
+        }
+
+        void addAll(Series other) {
+            if (count + other.count > nanos.length) {
+                nanos = Arrays.copyOf(nanos,
+                        Math.max(count + other.count, count * 2));
+            }
+            System.arraycopy(other.nanos, 0, nanos, count, other.count);
+            count += other.count;
+            errors += other.errors;
+        }
+
+        String getLabel() {
+            return label;
+        }
+
+        int getCount() {
+            return count;
+        }
+
+        int getErrors() {
+            return errors;
+        }
+
+        /**
+         * @param quantile from 0 to 1; only meaningful once merged, which
+         * sorts the latencies
+         */
+        long getNanosAt(double quantile) {
+            if (count == 0) {
+                return 0;
+            }
+            int rank = (int) Math.ceil(quantile * count) - 1;
+            return nanos[Math.min(Math.max(rank, 0), count - 1)];
+        }
+    }
+
+}
@@ -0,0 +1,238 @@
+package JavaSource.com.apress.expertspringmvc.flight.load;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.DispatcherType;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockHttpSession;
+import org.springframework.web.servlet.DispatcherServlet;
+
+/**
+ * A simulated browser belonging to one worker thread.  Requests go straight
+ * into the DispatcherServlet as mock requests under the servlet's
+ * <code>/app</code> mapping, sharing one session, and each is timed and
+ * recorded under its label.  Handlers that go asynchronous are waited for
+ * and dispatched again, as a Servlet 3 container would, so a label's time
+ * covers the whole exchange.
+ */
+public class LoadClient {
+
+    private static final String SERVLET_PATH = "/app";
+
+    private final DispatcherServlet dispatcher;
+    private final ServletContext servletContext;
+    private final LatencyRecorder recorder;
+    private MockHttpSession session;
+
+    LoadClient(DispatcherServlet dispatcher, ServletContext servletContext,
+            LatencyRecorder recorder) {
+        this.dispatcher = dispatcher;
+        this.servletContext = servletContext;
+        this.recorder = recorder;
+        newSession();
+    }
+
+    /**
+     * Starts a new session, as a new visitor would.
+     */
+    public void newSession() {
+        session = new MockHttpSession(servletContext);
+    }
+
+    /**
+     * @param params alternating parameter names and values
+     */
+    public MockHttpServletResponse get(String label, String path,
+            String ... params) throws Exception {
+        return send(label, "GET", path, params);
+    }
+
+    /**
+     * @param params alternating parameter names and values
+     */
+    public MockHttpServletResponse post(String label, String path,
+            String ... params) throws Exception {
+        return send(label, "POST", path, params);
+    }
+
+    private MockHttpServletResponse send(String label, String method,
+            String path, String[] params) throws Exception {
+        AsyncRequest request = new AsyncRequest(servletContext, method,
+                SERVLET_PATH + path);
+        request.setServletPath(SERVLET_PATH);
+        request.setPathInfo(path);
+        request.setSession(session);
+        for (int i = 0; i + 1 < params.length; i += 2) {
+            request.addParameter(params[i], params[i + 1]);
+        }
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        long start = System.nanoTime();
+        boolean error = true;
+        try {
+            dispatcher.service(request, response);
+            if (request.isAsyncStarted()) {
+                request.awaitAsync(response);
+            }
+            error = response.getStatus() >= 400;
+        } finally {
+            recorder.record(label, System.nanoTime() - start, error);
+        }
+        return response;
+    }
+
+    /**
+     * A request that can be suspended the way a Servlet 3 container would
+     * suspend it: once the handler goes asynchronous, the client waits for
+     * the dispatch back, firing the listeners' timeout if it does not come
+     * in time, then dispatches the request again to complete it.
+     */
+    private class AsyncRequest extends MockHttpServletRequest
+            implements AsyncContext {
+
+        private final List<AsyncListener> listeners =
+            new ArrayList<AsyncListener>();
+        private final CountDownLatch dispatched = new CountDownLatch(1);
+        private volatile boolean asyncStarted;
+        private DispatcherType dispatcherType = DispatcherType.REQUEST;
+        private ServletResponse response;
+        private long timeout = 30000;
+
+        AsyncRequest(ServletContext servletContext, String method,
+                String requestURI) {
+            super(servletContext, method, requestURI);
+        }
+
+        void awaitAsync(HttpServletResponse response) throws Exception {
+            if (timeout <= 0) {
+                dispatched.await();
+            } else if (!dispatched.await(timeout, TimeUnit.MILLISECONDS)) {
+                AsyncEvent event = new AsyncEvent(this);
+                for (AsyncListener listener : copyOfListeners()) {
+                    listener.onTimeout(event);
+                }
+                if (!dispatched.await(timeout, TimeUnit.MILLISECONDS)) {
+                    // nothing answered the timeout, so the container gives up
+                    response.setStatus(
+                            HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                    return;
+                }
+            }
+            asyncStarted = false;
+            dispatcherType = DispatcherType.ASYNC;
+            dispatcher.service(this, response);
+            AsyncEvent event = new AsyncEvent(this);
+            for (AsyncListener listener : copyOfListeners()) {
+                listener.onComplete(event);
+            }
+        }
+
+        private synchronized List<AsyncListener> copyOfListeners() {
+            return new ArrayList<AsyncListener>(listeners);
+        }
+
+        @Override
+        public boolean isAsyncSupported() {
+            return true;
+        }
+
+        @Override
+        public boolean isAsyncStarted() {
+            return asyncStarted;
+        }
+
+        @Override
+        public AsyncContext startAsync() {
+            return startAsync(this, null);
+        }
+
+        @Override
+        public AsyncContext startAsync(ServletRequest request,
+                ServletResponse response) {
+            this.response = response;
+            asyncStarted = true;
+            return this;
+        }
+
+        @Override
+        public AsyncContext getAsyncContext() {
+            return this;
+        }
+
+        @Override
+        public DispatcherType getDispatcherType() {
+            return dispatcherType;
+        }
+
+        public ServletRequest getRequest() {
+            return this;
+        }
+
+        public ServletResponse getResponse() {
+            return response;
+        }
+
+        public boolean hasOriginalRequestAndResponse() {
+            return true;
+        }
+
+        public void dispatch() {
+            dispatched.countDown();
+        }
+
+        public void dispatch(String path) {
+            dispatched.countDown();
+        }
+
+        public void dispatch(ServletContext context, String path) {
+            dispatched.countDown();
+        }
+
+        public void complete() {
+            dispatched.countDown();
+        }
+
+        public void start(Runnable run) {
+            new Thread(run).start();
+        }
+
+        public synchronized void addListener(AsyncListener listener) {
+            listeners.add(listener);
+        }
+
+        public synchronized void addListener(AsyncListener listener,
+                ServletRequest request, ServletResponse response) {
+            listeners.add(listener);
+        }
+
+        public <T extends AsyncListener> T createListener(Class<T> type)
+                throws ServletException {
+            try {
+                return type.getDeclaredConstructor().newInstance();
+            } catch (Exception e) {
+                throw new ServletException(e);
+            }
+        }
+
+        public void setTimeout(long timeout) {
+            this.timeout = timeout;
+        }
+
+        public long getTimeout() {
+            return timeout;
+        }
+    }
+
+}
@@ -0,0 +1,338 @@
+package JavaSource.com.apress.expertspringmvc.flight.load;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.servlet.ServletException;
+
+import org.springframework.core.io.FileSystemResourceLoader;
+import org.springframework.mock.web.MockServletConfig;
+import org.springframework.mock.web.MockServletContext;
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+import org.springframework.web.context.WebApplicationContext;
+import org.springframework.web.context.support.XmlWebApplicationContext;
+import org.springframework.web.servlet.DispatcherServlet;
+
+import JavaSource.com.apress.expertspringmvc.flight.service.AccountService;
+
+/**
+ * Drives the whole web application in-process, with no container.  The
+ * harness boots <code>applicationContext.xml</code> and the
+ * <code>spring</code> DispatcherServlet from a web content directory, then
+ * worker threads fire mock requests through the servlet, picking scenarios
+ * from a weighted mix, and report throughput and latency percentiles for
+ * every URL and scenario.
+ * <p>
+ * With a target rate, requests are scheduled at fixed intervals and each
+ * scenario's latency is measured from when it was due rather than when it
+ * started, so a stall shows up in the percentiles instead of just slowing
+ * the load.  Without one, workers send as fast as they can.  Forwards to
+ * JSPs are only recorded by the mock request, so the times cover dispatch,
+ * binding, controllers and view resolution but not JSP rendering.
+ * <p>
+ * Searches are served from the schedule snapshot named by the
+ * <code>flight.schedule.snapshot</code> system property, as in the
+ * application.  If it is not set, the harness writes a sample snapshot of
+ * the given number of legs with {@link ScheduleGenerator} and serves that.
+ * Likewise accounts are logged to the
+ * <code>flight.accounts.directory</code> system property, or if it is not
+ * set to a temporary directory removed afterwards, so every run seeds its
+ * accounts afresh.
+ * <p>
+ * Run as
+ * <code>LoadHarness [--webapp=WebContent] [--threads=8] [--rate=0]
+ * [--warmup=5] [--seconds=30] [--accounts=1000] [--legs=100000]
+ * [--mix=home:40,search:30,account:20,createAccount:10]</code>,
+ * with rate in requests per second and times in seconds.  The harness
+ * lives in the <code>tools</code> source root, which is not packaged into
+ * the WAR, and runs with the application's classes, spring-test and the
+ * servlet API on the classpath.
+ */
+public class LoadHarness {
+
+    private static final String DEFAULT_MIX =
+        "home:40,search:30,account:20,createAccount:10";
+    private static final String SCHEDULE_PROPERTY = "flight.schedule.snapshot";
+    private static final String ACCOUNTS_PROPERTY = "flight.accounts.directory";
+
+    private final MockServletContext servletContext;
+    private final XmlWebApplicationContext rootContext;
+    private final DispatcherServlet dispatcher;
+
+    private int threads = 8;
+    private double rate;
+    private long warmupMillis = 5000;
+    private long durationMillis = 30000;
+
+    /**
+     * @param webappDir the directory holding <code>WEB-INF</code>
+     */
+    public LoadHarness(String webappDir) throws ServletException {
+        servletContext = new MockServletContext(webappDir,
+                new FileSystemResourceLoader());
+        rootContext = new XmlWebApplicationContext();
+        rootContext.setServletContext(servletContext);
+        rootContext.setConfigLocation("/WEB-INF/applicationContext.xml");
+        rootContext.refresh();
+        servletContext.setAttribute(
+                WebApplicationContext.ROOT_WEB_APPLICATION_CONTEXT_ATTRIBUTE,
+                rootContext);
+
+        MockServletConfig config = new MockServletConfig(servletContext,
+                "spring");
+        config.addInitParameter("detectAllViewResolvers", "false");
+        dispatcher = new DispatcherServlet();
+        dispatcher.init(config);
+    }
+
+    public WebApplicationContext getRootContext() {
+        return rootContext;
+    }
+
+    public void setThreads(int threads) {
+        Assert.isTrue(threads > 0, "Need at least one thread");
+        this.threads = threads;
+    }
+
+    /**
+     * @param rate requests per second across all threads, or 0 to send as
+     * fast as possible
+     */
+    public void setRate(double rate) {
+        Assert.isTrue(rate >= 0, "Rate must not be negative");
+        this.rate = rate;
+    }
+
+    public void setWarmupMillis(long warmupMillis) {
+        Assert.isTrue(warmupMillis >= 0, "Warmup must not be negative");
+        this.warmupMillis = warmupMillis;
+    }
+
+    public void setDurationMillis(long durationMillis) {
+        Assert.isTrue(durationMillis > 0, "Duration must be positive");
+        this.durationMillis = durationMillis;
+    }
+
+    /**
+     * Runs the mix for the warmup and then the measured duration, and
+     * prints what was measured.
+     *
+     * @param mix scenarios and their relative weights
+     */
+    public void run(Map<Scenario, Integer> mix, final PrintStream out)
+            throws InterruptedException {
+        Assert.notEmpty(mix, "Mix must not be empty");
+        final Scenario[] scenarios = new Scenario[mix.size()];
+        final int[] cumulative = new int[mix.size()];
+        int total = 0;
+        int i = 0;
+        for (Map.Entry<Scenario, Integer> entry : mix.entrySet()) {
+            Assert.isTrue(entry.getValue() > 0, "Weights must be positive");
+            total += entry.getValue();
+            scenarios[i] = entry.getKey();
+            cumulative[i++] = total;
+        }
+        final int totalWeight = total;
+
+        final long intervalNanos = (rate > 0 ?
+                (long) (1e9 * threads / rate) : 0);
+        final long start = System.nanoTime() + 100000000L;
+        final long measureFrom = start + warmupMillis * 1000000L;
+        final long end = measureFrom + durationMillis * 1000000L;
+        final AtomicLong failures = new AtomicLong();
+        final List<LatencyRecorder> recorders = new ArrayList<LatencyRecorder>();
+        final CountDownLatch done = new CountDownLatch(threads);
+
+        for (int t = 0; t < threads; t++) {
+            final LatencyRecorder recorder = new LatencyRecorder();
+            recorders.add(recorder);
+            final long offset = (intervalNanos * t) / threads;
+            Thread worker = new Thread("load-" + t) {
+                @Override
+                public void run() {
+                    try {
+                        drive(new LoadClient(dispatcher, servletContext,
+                                recorder), recorder, scenarios, cumulative,
+                                totalWeight, intervalNanos, start + offset,
+                                measureFrom, end, failures, out);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            };
+            worker.setDaemon(true);
+            worker.start();
+        }
+        done.await();
+        report(LatencyRecorder.merge(recorders), failures.get(), out);
+    }
+
+    private static void drive(LoadClient client, LatencyRecorder recorder,
+            Scenario[] scenarios, int[] cumulative, int totalWeight,
+            long intervalNanos, long start, long measureFrom, long end,
+            AtomicLong failures, PrintStream out) {
+        Random random = new Random();
+        boolean measuring = false;
+        long due = start;
+        while (true) {
+            long now = System.nanoTime();
+            if (intervalNanos > 0) {
+                if (due > now) {
+                    LockSupport.parkNanos(due - now);
+                    now = System.nanoTime();
+                }
+            } else {
+                due = Math.max(now, start);
+            }
+            if (due >= end) {
+                return;
+            }
+            if (!measuring && due >= measureFrom) {
+                recorder.clear();
+                measuring = true;
+            }
+
+            int pick = random.nextInt(totalWeight);
+            int s = 0;
+            while (cumulative[s] <= pick) {
+                s++;
+            }
+            boolean error = false;
+            try {
+                scenarios[s].run(client);
+            } catch (Exception e) {
+                error = true;
+                if (measuring && failures.getAndIncrement() == 0) {
+                    out.println("First failure, in " + scenarios[s].getName()
+                            + ":");
+                    e.printStackTrace(out);
+                }
+            }
+            recorder.record(scenarios[s].getName() + " (scenario)",
+                    System.nanoTime() - due, error);
+            due += intervalNanos;
+        }
+    }
+
+    private void report(LatencyRecorder merged, long failures,
+            PrintStream out) {
+        double seconds = durationMillis / 1000.0;
+        out.printf("%d threads, %s, %.0f s measured after %.0f s warmup%n",
+                threads, (rate > 0 ? rate + " req/s target" : "unthrottled"),
+                seconds, warmupMillis / 1000.0);
+        out.printf("%-32s %8s %7s %9s %9s %9s %9s %9s%n", "", "count",
+                "errors", "req/s", "p50 ms", "p99 ms", "p999 ms", "max ms");
+        for (LatencyRecorder.Series s : merged.getSeries()) {
+            out.printf("%-32s %8d %7d %9.1f %9.3f %9.3f %9.3f %9.3f%n",
+                    s.getLabel(), s.getCount(), s.getErrors(),
+                    s.getCount() / seconds, millis(s.getNanosAt(0.5)),
+                    millis(s.getNanosAt(0.99)), millis(s.getNanosAt(0.999)),
+                    millis(s.getNanosAt(1.0)));
+        }
+        if (failures > 0) {
+            out.println(failures + " scenarios failed with an exception");
+        }
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    public void close() {
+        dispatcher.destroy();
+        rootContext.close();
+    }
+
+    /**
+     * @param mix names and weights, as in <code>home:40,search:30</code>
+     */
+    static Map<Scenario, Integer> parseMix(String mix, int accounts) {
+        Map<String, Scenario> known = new LinkedHashMap<String, Scenario>();
+        for (Scenario scenario : new Scenario[] {Scenarios.home(),
+                Scenarios.search(), Scenarios.viewAccount(accounts),
+                Scenarios.createAccount()}) {
+            known.put(scenario.getName(), scenario);
+        }
+        Map<Scenario, Integer> weights = new LinkedHashMap<Scenario, Integer>();
+        for (String part : StringUtils.commaDelimitedListToStringArray(mix)) {
+            String[] nameAndWeight = StringUtils.split(part.trim(), ":");
+            Assert.notNull(nameAndWeight, "Mix entries must be name:weight");
+            Scenario scenario = known.get(nameAndWeight[0]);
+            Assert.notNull(scenario, "Unknown scenario " + nameAndWeight[0]
+                    + "; expected one of " + known.keySet());
+            weights.put(scenario, Integer.valueOf(nameAndWeight[1]));
+        }
+        return weights;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<String, String>();
+        for (String arg : args) {
+            Assert.isTrue(arg.startsWith("--") && arg.indexOf('=') > 2,
+                    "Options are given as --name=value, not " + arg);
+            options.put(arg.substring(2, arg.indexOf('=')),
+                    arg.substring(arg.indexOf('=') + 1));
+        }
+        int accounts = Integer.parseInt(option(options, "accounts", "1000"));
+        if (System.getProperty(SCHEDULE_PROPERTY) == null) {
+            File schedule = File.createTempFile("schedule", ".snapshot");
+            schedule.deleteOnExit();
+            ScheduleGenerator.write(Integer.parseInt(
+                    option(options, "legs", "100000")), 30, schedule);
+            System.setProperty(SCHEDULE_PROPERTY, schedule.getPath());
+        }
+        File accountsDir = null;
+        if (System.getProperty(ACCOUNTS_PROPERTY) == null) {
+            accountsDir = Files.createTempDirectory("accounts").toFile();
+            System.setProperty(ACCOUNTS_PROPERTY, accountsDir.getPath());
+        }
+
+        LoadHarness harness = new LoadHarness(
+                option(options, "webapp", "WebContent"));
+        try {
+            harness.setThreads(Integer.parseInt(
+                    option(options, "threads", "8")));
+            harness.setRate(Double.parseDouble(option(options, "rate", "0")));
+            harness.setWarmupMillis(1000 * Long.parseLong(
+                    option(options, "warmup", "5")));
+            harness.setDurationMillis(1000 * Long.parseLong(
+                    option(options, "seconds", "30")));
+            Scenarios.seedAccounts(harness.getRootContext().getBean(
+                    "accountService", AccountService.class), accounts);
+            harness.run(parseMix(option(options, "mix", DEFAULT_MIX),
+                    accounts), System.out);
+        } finally {
+            harness.close();
+            if (accountsDir != null) {
+                delete(accountsDir);
+            }
+        }
+    }
+
+    private static void delete(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private static String option(Map<String, String> options, String name,
+            String defaultValue) {
+        String value = options.get(name);
+        return (value == null ? defaultValue : value);
+    }
+
+}
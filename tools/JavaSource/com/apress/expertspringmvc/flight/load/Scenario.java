@@ -0,0 +1,17 @@
+package JavaSource.com.apress.expertspringmvc.flight.load;
+
+/**
+ * One unit of simulated user behaviour, such as a single page view or a
+ * whole multi-page flow, issued through a {@link LoadClient}.
+ */
+public interface Scenario {
+
+    /**
+     * @return the name the scenario is chosen by in a mix and reported
+     * under
+     */
+    String getName();
+
+    void run(LoadClient client) throws Exception;
+
+}
@@ -0,0 +1,151 @@
+package JavaSource.com.apress.expertspringmvc.flight.load;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.util.Assert;
+
+import JavaSource.com.apress.expertspringmvc.flight.domain.Account;
+import JavaSource.com.apress.expertspringmvc.flight.domain.Name;
+import JavaSource.com.apress.expertspringmvc.flight.service.AccountService;
+
+/**
+ * The scenarios the harness knows, one per page of the application.
+ */
+public final class Scenarios {
+
+    private static final long ONE_DAY = 1000*60*60*24;
+
+    static final String[] FIRST_NAMES = {
+        "Ada", "Alan", "Barbara", "Dennis", "Edsger", "Frances", "Grace",
+        "John", "Ken", "Leslie", "Margaret", "Niklaus" };
+
+    static final String[] LAST_NAMES = {
+        "Allen", "Dijkstra", "Hopper", "Kay", "Knuth", "Lamport",
+        "Liskov", "Lovelace", "Ritchie", "Thompson", "Turing", "Wirth" };
+
+    static final String[] AIRPORTS = {
+        "ATL", "BOS", "DEN", "DFW", "JFK", "LAX", "ORD", "SEA", "SFO" };
+
+    private static final AtomicLong NEW_USERS = new AtomicLong();
+
+    private Scenarios() { }
+
+    /**
+     * Saves accounts named <code>load0</code> to <code>load(count-1)</code>
+     * for {@link #viewAccount(int)} to look up.
+     */
+    public static void seedAccounts(AccountService accounts, int count) {
+        for (int i = 0; i < count; i++) {
+            Account account = new Account(new Name(
+                    FIRST_NAMES[i % FIRST_NAMES.length], null,
+                    LAST_NAMES[(i / FIRST_NAMES.length) % LAST_NAMES.length]),
+                    "load" + i, "secret");
+            account.setEmail("load" + i + "@example.com");
+            accounts.saveAccount(account);
+        }
+    }
+
+    /**
+     * Views the home page.
+     */
+    public static Scenario home() {
+        return new Scenario() {
+            public String getName() {
+                return "home";
+            }
+
+            public void run(LoadClient client) throws Exception {
+                client.get("/home", "/home");
+            }
+        };
+    }
+
+    /**
+     * Submits the search form for a random route leaving tomorrow.
+     */
+    public static Scenario search() {
+        return new Scenario() {
+            public String getName() {
+                return "search";
+            }
+
+            public void run(LoadClient client) throws Exception {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                int from = random.nextInt(AIRPORTS.length);
+                int to = (from + 1 + random.nextInt(AIRPORTS.length - 1))
+                        % AIRPORTS.length;
+                Date departOn = new Date(System.currentTimeMillis() + ONE_DAY
+                        + random.nextInt(24) * (ONE_DAY / 24));
+                client.post("/findFlights", "/findFlights",
+                        "departFrom", AIRPORTS[from],
+                        "arriveAt", AIRPORTS[to],
+                        "departOn",
+                        new SimpleDateFormat("yyyy-MM-dd HH").format(departOn));
+            }
+        };
+    }
+
+    /**
+     * Looks up a seeded account by username, or a page of accounts by last
+     * name one time in four.
+     *
+     * @param accounts how many accounts were seeded
+     */
+    public static Scenario viewAccount(final int accounts) {
+        Assert.isTrue(accounts > 0, "Some accounts must be seeded");
+        return new Scenario() {
+            public String getName() {
+                return "account";
+            }
+
+            public void run(LoadClient client) throws Exception {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                if (random.nextInt(4) == 0) {
+                    client.get("/account/findByLastName",
+                            "/account/findByLastName", "searchBy",
+                            LAST_NAMES[random.nextInt(LAST_NAMES.length)]);
+                } else {
+                    client.get("/account/findByUsername",
+                            "/account/findByUsername", "searchBy",
+                            "load" + random.nextInt(accounts));
+                }
+            }
+        };
+    }
+
+    /**
+     * Walks a new visitor through every page of the account wizard,
+     * recording each page separately.
+     */
+    public static Scenario createAccount() {
+        return new Scenario() {
+            public String getName() {
+                return "createAccount";
+            }
+
+            public void run(LoadClient client) throws Exception {
+                String username = "new" + NEW_USERS.incrementAndGet();
+                client.newSession();
+                client.get("/createAccount [form]", "/createAccount");
+                client.post("/createAccount [page 0]", "/createAccount",
+                        "_page", "0",
+                        "_target1", "",
+                        "account.username", username,
+                        "account.password", "secret",
+                        "confirmPassword", "secret",
+                        "account.email", username + "@example.com");
+                client.post("/createAccount [finish]", "/createAccount",
+                        "_page", "1",
+                        "_finish", "",
+                        "account.billingAddress.street", "1 Main St",
+                        "account.billingAddress.city", "Springfield",
+                        "account.billingAddress.state", "IL",
+                        "account.billingAddress.postalCode", "62701");
+            }
+        };
+    }
+
+}
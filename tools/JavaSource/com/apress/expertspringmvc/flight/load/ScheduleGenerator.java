@@ -0,0 +1,81 @@
+package JavaSource.com.apress.expertspringmvc.flight.load;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import org.springframework.util.Assert;
+
+import JavaSource.com.apress.expertspringmvc.flight.domain.Airport;
+import JavaSource.com.apress.expertspringmvc.flight.domain.FlightLeg;
+import JavaSource.com.apress.expertspringmvc.flight.service.ScheduleSnapshot;
+
+/**
+ * Writes a sample schedule snapshot for the application to serve, as
+ * <code>-Dflight.schedule.snapshot=file</code>.  The legs run between the
+ * airports the load {@link Scenarios} search, leaving at random from the
+ * day before the snapshot is written for the given number of days, and
+ * are the same for the same arguments on the same day.
+ * <p>
+ * Run as <code>ScheduleGenerator [--legs=100000] [--days=30] file</code>.
+ */
+public class ScheduleGenerator {
+
+    private static final long ONE_HOUR = 1000*60*60;
+    private static final long ONE_DAY = ONE_HOUR*24;
+
+    private ScheduleGenerator() { }
+
+    public static List<FlightLeg> generate(int legs, int days) {
+        Assert.isTrue(legs >= 0, "Legs must not be negative");
+        Assert.isTrue(days > 0, "Days must be positive");
+        Random random = new Random(legs);
+        String[] codes = Scenarios.AIRPORTS;
+        Airport[] airports = new Airport[codes.length];
+        for (int i = 0; i < airports.length; i++) {
+            airports[i] = new Airport(codes[i], codes[i]);
+        }
+        long start = (System.currentTimeMillis() / ONE_DAY - 1) * ONE_DAY;
+        List<FlightLeg> schedule = new ArrayList<FlightLeg>(legs);
+        for (int i = 0; i < legs; i++) {
+            int from = random.nextInt(airports.length);
+            int to = (from + 1 + random.nextInt(airports.length - 1))
+                % airports.length;
+            long departOn = start + random.nextInt(days * 24 * 60) * 60000L;
+            long arriveOn = departOn + (1 + random.nextInt(6)) * ONE_HOUR;
+            schedule.add(new FlightLeg(airports[from], new Date(departOn),
+                    airports[to], new Date(arriveOn),
+                    new BigDecimal(100 + random.nextInt(800))));
+        }
+        return schedule;
+    }
+
+    public static void write(int legs, int days, File file)
+            throws IOException {
+        ScheduleSnapshot.write(generate(legs, days), file);
+    }
+
+    public static void main(String[] args) throws IOException {
+        int legs = 100000;
+        int days = 30;
+        String file = null;
+        for (String arg : args) {
+            if (arg.startsWith("--legs=")) {
+                legs = Integer.parseInt(arg.substring("--legs=".length()));
+            } else if (arg.startsWith("--days=")) {
+                days = Integer.parseInt(arg.substring("--days=".length()));
+            } else {
+                file = arg;
+            }
+        }
+        Assert.notNull(file, "Usage: ScheduleGenerator [--legs=100000] "
+                + "[--days=30] file");
+        write(legs, days, new File(file));
+        System.out.println("Wrote " + legs + " legs to " + file);
+    }
+
+}